@@ -16,8 +16,13 @@
 
 package com.adobe.cq.commerce.demandware;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
 
 /**
  * Central Demandware client service providing Demandware instance endpoint and already prepared, ready to use HTTP
@@ -27,6 +32,16 @@ public interface DemandwareClient {
 
     String DEFAULT_SCHEMA = "https://";
 
+    /**
+     * Traffic class of interactive requests, e.g. authoring previews, admitted ahead of bulk traffic.
+     */
+    String TRAFFIC_CLASS_INTERACTIVE = "interactive";
+
+    /**
+     * Traffic class of bulk requests, e.g. replication and product import.
+     */
+    String TRAFFIC_CLASS_BULK = "bulk";
+
     /**
      * Get the configured base endpoint of the Demandware instance.
      *
@@ -35,19 +50,75 @@ public interface DemandwareClient {
     String getEndpoint();
 
     /**
-     * Creates a HTTP client builder with all of the defaults.
+     * Creates a HTTP client builder with all of the defaults. Clients built from it borrow their connections from the
+     * long-lived connection pool of the instance, closing such a client does not shut down the pool. Built clients
+     * should be closed after use, a pool replaced by a reconfiguration is kept open until its clients are closed.
      *
      * @return the created {@code HttpClientBuilder}
      */
     HttpClientBuilder getHttpClientBuilder();
 
     /**
-     * Creates a HTTP client using the client builder.
+     * Creates a HTTP client builder for the given traffic class. Each traffic class has its own connection pool,
+     * concurrency limit and timeouts, unknown traffic classes fall back to the default traffic class of the instance.
      *
-     * @return the created {@code CloseableHttpClient}
+     * @param trafficClass name of the traffic class, e.g. {@link #TRAFFIC_CLASS_INTERACTIVE}
+     * @return the created {@code HttpClientBuilder}
+     * @see #getHttpClientBuilder()
+     */
+    HttpClientBuilder getHttpClientBuilder(String trafficClass);
+
+    /**
+     * Get the shared HTTP client of the instance backed by the instance connection pool. The client is owned by the
+     * Demandware client service and must not be closed by callers, it always uses the current configuration of the
+     * instance.
+     *
+     * @return the shared {@code CloseableHttpClient}
      */
     CloseableHttpClient getHttpClient();
 
+    /**
+     * Get the shared HTTP client of the given traffic class, see {@link #getHttpClientBuilder(String)}.
+     *
+     * @param trafficClass name of the traffic class, e.g. {@link #TRAFFIC_CLASS_INTERACTIVE}
+     * @return the shared {@code CloseableHttpClient}
+     */
+    CloseableHttpClient getHttpClient(String trafficClass);
+
+    /**
+     * Execute the request with the non-blocking HTTP client of the instance. The client shares timeouts, keystore,
+     * proxy and local interface settings with the blocking clients, but runs all requests on a small number of I/O
+     * threads. The response entity is buffered in memory, so no connection has to be released by the caller. The
+     * calling thread is never blocked: rate limited requests are sent delayed, requests exceeding the concurrency limit
+     * are rejected immediately. The returned future is completed on a callback thread of the instance.
+     *
+     * @param request the request to execute
+     * @return future completed with the response, or completed exceptionally if the request failed
+     */
+    CompletableFuture<HttpResponse> executeAsync(HttpUriRequest request);
+
+    /**
+     * Execute the request with the non-blocking HTTP client of the instance using the given execution context.
+     *
+     * @param request the request to execute
+     * @param context the execution context, may be {@code null}
+     * @return future completed with the response, or completed exceptionally if the request failed
+     * @see #executeAsync(HttpUriRequest)
+     */
+    CompletableFuture<HttpResponse> executeAsync(HttpUriRequest request, HttpContext context);
+
+    /**
+     * Execute the request with the non-blocking HTTP client of the instance, admitted as part of the given traffic
+     * class.
+     *
+     * @param request      the request to execute
+     * @param context      the execution context, may be {@code null}
+     * @param trafficClass name of the traffic class, e.g. {@link #TRAFFIC_CLASS_INTERACTIVE}
+     * @return future completed with the response, or completed exceptionally if the request failed
+     * @see #executeAsync(HttpUriRequest)
+     */
+    CompletableFuture<HttpResponse> executeAsync(HttpUriRequest request, HttpContext context, String trafficClass);
+
     /**
      * Get the configured id of the Demandware instance. Used to connect Demandware client with Replication Agent.
      *
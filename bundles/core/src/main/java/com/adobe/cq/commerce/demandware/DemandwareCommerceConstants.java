@@ -26,6 +26,16 @@ public interface DemandwareCommerceConstants {
     
     String DWRE_RENDERING_SELECTOR = "vm";
     
+    /**
+     * Selector of the preview fragment of a placeholder, loaded asynchronously by the page.
+     */
+    String DWRE_PREVIEW_SELECTOR = "dwrepreview";
+    
+    /**
+     * Additional selector of the preview fragment of a placeholder backed by a shop category.
+     */
+    String DWRE_PREVIEW_CATEGORY_SELECTOR = "category";
+    
     /**
      * base attributes for internal JSON object
      **/
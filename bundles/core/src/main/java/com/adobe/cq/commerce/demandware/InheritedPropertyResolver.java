@@ -0,0 +1,40 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware;
+
+import com.day.cq.wcm.api.Page;
+
+/**
+ * Resolves inheritable Demandware page properties like {@link DemandwareCommerceConstants#PN_DWRE_INSTANCE_ID} or
+ * {@link DemandwareCommerceConstants#PN_DWRE_SITE}, set on a page or inherited from the closest ancestor. The effective
+ * values are cached per hierarchy node and evicted as soon as one of the properties changes on the node or one of its
+ * ancestors.
+ */
+public interface InheritedPropertyResolver {
+
+    /**
+     * Get the value of the property set on the page or inherited from the closest ancestor page, like
+     * {@link com.day.cq.commons.inherit.HierarchyNodeInheritanceValueMap#getInherited(String, Object)}.
+     *
+     * @param page         the page
+     * @param name         name of the property
+     * @param defaultValue value returned if neither the page nor one of its ancestors has the property
+     * @return the inherited value or the default value
+     */
+    String getInherited(Page page, String name, String defaultValue);
+}
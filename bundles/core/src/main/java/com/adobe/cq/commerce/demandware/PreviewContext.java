@@ -0,0 +1,154 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.Resource;
+
+import com.day.cq.wcm.api.Page;
+
+/**
+ * Everything the preview of a component needs to know about its page: the Demandware instance, the preview
+ * configuration, the site and the language. Resolving them walks up the content tree, so the context is resolved once
+ * per page and request and shared by all components of the page, see
+ * {@link PreviewService#getPreviewContext(org.apache.sling.api.SlingHttpServletRequest, Resource)}.
+ */
+public final class PreviewContext {
+
+    /**
+     * Request attribute holding the preview contexts of the request.
+     */
+    public static final String REQUEST_ATTRIBUTE = PreviewContext.class.getName();
+
+    private final Page page;
+    private final String contentPath;
+    private final String instanceId;
+    private final PreviewServiceConfig previewServiceConfig;
+    private final DemandwareClient demandwareClient;
+    private final String site;
+    private final String language;
+    // markup of the components rendered for Demandware by resource path
+    private final Map<String, String> renderedComponents = new ConcurrentHashMap<>();
+    // previews requested in a batch by resource path
+    private final Map<String, String> previews = new ConcurrentHashMap<>();
+    private volatile long deadline;
+
+    public PreviewContext(final Page page, final String instanceId, final PreviewServiceConfig previewServiceConfig,
+                          final DemandwareClient demandwareClient, final String site, final String language) {
+        this.page = page;
+        this.contentPath = page.getPath() + "/" + JcrConstants.JCR_CONTENT;
+        this.instanceId = instanceId;
+        this.previewServiceConfig = previewServiceConfig;
+        this.demandwareClient = demandwareClient;
+        this.site = site;
+        this.language = language;
+    }
+
+    /**
+     * @param resource the component resource
+     * @return <code>true</code> if the resource is part of the page of this context
+     */
+    public boolean contains(final Resource resource) {
+        final String path = resource.getPath();
+        return path.startsWith(contentPath)
+                && (path.length() == contentPath.length() || path.charAt(contentPath.length()) == '/');
+    }
+
+    public Page getPage() {
+        return page;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public PreviewServiceConfig getPreviewServiceConfig() {
+        return previewServiceConfig;
+    }
+
+    public DemandwareClient getDemandwareClient() {
+        return demandwareClient;
+    }
+
+    /**
+     * @return the Demandware site of the page, inherited from the ancestor pages or the default site
+     */
+    public String getSite() {
+        return site;
+    }
+
+    /**
+     * @return the Demandware locale of the page or {@code default} if the page has no language
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * @return the time in ms since the epoch after which the previews of the page are no longer requested from
+     * Demandware, 0 if the previews have no deadline
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline the time in ms since the epoch after which the previews of the page are no longer requested, 0
+     *                 for no deadline
+     */
+    public void setDeadline(final long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param path the component resource path
+     * @return the markup of the component rendered for Demandware earlier in the request, e.g. by the prefetch, or
+     * {@code null} if not rendered yet
+     */
+    public String getRenderedComponent(final String path) {
+        return renderedComponents.get(path);
+    }
+
+    /**
+     * @param path     the component resource path
+     * @param rendered the markup of the component rendered for Demandware
+     */
+    public void putRenderedComponent(final String path, final String rendered) {
+        renderedComponents.put(path, rendered);
+    }
+
+    /**
+     * @param path the component resource path
+     * @return the preview of the component requested in a batch earlier in the request or {@code null} if not
+     * requested
+     */
+    public String getPreview(final String path) {
+        return previews.get(path);
+    }
+
+    /**
+     * @param path    the component resource path
+     * @param preview the preview of the component
+     */
+    public void putPreview(final String path, final String preview) {
+        previews.put(path, preview);
+    }
+}
@@ -16,6 +16,13 @@
 
 package com.adobe.cq.commerce.demandware;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
 
 /**
@@ -25,7 +32,7 @@ import org.apache.sling.api.resource.Resource;
 public interface PreviewService {
 
     /**
-     * Get the prerendered content fragment form the backend service.
+     * Get the prerendered content fragment from the backend service.
      *
      * @param resource the component resource
      * @param useCache <code>true</code> to cache the prerendered content fragment
@@ -34,7 +41,7 @@ public interface PreviewService {
     String previewComponent(Resource resource, boolean useCache);
 
     /**
-     * Get the prerendered content fragment form the backend service.
+     * Get the prerendered content fragment from the backend service.
      *
      * @param resource  the component resource
      * @param useCache  <code>true</code> to cache the prerendered content fragment
@@ -44,11 +51,189 @@ public interface PreviewService {
     String previewComponent(Resource resource, boolean useCache, String... selectors);
 
     /**
-     * Get the prerendered content fragment backed by a shop category form the backend service.
+     * Get the prerendered content fragment backed by a shop category from the backend service.
      *
      * @param resource the component resource
      * @param useCache <code>true</code> to cache the prerendered content fragment
      * @return the prerendered content fragment
      */
     String previewCategoryComponent(Resource resource, boolean useCache);
+
+    /**
+     * Get the preview context of the page containing the component. The context is resolved once per page and kept
+     * as request attribute {@link PreviewContext#REQUEST_ATTRIBUTE}, so all components of a page share it.
+     *
+     * @param request  the current request
+     * @param resource the component resource
+     * @return the preview context of the page containing the component, or {@code null} if the component is not part
+     * of a page or there is no preview configuration for the Demandware instance of the page
+     */
+    PreviewContext getPreviewContext(SlingHttpServletRequest request, Resource resource);
+
+    /**
+     * Get the prerendered content fragment from the backend service, using the preview context of the page.
+     *
+     * @param context  the preview context of the page, resolved again if it does not contain the component
+     * @param resource the component resource
+     * @param useCache <code>true</code> to cache the prerendered content fragment
+     * @return the prerendered content fragment
+     * @see #getPreviewContext(SlingHttpServletRequest, Resource)
+     */
+    String previewComponent(PreviewContext context, Resource resource, boolean useCache);
+
+    /**
+     * Get the prerendered content fragment backed by a shop category from the backend service, using the preview
+     * context of the page.
+     *
+     * @param context  the preview context of the page, resolved again if it does not contain the component
+     * @param resource the component resource
+     * @param useCache <code>true</code> to cache the prerendered content fragment
+     * @return the prerendered content fragment
+     * @see #getPreviewContext(SlingHttpServletRequest, Resource)
+     */
+    String previewCategoryComponent(PreviewContext context, Resource resource, boolean useCache);
+
+    /**
+     * Write the prerendered content fragment from the backend service to the writer. The response of the backend
+     * service is streamed into the writer, it is cached only if it does not exceed the configured size, so large
+     * fragments are never buffered in full.
+     *
+     * @param context  the preview context of the page, resolved again if it does not contain the component
+     * @param resource the component resource
+     * @param useCache <code>true</code> to cache the prerendered content fragment
+     * @param out      the writer receiving the prerendered content fragment
+     * @throws IOException if writing to the writer failed
+     * @see #previewComponent(PreviewContext, Resource, boolean)
+     */
+    void previewComponent(PreviewContext context, Resource resource, boolean useCache, Writer out)
+            throws IOException;
+
+    /**
+     * Write the prerendered content fragment backed by a shop category from the backend service to the writer.
+     *
+     * @param context  the preview context of the page, resolved again if it does not contain the component
+     * @param resource the component resource
+     * @param useCache <code>true</code> to cache the prerendered content fragment
+     * @param out      the writer receiving the prerendered content fragment
+     * @throws IOException if writing to the writer failed
+     * @see #previewComponent(PreviewContext, Resource, boolean, Writer)
+     */
+    void previewCategoryComponent(PreviewContext context, Resource resource, boolean useCache, Writer out)
+            throws IOException;
+
+    /**
+     * Get the prerendered content fragment from the backend service without blocking the calling thread on the
+     * backend request. The component is rendered by the calling thread, as resources must not be shared between
+     * threads, only the backend request is executed asynchronously.
+     *
+     * @param context  the preview context of the page, resolved again if it does not contain the component
+     * @param resource the component resource
+     * @param useCache <code>true</code> to cache the prerendered content fragment
+     * @return future completed with the prerendered content fragment, completed immediately if cached
+     * @see #previewComponent(PreviewContext, Resource, boolean)
+     */
+    CompletableFuture<String> previewComponentAsync(PreviewContext context, Resource resource, boolean useCache);
+
+    /**
+     * Get the prerendered content fragment backed by a shop category from the backend service without blocking the
+     * calling thread on the backend request.
+     *
+     * @param context  the preview context of the page, resolved again if it does not contain the component
+     * @param resource the component resource
+     * @param useCache <code>true</code> to cache the prerendered content fragment
+     * @return future completed with the prerendered content fragment, completed immediately if cached
+     * @see #previewComponentAsync(PreviewContext, Resource, boolean)
+     */
+    CompletableFuture<String> previewCategoryComponentAsync(PreviewContext context, Resource resource,
+                                                            boolean useCache);
+
+    /**
+     * Get the prerendered content fragments of several components from the backend service. Components not cached
+     * are rendered in one backend request per Demandware instance and site if a batch preview endpoint is
+     * configured.
+     *
+     * @param resources the component resources
+     * @param useCache  <code>true</code> to cache the prerendered content fragments
+     * @return the prerendered content fragments by resource path, in the order of the resources
+     */
+    Map<String, String> previewComponents(List<Resource> resources, boolean useCache);
+
+    /**
+     * Get the prerendered content fragments of several components backed by a shop category from the backend service.
+     *
+     * @param resources the component resources
+     * @param useCache  <code>true</code> to cache the prerendered content fragments
+     * @return the prerendered content fragments by resource path, in the order of the resources
+     * @see #previewComponents(List, boolean)
+     */
+    Map<String, String> previewCategoryComponents(List<Resource> resources, boolean useCache);
+
+    /**
+     * Get the prerendered content fragments of several components of the page of the context from the backend
+     * service, see {@link #previewComponents(List, boolean)}. The fragments are kept in the context, so the preview
+     * calls of the same components with the context return them without another backend request.
+     *
+     * @param context   the preview context of the page, may be {@code null}
+     * @param resources the component resources
+     * @param useCache  <code>true</code> to cache the prerendered content fragments
+     * @return the prerendered content fragments by resource path, in the order of the resources
+     * @see #getPreviewContext(SlingHttpServletRequest, Resource)
+     */
+    Map<String, String> previewComponents(PreviewContext context, List<Resource> resources, boolean useCache);
+
+    /**
+     * Get the prerendered content fragments of several components backed by a shop category of the page of the
+     * context from the backend service.
+     *
+     * @param context   the preview context of the page, may be {@code null}
+     * @param resources the component resources
+     * @param useCache  <code>true</code> to cache the prerendered content fragments
+     * @return the prerendered content fragments by resource path, in the order of the resources
+     * @see #previewComponents(PreviewContext, List, boolean)
+     */
+    Map<String, String> previewCategoryComponents(PreviewContext context, List<Resource> resources,
+                                                  boolean useCache);
+
+    /**
+     * Request the previews of the components from the backend service in the background. Subsequent preview calls for
+     * the same components wait for the prefetched preview instead of sending another backend request. The components
+     * are rendered by the calling thread, as resources must not be shared between threads.
+     *
+     * @param resources the component resources
+     * @param useCache  <code>true</code> to cache the prerendered content fragments
+     */
+    void prefetchComponents(List<Resource> resources, boolean useCache);
+
+    /**
+     * Request the previews of the components from the backend service in the background, resolving the components of
+     * the page of the context with the context. The components are rendered once per context, the preview calls of
+     * the same components with the context reuse the rendered markup.
+     *
+     * @param context   the preview context of the page, may be {@code null}
+     * @param resources the component resources
+     * @param useCache  <code>true</code> to cache the prerendered content fragments
+     * @see #prefetchComponents(List, boolean)
+     * @see #getPreviewContext(SlingHttpServletRequest, Resource)
+     */
+    void prefetchComponents(PreviewContext context, List<Resource> resources, boolean useCache);
+
+    /**
+     * Request the previews of components backed by a shop category from the backend service in the background.
+     *
+     * @param resources the component resources
+     * @param useCache  <code>true</code> to cache the prerendered content fragments
+     * @see #prefetchComponents(List, boolean)
+     */
+    void prefetchCategoryComponents(List<Resource> resources, boolean useCache);
+
+    /**
+     * Request the previews of components backed by a shop category from the backend service in the background,
+     * resolving the components of the page of the context with the context.
+     *
+     * @param context   the preview context of the page, may be {@code null}
+     * @param resources the component resources
+     * @param useCache  <code>true</code> to cache the prerendered content fragments
+     * @see #prefetchComponents(PreviewContext, List, boolean)
+     */
+    void prefetchCategoryComponents(PreviewContext context, List<Resource> resources, boolean useCache);
 }
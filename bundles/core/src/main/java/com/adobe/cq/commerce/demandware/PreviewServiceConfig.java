@@ -22,6 +22,11 @@ public interface PreviewServiceConfig {
     
     String getPreviewPageEndPoint();
     
+    /**
+     * @return endpoint rendering the previews of several components in one request, {@code null} if not configured
+     */
+    String getPreviewBatchEndPoint();
+    
     PreviewCache getCache();
     
     Boolean getStorfrontProtectionEnabled();
@@ -36,4 +41,10 @@ public interface PreviewServiceConfig {
     
     String getInstanceId();
     
+    /**
+     * @return {@code true} if placeholders render a lightweight shell and the page loads their previews
+     * asynchronously
+     */
+    boolean isLazyLoading();
+    
 }
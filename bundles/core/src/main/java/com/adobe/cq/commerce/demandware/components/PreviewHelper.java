@@ -16,35 +16,66 @@
 
 package com.adobe.cq.commerce.demandware.components;
 
+import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
+import com.adobe.cq.commerce.demandware.PreviewContext;
 import com.adobe.cq.commerce.demandware.PreviewService;
 import com.adobe.cq.sightly.WCMUsePojo;
 
 /**
- * PoJo for use of @{link PreviewService} in a Sightly component.
+ * PoJo for use of @{link PreviewService} in a Sightly component. The preview context of the page is shared by all
+ * components of the request.
+ * <p>
+ * HTL expressions evaluate to values, so the previews are returned as strings and cannot be streamed into the page.
+ * Placeholders with large previews should be lazy loaded, the preview fragment servlet streams them with
+ * {@link PreviewService#previewComponent(PreviewContext, org.apache.sling.api.resource.Resource, boolean,
+ * java.io.Writer)}.
  */
 public class PreviewHelper extends WCMUsePojo {
 
     private PreviewService previewService;
+    private PreviewContext previewContext;
 
     @Override
     public void activate() throws Exception {
         previewService = getSlingScriptHelper().getService(PreviewService.class);
+        if (previewService != null) {
+            previewContext = previewService.getPreviewContext(getRequest(), getResource());
+        }
+    }
+
+    /**
+     * @return {@code true} if the placeholder renders a lightweight shell and the page loads the preview
+     * asynchronously from {@link #getLazyPreviewUrl()}
+     */
+    public boolean isLazy() {
+        return previewContext != null && previewContext.getPreviewServiceConfig() != null
+                && previewContext.getPreviewServiceConfig().isLazyLoading();
+    }
+
+    public String getLazyPreviewUrl() {
+        return getResource().getPath() + "." + DemandwareCommerceConstants.DWRE_PREVIEW_SELECTOR + ".html";
+    }
 
+    public String getLazyCategoryPreviewUrl() {
+        return getResource().getPath() + "." + DemandwareCommerceConstants.DWRE_PREVIEW_SELECTOR + "."
+                + DemandwareCommerceConstants.DWRE_PREVIEW_CATEGORY_SELECTOR + ".html";
     }
 
     public String getPreviewContent() {
-        return previewService != null ? previewService.previewComponent(getResource(), true) : "";
+        return previewService != null ? previewService.previewComponent(previewContext, getResource(), true) : "";
     }
 
     public String getPreviewContentNoCache() {
-        return previewService != null ? previewService.previewComponent(getResource(), false) : "";
+        return previewService != null ? previewService.previewComponent(previewContext, getResource(), false) : "";
     }
 
     public String getPreviewCategoryContent() {
-        return previewService != null ? previewService.previewCategoryComponent(getResource(), true) : "";
+        return previewService != null
+                ? previewService.previewCategoryComponent(previewContext, getResource(), true) : "";
     }
 
     public String getPreviewCategoryContentNoCache() {
-        return previewService != null ? previewService.previewCategoryComponent(getResource(), false) : "";
+        return previewService != null
+                ? previewService.previewCategoryComponent(previewContext, getResource(), false) : "";
     }
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the number of concurrent calls to a single Demandware instance. Callers wait up to the configured maximum
+ * wait time for a free slot before the call is rejected. Waiting callers are admitted by priority, callers of the
+ * same priority in arrival order.
+ */
+class Bulkhead {
+
+    private final int maxConcurrent;
+    private final long maxWait;
+    private final LongSupplier clock;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private int active;
+    private long sequence;
+
+    Bulkhead(final int maxConcurrent, final long maxWait) {
+        this(maxConcurrent, maxWait, System::nanoTime);
+    }
+
+    /**
+     * @param clock current time in ns, used to time the wait for a free slot
+     */
+    Bulkhead(final int maxConcurrent, final long maxWait, final LongSupplier clock) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.clock = clock;
+    }
+
+    /**
+     * Acquire a call slot, waiting up to the maximum wait time.
+     *
+     * @param priority priority of the caller, higher values are admitted first
+     * @return {@code true} if a slot was acquired and must be released using {@link #release()}
+     */
+    synchronized boolean tryAcquire(final int priority) {
+        if (active < maxConcurrent && waiters.isEmpty()) {
+            active++;
+            return true;
+        }
+
+        final Waiter waiter = new Waiter(priority, sequence++);
+        waiters.add(waiter);
+        final long deadline = clock.getAsLong() + maxWait;
+        try {
+            while (true) {
+                if (active < maxConcurrent && waiters.peek() == waiter) {
+                    waiters.poll();
+                    active++;
+                    // the next waiter may be admitted as well
+                    notifyAll();
+                    return true;
+                }
+                final long remaining = deadline - clock.getAsLong();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        waiters.remove(waiter);
+        notifyAll();
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Acquire a call slot without waiting, used by callers which must not block.
+     *
+     * @return {@code true} if a slot was acquired and must be released using {@link #release()}
+     */
+    synchronized boolean tryAcquireNow() {
+        if (active < maxConcurrent && waiters.isEmpty()) {
+            active++;
+            return true;
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    synchronized int getActiveCount() {
+        return active;
+    }
+
+    synchronized int getWaitingCount() {
+        return waiters.size();
+    }
+
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final int priority;
+        private final long sequence;
+
+        private Waiter(final int priority, final long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(final Waiter other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
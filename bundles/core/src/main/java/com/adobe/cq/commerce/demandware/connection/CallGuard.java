@@ -0,0 +1,120 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+
+import com.adobe.cq.commerce.demandware.DemandwareCallNotPermittedException;
+
+/**
+ * Guards the calls of one traffic class to a single Demandware instance by the concurrency limit of the class, the
+ * bulkhead and the circuit breaker of the instance, all are optional.
+ */
+class CallGuard {
+
+    private final String name;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final Bulkhead classBulkhead;
+    private final int priority;
+
+    CallGuard(final String name, final CircuitBreaker circuitBreaker, final Bulkhead bulkhead,
+              final Bulkhead classBulkhead, final int priority) {
+        this.name = name;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.classBulkhead = classBulkhead;
+        this.priority = priority;
+    }
+
+    /**
+     * Acquire the permission to execute a call. A permitted call must be finished by {@link #release(long, boolean)}.
+     *
+     * @return the start time of the call
+     * @throws DemandwareCallNotPermittedException if the circuit breaker is open or the bulkhead is full
+     */
+    long acquire() {
+        return acquire(true);
+    }
+
+    /**
+     * Acquire the permission to execute a call, see {@link #acquire()}.
+     *
+     * @param wait {@code false} to reject the call immediately if the bulkhead is full instead of waiting for a slot
+     * @return the start time of the call
+     * @throws DemandwareCallNotPermittedException if the circuit breaker is open or the bulkhead is full
+     */
+    long acquire(final boolean wait) {
+        // fail fast on an open circuit breaker instead of waiting for a slot first
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            throw new DemandwareCallNotPermittedException("Circuit breaker of Demandware instance " + name
+                    + " is open");
+        }
+        if (classBulkhead != null && !(wait ? classBulkhead.tryAcquire(priority) : classBulkhead.tryAcquireNow())) {
+            releasePermission();
+            throw new DemandwareCallNotPermittedException("Maximum number of concurrent calls to Demandware instance "
+                    + name + " reached");
+        }
+        if (bulkhead != null && !(wait ? bulkhead.tryAcquire(priority) : bulkhead.tryAcquireNow())) {
+            releaseBulkheads(false);
+            releasePermission();
+            throw new DemandwareCallNotPermittedException("Maximum number of concurrent calls to Demandware instance "
+                    + name + " reached");
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Finish a permitted call.
+     *
+     * @param start  start time of the call as returned by {@link #acquire()}
+     * @param failed {@code true} if the call failed
+     */
+    void release(final long start, final boolean failed) {
+        releaseBulkheads(true);
+        if (circuitBreaker != null) {
+            circuitBreaker.onResult(System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    Bulkhead getClassBulkhead() {
+        return classBulkhead;
+    }
+
+    private void releasePermission() {
+        if (circuitBreaker != null) {
+            circuitBreaker.releasePermission();
+        }
+    }
+
+    private void releaseBulkheads(final boolean instance) {
+        if (instance && bulkhead != null) {
+            bulkhead.release();
+        }
+        if (classBulkhead != null) {
+            classBulkhead.release();
+        }
+    }
+
+    /**
+     * @return {@code true} if the response indicates an unhealthy instance
+     */
+    static boolean isFailure(final HttpResponse response) {
+        return response == null || response.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+}
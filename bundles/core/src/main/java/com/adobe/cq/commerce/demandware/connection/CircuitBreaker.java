@@ -0,0 +1,212 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Count based circuit breaker of a single Demandware instance. The outcome of the last calls is recorded in a ring
+ * buffer, once the failure rate or the slow call rate exceeds its threshold the breaker opens and rejects all calls.
+ * After the open duration a limited number of probe calls is permitted (half open), depending on their outcome the
+ * breaker either closes again or returns to open.
+ */
+class CircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int FAILURE = 1;
+    private static final int SLOW = 2;
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallDuration;
+    private final long openDuration;
+    private final int halfOpenCalls;
+    private final LongSupplier clock;
+
+    private final int[] window;
+    private int windowIndex;
+    private int windowCalls;
+    private int windowFailures;
+    private int windowSlowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openUntil;
+    private int halfOpenPermits;
+
+    private final AtomicLong notPermittedCount = new AtomicLong();
+    private final AtomicInteger openedCount = new AtomicInteger();
+
+    CircuitBreaker(final String name, final int windowSize, final int minimumCalls, final int failureRateThreshold,
+                   final int slowCallRateThreshold, final long slowCallDuration, final long openDuration,
+                   final int halfOpenCalls) {
+        this(name, windowSize, minimumCalls, failureRateThreshold, slowCallRateThreshold, slowCallDuration,
+                openDuration, halfOpenCalls, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock current time in ms, used to time the open state
+     */
+    CircuitBreaker(final String name, final int windowSize, final int minimumCalls, final int failureRateThreshold,
+                   final int slowCallRateThreshold, final long slowCallDuration, final long openDuration,
+                   final int halfOpenCalls, final LongSupplier clock) {
+        this.name = name;
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.openDuration = openDuration;
+        // the breaker closes once the window recorded the half open calls, so they must fit into the window
+        this.halfOpenCalls = Math.min(halfOpenCalls, windowSize);
+        this.clock = clock;
+        this.window = new int[windowSize];
+    }
+
+    /**
+     * Acquire the permission to execute a call.
+     *
+     * @return {@code true} if the call may be executed, in this case the outcome must be recorded using
+     * {@link #onResult(long, boolean)}
+     */
+    boolean tryAcquirePermission() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && clock.getAsLong() >= openUntil) {
+                transition(State.HALF_OPEN);
+                halfOpenPermits = halfOpenCalls;
+                resetWindow();
+            }
+            if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+                halfOpenPermits--;
+                return true;
+            }
+            if (state == State.CLOSED) {
+                return true;
+            }
+        }
+        notPermittedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Return a permission acquired by {@link #tryAcquirePermission()} for a call which was not executed, so a half
+     * open breaker does not run out of probe calls.
+     */
+    synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && halfOpenPermits < halfOpenCalls) {
+            halfOpenPermits++;
+        }
+    }
+
+    /**
+     * Record the outcome of a permitted call.
+     *
+     * @param duration duration of the call in ms
+     * @param failed   {@code true} if the call failed
+     */
+    synchronized void onResult(final long duration, final boolean failed) {
+        final int outcome = (failed ? FAILURE : 0) | (duration >= slowCallDuration ? SLOW : 0);
+        if (windowCalls == windowSize) {
+            final int evicted = window[windowIndex];
+            windowFailures -= evicted & FAILURE;
+            windowSlowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            windowCalls++;
+        }
+        window[windowIndex] = outcome;
+        windowIndex = (windowIndex + 1) % windowSize;
+        windowFailures += outcome & FAILURE;
+        windowSlowCalls += (outcome & SLOW) >> 1;
+
+        if (state == State.HALF_OPEN) {
+            if ((outcome & FAILURE) != 0 || isSlowCallRateExceeded()) {
+                open();
+            } else if (windowCalls >= halfOpenCalls) {
+                transition(State.CLOSED);
+                resetWindow();
+            }
+        } else if (state == State.CLOSED && windowCalls >= minimumCalls
+                && (isFailureRateExceeded() || isSlowCallRateExceeded())) {
+            open();
+        }
+    }
+
+    State getState() {
+        return state;
+    }
+
+    synchronized float getFailureRate() {
+        return windowCalls > 0 ? windowFailures * 100f / windowCalls : 0;
+    }
+
+    synchronized float getSlowCallRate() {
+        return windowCalls > 0 ? windowSlowCalls * 100f / windowCalls : 0;
+    }
+
+    long getNotPermittedCount() {
+        return notPermittedCount.get();
+    }
+
+    int getOpenedCount() {
+        return openedCount.get();
+    }
+
+    private boolean isFailureRateExceeded() {
+        return windowFailures * 100 >= failureRateThreshold * windowCalls;
+    }
+
+    private boolean isSlowCallRateExceeded() {
+        return windowSlowCalls * 100 >= slowCallRateThreshold * windowCalls;
+    }
+
+    private void open() {
+        LOG.warn("Open circuit breaker of Demandware instance {} for {}ms (failure rate {}%, slow call rate {}%)",
+                name, openDuration, getFailureRate(), getSlowCallRate());
+        openUntil = clock.getAsLong() + openDuration;
+        openedCount.incrementAndGet();
+        transition(State.OPEN);
+        resetWindow();
+    }
+
+    private void transition(final State newState) {
+        if (state != newState) {
+            LOG.info("Circuit breaker of Demandware instance {} changed from {} to {}", name, state, newState);
+            state = newState;
+        }
+    }
+
+    private void resetWindow() {
+        windowIndex = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+        windowSlowCalls = 0;
+    }
+}
@@ -0,0 +1,112 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Request metrics of a Demandware instance, kept per endpoint type and in total. The endpoint type of a request is
+ * derived from its target host and path.
+ */
+class ClientMetrics {
+
+    /**
+     * Endpoint types of a Demandware instance.
+     */
+    enum EndpointType {
+        OCAPI, WEBDAV, PREVIEW, STATIC, ASSET, TOKEN, OTHER
+    }
+
+    private final String host;
+    private final String webDavHost;
+    private final String assetPath;
+    private final String[] ocapiPaths;
+
+    private final EndpointMetrics total;
+    private final Map<EndpointType, EndpointMetrics> endpoints;
+
+    /**
+     * @param host       host name of the instance
+     * @param webDavHost host name of the WebDAV server
+     * @param assetPath  path of the asset download endpoint
+     * @param ocapiPaths path prefixes of OCAPI requests
+     * @param previous   metrics of the previous configuration to continue, may be {@code null}
+     */
+    ClientMetrics(final String host, final String webDavHost, final String assetPath, final String[] ocapiPaths,
+                  final ClientMetrics previous) {
+        this.host = StringUtils.substringBefore(host, ":");
+        this.webDavHost = StringUtils.substringBefore(webDavHost, ":");
+        // ignore the placeholder part of the configured asset path
+        this.assetPath = StringUtils.substringBefore(assetPath, "{");
+        this.ocapiPaths = ocapiPaths;
+        if (previous != null) {
+            total = previous.total;
+            endpoints = previous.endpoints;
+        } else {
+            total = new EndpointMetrics();
+            endpoints = new EnumMap<>(EndpointType.class);
+            for (EndpointType type : EndpointType.values()) {
+                endpoints.put(type, new EndpointMetrics());
+            }
+        }
+    }
+
+    EndpointMetrics getTotal() {
+        return total;
+    }
+
+    EndpointMetrics get(final EndpointType type) {
+        return endpoints.get(type);
+    }
+
+    EndpointType getEndpointType(final HttpHost target, final HttpRequest request) {
+        final URI uri = request instanceof HttpUriRequest ? ((HttpUriRequest) request).getURI()
+                : URI.create(request.getRequestLine().getUri());
+        final String targetHost = uri.getHost() != null ? uri.getHost() : target != null ? target.getHostName() : null;
+        final String path = StringUtils.defaultString(uri.getRawPath());
+
+        if (targetHost != null && !StringUtils.equalsAnyIgnoreCase(targetHost, host, webDavHost)) {
+            // the only other host contacted is the account manager issuing the access tokens
+            return EndpointType.TOKEN;
+        }
+        if (StringUtils.contains(path, "/webdav/")
+                || (!StringUtils.equalsIgnoreCase(host, webDavHost) && StringUtils.equalsIgnoreCase(targetHost, webDavHost))) {
+            return EndpointType.WEBDAV;
+        }
+        if (StringUtils.startsWithAny(path, ocapiPaths)) {
+            return EndpointType.OCAPI;
+        }
+        // the asset path usually is a prefix of the static content path, so check the static content first
+        if (path.contains("/demandware.static/")) {
+            return EndpointType.STATIC;
+        }
+        if (StringUtils.isNotEmpty(assetPath) && path.startsWith(assetPath)) {
+            return EndpointType.ASSET;
+        }
+        if (path.contains("/demandware.store/")) {
+            return EndpointType.PREVIEW;
+        }
+        return EndpointType.OTHER;
+    }
+}
@@ -0,0 +1,109 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.config.Registry;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived HTTP connection pool of a single Demandware instance. The pool owns the connection manager and a
+ * background evictor closing expired and idle connections. HTTP clients built on top of the pool only borrow
+ * connections, the pool itself is shut down together with the owning {@link DemandwareClientImpl}. Each client built on
+ * top of the pool holds a reference until it is closed, a pool replaced by a reconfiguration is not shut down while
+ * referenced.
+ */
+class ConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private static final long EVICTOR_INTERVAL = 5000;
+
+    private final String name;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor evictor;
+    private final AtomicInteger references = new AtomicInteger();
+
+    ConnectionPool(final String name, final Registry<ConnectionSocketFactory> socketFactoryRegistry,
+                   final SocketConfig socketConfig, final int maxTotal, final int maxPerRoute, final long idleTimeout) {
+        this.name = name;
+        connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        if (socketConfig != null) {
+            connectionManager.setDefaultSocketConfig(socketConfig);
+        }
+
+        evictor = new IdleConnectionEvictor(connectionManager, runnable -> {
+            final Thread thread = new Thread(runnable, "Demandware connection evictor [" + name + "]");
+            thread.setDaemon(true);
+            return thread;
+        }, Math.min(EVICTOR_INTERVAL, idleTimeout), TimeUnit.MILLISECONDS, idleTimeout, TimeUnit.MILLISECONDS);
+        evictor.start();
+        LOG.info("Created connection pool {} (max total: {}, max per route: {}, idle timeout: {}ms)", name, maxTotal,
+                maxPerRoute, idleTimeout);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Add a reference held by a client using the pool.
+     */
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Release a reference added by {@link #retain()}.
+     */
+    void release() {
+        references.decrementAndGet();
+    }
+
+    /**
+     * @return number of clients still referencing the pool
+     */
+    int getReferenceCount() {
+        return references.get();
+    }
+
+    /**
+     * Stop the evictor and close all pooled connections.
+     */
+    void shutdown() {
+        evictor.shutdown();
+        connectionManager.shutdown();
+        LOG.info("Shut down connection pool {}", name);
+    }
+}
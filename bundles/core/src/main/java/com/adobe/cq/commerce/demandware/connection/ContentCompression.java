@@ -0,0 +1,277 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Gzip content coding of the Demandware clients. Advertises gzip for all responses and decompresses gzip encoded
+ * response entities as a stream. Request entities above the configured threshold are gzip encoded if the request path
+ * starts with one of the configured paths, requests of other paths or with an already encoded entity are left
+ * untouched. Compressed and uncompressed bytes are counted as they are streamed.
+ */
+class ContentCompression implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String GZIP = "gzip";
+    private static final String X_GZIP = "x-gzip";
+
+    private final String[] requestPaths;
+    private final long requestThreshold;
+
+    private final AtomicLong responseCount = new AtomicLong();
+    private final AtomicLong responseCompressedBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong requestCompressedBytes = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+
+    /**
+     * @param requestPaths     path prefixes of requests with compressed entities, {@code null} to never compress
+     *                         request entities
+     * @param requestThreshold minimum size in bytes of request entities to compress, entities of unknown size are
+     *                         always compressed
+     */
+    ContentCompression(final String[] requestPaths, final long requestThreshold) {
+        this.requestPaths = requestPaths;
+        this.requestThreshold = requestThreshold;
+    }
+
+    /**
+     * Advertise gzip as accepted response content coding, unless the request already defines the accepted codings.
+     *
+     * @param request the request
+     */
+    void acceptEncoding(final HttpRequest request) {
+        if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+            request.addHeader(HttpHeaders.ACCEPT_ENCODING, GZIP);
+        }
+    }
+
+    @Override
+    public void process(final HttpRequest request, final HttpContext context) throws HttpException, IOException {
+        acceptEncoding(request);
+        if (requestPaths == null || !(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+        final HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+        final HttpEntity entity = entityRequest.getEntity();
+        // the entity of a retried request is already encoded
+        if (entity == null || entity.getContentEncoding() != null) {
+            return;
+        }
+        if (entity.getContentLength() >= 0 && entity.getContentLength() < requestThreshold) {
+            return;
+        }
+        if (!StringUtils.startsWithAny(getPath(request.getRequestLine().getUri()), requestPaths)) {
+            return;
+        }
+        entityRequest.setEntity(new GzipRequestEntity(entity));
+        entityRequest.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        requestCount.incrementAndGet();
+    }
+
+    @Override
+    public void process(final HttpResponse response, final HttpContext context) {
+        final HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() == 0 || entity.getContentEncoding() == null) {
+            return;
+        }
+        for (HeaderElement element : entity.getContentEncoding().getElements()) {
+            final String coding = element.getName();
+            if (GZIP.equalsIgnoreCase(coding) || X_GZIP.equalsIgnoreCase(coding)) {
+                response.setEntity(new GzipResponseEntity(entity));
+                response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+                response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+                response.removeHeaders("Content-MD5");
+                responseCount.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    long getResponseCount() {
+        return responseCount.get();
+    }
+
+    long getResponseCompressedBytes() {
+        return responseCompressedBytes.get();
+    }
+
+    long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    long getRequestCompressedBytes() {
+        return requestCompressedBytes.get();
+    }
+
+    long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    private static String getPath(final String uri) {
+        final int schemeEnd = uri.indexOf("://");
+        if (schemeEnd < 0) {
+            return uri;
+        }
+        final int pathStart = uri.indexOf('/', schemeEnd + 3);
+        return pathStart < 0 ? "/" : uri.substring(pathStart);
+    }
+
+    /**
+     * Response entity decompressing the gzip encoded wrapped entity while it is read.
+     */
+    private class GzipResponseEntity extends HttpEntityWrapper {
+        private InputStream content;
+
+        private GzipResponseEntity(final HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (!wrappedEntity.isStreaming()) {
+                return decompress(wrappedEntity.getContent());
+            }
+            if (content == null) {
+                content = decompress(wrappedEntity.getContent());
+            }
+            return content;
+        }
+
+        @Override
+        public void writeTo(final OutputStream outStream) throws IOException {
+            try (InputStream in = getContent()) {
+                final byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    outStream.write(buffer, 0, n);
+                }
+            }
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        private InputStream decompress(final InputStream in) throws IOException {
+            return new CountingInputStream(new GZIPInputStream(new CountingInputStream(in, responseCompressedBytes)),
+                    responseBytes);
+        }
+    }
+
+    /**
+     * Request entity gzip encoding the wrapped entity while it is written.
+     */
+    private class GzipRequestEntity extends HttpEntityWrapper {
+
+        private GzipRequestEntity(final HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return new BasicHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public boolean isChunked() {
+            return true;
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException("Compressed request entity can only be written");
+        }
+
+        @Override
+        public void writeTo(final OutputStream outStream) throws IOException {
+            final GZIPOutputStream gzip = new GZIPOutputStream(new CountingOutputStream(outStream,
+                    requestCompressedBytes));
+            wrappedEntity.writeTo(new CountingOutputStream(new CloseShieldOutputStream(gzip), requestBytes));
+            gzip.finish();
+        }
+    }
+
+    private static class CountingInputStream extends ProxyInputStream {
+        private final AtomicLong counter;
+
+        private CountingInputStream(final InputStream in, final AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        protected void afterRead(final int n) {
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends ProxyOutputStream {
+        private final AtomicLong counter;
+
+        private CountingOutputStream(final OutputStream out, final AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        protected void beforeWrite(final int n) {
+            counter.addAndGet(n);
+        }
+    }
+}
@@ -16,42 +16,76 @@
 
 package com.adobe.cq.commerce.demandware.connection;
 
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ProxySelector;
 import java.net.UnknownHostException;
-import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import javax.net.ssl.SSLContext;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.DynamicMBean;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
+import com.adobe.cq.commerce.demandware.DemandwareCallNotPermittedException;
 import com.adobe.cq.commerce.demandware.DemandwareClientException;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.PropertyOption;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.RedirectStrategy;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.config.SocketConfig;
-import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.routing.HttpRoutePlanner;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
-import org.apache.http.ssl.SSLContexts;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -113,56 +147,297 @@ public class DemandwareClientImpl implements DemandwareClient {
 	@Property(label = "WebDAV user password")
 	private static final String WEBDAV_PASSWORD = "webdav.password";
 
-    private String instanceEndPoint;
-    private int socketTimeout;
-    private int connectionTimeout;
-    private String protocolInterface;
-    private String protocolSSL;
-    private String keystoreType;
-    private String keyStorePath;
-    private String keyStorePwd;
-    private String keyPwd;
-    private String assetDownloadEndpoint;
-    private String instanceId;
-    private String webDavEndpoint;
-    private String webDavUser;
-    private String webDavUserPassword;
+    private static final int DEFAULT_KEYSTORE_CHECK_INTERVAL = 60000;
+    @Property(label = "Keystore check interval", description = "Minimum time in ms between two checks of the keystore " +
+            "file for changes, a changed keystore is reloaded without restarting the service",
+            intValue = DEFAULT_KEYSTORE_CHECK_INTERVAL)
+    private static final String KEYSTORE_CHECK_INTERVAL = "keystore.checkInterval";
+
+    private static final int DEFAULT_POOL_MAX_TOTAL = 50;
+    @Property(label = "Max connections", description = "Maximum number of pooled connections to the " +
+            "instance, used by the non-blocking client and traffic classes without own limit",
+            intValue = DEFAULT_POOL_MAX_TOTAL)
+    private static final String POOL_MAX_TOTAL = "pool.maxTotal";
+
+    private static final int DEFAULT_POOL_MAX_PER_ROUTE = 20;
+    @Property(label = "Max connections per route", description = "Maximum number of pooled connections per host, " +
+            "used by the non-blocking client and traffic classes without own limit",
+            intValue = DEFAULT_POOL_MAX_PER_ROUTE)
+    private static final String POOL_MAX_PER_ROUTE = "pool.maxPerRoute";
+
+    private static final int DEFAULT_POOL_KEEP_ALIVE = 30000;
+    @Property(label = "Keep-alive duration", description = "Time in ms a connection is kept alive if the server " +
+            "response does not define a keep-alive timeout", intValue = DEFAULT_POOL_KEEP_ALIVE)
+    private static final String POOL_KEEP_ALIVE = "pool.keepAlive";
+
+    private static final int DEFAULT_POOL_IDLE_TIMEOUT = 30000;
+    @Property(label = "Idle connection timeout", description = "Time in ms after which idle pooled connections are " +
+            "closed by the background evictor", intValue = DEFAULT_POOL_IDLE_TIMEOUT)
+    private static final String POOL_IDLE_TIMEOUT = "pool.idleTimeout";
+
+    private static final int DEFAULT_POOL_DRAIN_TIMEOUT = 60000;
+    @Property(label = "Drain timeout", description = "Maximum time in ms the connection pools replaced by a changed " +
+            "configuration keep serving the requests in flight before they are shut down",
+            intValue = DEFAULT_POOL_DRAIN_TIMEOUT)
+    private static final String POOL_DRAIN_TIMEOUT = "pool.drainTimeout";
+
+    private static final boolean DEFAULT_BREAKER_ENABLED = true;
+    @Property(label = "Circuit breaker enabled", description = "Reject calls without sending them while the instance " +
+            "is unhealthy", boolValue = DEFAULT_BREAKER_ENABLED)
+    private static final String BREAKER_ENABLED = "breaker.enabled";
+
+    private static final int DEFAULT_BREAKER_WINDOW_SIZE = 20;
+    @Property(label = "Circuit breaker window size", description = "Number of recent calls used to calculate the " +
+            "failure and slow call rates", intValue = DEFAULT_BREAKER_WINDOW_SIZE)
+    private static final String BREAKER_WINDOW_SIZE = "breaker.windowSize";
+
+    private static final int DEFAULT_BREAKER_MINIMUM_CALLS = 10;
+    @Property(label = "Circuit breaker minimum calls", description = "Minimum number of recorded calls before the " +
+            "circuit breaker may open", intValue = DEFAULT_BREAKER_MINIMUM_CALLS)
+    private static final String BREAKER_MINIMUM_CALLS = "breaker.minimumCalls";
+
+    private static final int DEFAULT_BREAKER_FAILURE_RATE = 50;
+    @Property(label = "Circuit breaker failure rate threshold", description = "Percentage of failed calls (I/O " +
+            "errors and server errors) opening the circuit breaker", intValue = DEFAULT_BREAKER_FAILURE_RATE)
+    private static final String BREAKER_FAILURE_RATE = "breaker.failureRateThreshold";
+
+    private static final int DEFAULT_BREAKER_SLOW_CALL_RATE = 80;
+    @Property(label = "Circuit breaker slow call rate threshold", description = "Percentage of slow calls opening " +
+            "the circuit breaker, values above 100 disable the slow call detection",
+            intValue = DEFAULT_BREAKER_SLOW_CALL_RATE)
+    private static final String BREAKER_SLOW_CALL_RATE = "breaker.slowCallRateThreshold";
+
+    private static final int DEFAULT_BREAKER_SLOW_CALL_DURATION = 10000;
+    @Property(label = "Circuit breaker slow call duration", description = "Time in ms after which a call is " +
+            "considered slow", intValue = DEFAULT_BREAKER_SLOW_CALL_DURATION)
+    private static final String BREAKER_SLOW_CALL_DURATION = "breaker.slowCallDuration";
+
+    private static final int DEFAULT_BREAKER_OPEN_DURATION = 30000;
+    @Property(label = "Circuit breaker open duration", description = "Time in ms all calls are rejected before the " +
+            "circuit breaker permits probe calls", intValue = DEFAULT_BREAKER_OPEN_DURATION)
+    private static final String BREAKER_OPEN_DURATION = "breaker.openDuration";
+
+    private static final int DEFAULT_BREAKER_HALF_OPEN_CALLS = 3;
+    @Property(label = "Circuit breaker probe calls", description = "Number of successful probe calls required to " +
+            "close the circuit breaker again", intValue = DEFAULT_BREAKER_HALF_OPEN_CALLS)
+    private static final String BREAKER_HALF_OPEN_CALLS = "breaker.halfOpenCalls";
+
+    private static final int DEFAULT_BULKHEAD_MAX_CONCURRENT = 20;
+    @Property(label = "Max concurrent calls", description = "Maximum number of concurrent calls to the instance, 0 " +
+            "to disable the limit", intValue = DEFAULT_BULKHEAD_MAX_CONCURRENT)
+    private static final String BULKHEAD_MAX_CONCURRENT = "bulkhead.maxConcurrent";
+
+    private static final int DEFAULT_BULKHEAD_MAX_WAIT = 1000;
+    @Property(label = "Max wait for concurrent call", description = "Time in ms a call waits for a free slot before " +
+            "it is rejected", intValue = DEFAULT_BULKHEAD_MAX_WAIT)
+    private static final String BULKHEAD_MAX_WAIT = "bulkhead.maxWait";
+
+    private static final boolean DEFAULT_RATE_LIMIT_ENABLED = true;
+    @Property(label = "OCAPI rate limit enabled", description = "Adapt the OCAPI request rate to the quota of the " +
+            "instance", boolValue = DEFAULT_RATE_LIMIT_ENABLED)
+    private static final String RATE_LIMIT_ENABLED = "ratelimit.enabled";
+
+    @Property(label = "OCAPI rate limited paths", description = "Path prefixes of the rate limited requests",
+            value = {"/s/-/dw/"}, cardinality = Integer.MAX_VALUE)
+    private static final String RATE_LIMIT_PATHS = "ratelimit.paths";
+
+    private static final int DEFAULT_RATE_LIMIT_RATE = 10;
+    @Property(label = "OCAPI initial rate", description = "Initial number of OCAPI requests per second",
+            intValue = DEFAULT_RATE_LIMIT_RATE)
+    private static final String RATE_LIMIT_RATE = "ratelimit.rate";
+
+    private static final int DEFAULT_RATE_LIMIT_MIN_RATE = 1;
+    @Property(label = "OCAPI minimum rate", description = "Lower bound of the adapted requests per second",
+            intValue = DEFAULT_RATE_LIMIT_MIN_RATE)
+    private static final String RATE_LIMIT_MIN_RATE = "ratelimit.minRate";
+
+    private static final int DEFAULT_RATE_LIMIT_MAX_RATE = 50;
+    @Property(label = "OCAPI maximum rate", description = "Upper bound of the adapted requests per second",
+            intValue = DEFAULT_RATE_LIMIT_MAX_RATE)
+    private static final String RATE_LIMIT_MAX_RATE = "ratelimit.maxRate";
+
+    private static final int DEFAULT_RATE_LIMIT_BURST = 10;
+    @Property(label = "OCAPI burst", description = "Number of OCAPI requests which may be sent at once after a " +
+            "quiet period", intValue = DEFAULT_RATE_LIMIT_BURST)
+    private static final String RATE_LIMIT_BURST = "ratelimit.burst";
+
+    private static final int DEFAULT_RATE_LIMIT_MAX_WAIT = 5000;
+    @Property(label = "OCAPI max wait", description = "Time in ms a call waits for the rate limiter before it is " +
+            "rejected", intValue = DEFAULT_RATE_LIMIT_MAX_WAIT)
+    private static final String RATE_LIMIT_MAX_WAIT = "ratelimit.maxWait";
+
+    private static final String DEFAULT_RATE_LIMIT_REMAINING_HEADER = "X-RateLimit-Remaining";
+    @Property(label = "OCAPI quota remaining header", description = "Response header containing the number of " +
+            "remaining calls, leave empty to ignore", value = DEFAULT_RATE_LIMIT_REMAINING_HEADER)
+    private static final String RATE_LIMIT_REMAINING_HEADER = "ratelimit.header.remaining";
+
+    private static final String DEFAULT_RATE_LIMIT_RESET_HEADER = "X-RateLimit-Reset";
+    @Property(label = "OCAPI quota reset header", description = "Response header containing the seconds (or epoch " +
+            "seconds) until the quota is reset, leave empty to ignore", value = DEFAULT_RATE_LIMIT_RESET_HEADER)
+    private static final String RATE_LIMIT_RESET_HEADER = "ratelimit.header.reset";
+
+    private static final boolean DEFAULT_RETRY_ENABLED = true;
+    @Property(label = "Retry enabled", description = "Retry failed requests which are safe to repeat",
+            boolValue = DEFAULT_RETRY_ENABLED)
+    private static final String RETRY_ENABLED = "retry.enabled";
+
+    private static final String[] DEFAULT_RETRY_METHODS = {"GET;3", "HEAD;3", "OPTIONS;3", "PROPFIND;3", "PUT;3",
+            "DELETE;3", "PATCH;3"};
+    @Property(label = "Retry methods", description = "Retryable request methods and their maximum number of " +
+            "attempts in the format METHOD;attempts. A POST using the method override header is treated as the " +
+            "overridden method, a PATCH is only retried with If-Match header",
+            value = {"GET;3", "HEAD;3", "OPTIONS;3", "PROPFIND;3", "PUT;3", "DELETE;3", "PATCH;3"},
+            cardinality = Integer.MAX_VALUE)
+    private static final String RETRY_METHODS = "retry.methods";
+
+    private static final int[] DEFAULT_RETRY_STATUS_CODES = {429, 502, 503, 504};
+    @Property(label = "Retry status codes", description = "Response status codes which are retried",
+            intValue = {429, 502, 503, 504}, cardinality = Integer.MAX_VALUE)
+    private static final String RETRY_STATUS_CODES = "retry.statusCodes";
+
+    private static final int DEFAULT_RETRY_BACKOFF = 200;
+    @Property(label = "Retry backoff", description = "Base delay in ms between two attempts, doubled with each " +
+            "attempt and randomized", intValue = DEFAULT_RETRY_BACKOFF)
+    private static final String RETRY_BACKOFF = "retry.backoff";
+
+    private static final int DEFAULT_RETRY_MAX_BACKOFF = 5000;
+    @Property(label = "Retry max backoff", description = "Maximum delay in ms between two attempts",
+            intValue = DEFAULT_RETRY_MAX_BACKOFF)
+    private static final String RETRY_MAX_BACKOFF = "retry.maxBackoff";
+
+    private static final int DEFAULT_RETRY_DEADLINE = 30000;
+    @Property(label = "Retry deadline", description = "Maximum time in ms spent on all attempts of a request, no " +
+            "further attempt is started afterwards", intValue = DEFAULT_RETRY_DEADLINE)
+    private static final String RETRY_DEADLINE = "retry.deadline";
+
+    private static final String[] DEFAULT_TRAFFIC_CLASSES = {"interactive;10;20;20;0;0", "bulk;1;30;10;0;0"};
+    @Property(label = "Traffic classes", description = "Traffic classes with their own connection pool, concurrency " +
+            "limit and timeouts in the format name;priority;maxConnections;maxConcurrent;connectTimeout;socketTimeout. " +
+            "Waiting calls of higher priority classes are admitted first, limits and timeouts of 0 fall back to the " +
+            "instance settings", value = {"interactive;10;20;20;0;0", "bulk;1;30;10;0;0"},
+            cardinality = Integer.MAX_VALUE)
+    private static final String TRAFFIC_CLASSES = "traffic.classes";
+
+    private static final String DEFAULT_TRAFFIC_DEFAULT_CLASS = TRAFFIC_CLASS_BULK;
+    @Property(label = "Default traffic class", description = "Traffic class used if none or an unknown one is " +
+            "requested", value = DEFAULT_TRAFFIC_DEFAULT_CLASS)
+    private static final String TRAFFIC_DEFAULT_CLASS = "traffic.defaultClass";
+
+    private static final int DEFAULT_ASYNC_IO_THREADS = 2;
+    @Property(label = "Async I/O threads", description = "Number of I/O dispatcher threads of the non-blocking HTTP " +
+            "client", intValue = DEFAULT_ASYNC_IO_THREADS)
+    private static final String ASYNC_IO_THREADS = "async.ioThreads";
+
+    private static final int DEFAULT_ASYNC_CALLBACK_THREADS = 4;
+    @Property(label = "Async callback threads", description = "Number of threads completing the responses of the " +
+            "non-blocking HTTP client and delaying rate limited requests, keeps caller code off the I/O threads",
+            intValue = DEFAULT_ASYNC_CALLBACK_THREADS)
+    private static final String ASYNC_CALLBACK_THREADS = "async.callbackThreads";
+
+    private static final boolean DEFAULT_COMPRESSION_ENABLED = true;
+    @Property(label = "Compression enabled", description = "Accept gzip encoded responses and decompress them while " +
+            "they are read", boolValue = DEFAULT_COMPRESSION_ENABLED)
+    private static final String COMPRESSION_ENABLED = "compression.enabled";
+
+    @Property(label = "Compressed request paths", description = "Path prefixes of requests with gzip encoded " +
+            "request bodies, only add paths of endpoints supporting gzip encoded requests", value = {},
+            cardinality = Integer.MAX_VALUE)
+    private static final String COMPRESSION_REQUEST_PATHS = "compression.request.paths";
+
+    private static final int DEFAULT_COMPRESSION_REQUEST_THRESHOLD = 8192;
+    @Property(label = "Compressed request threshold", description = "Minimum size in bytes of request bodies to " +
+            "compress", intValue = DEFAULT_COMPRESSION_REQUEST_THRESHOLD)
+    private static final String COMPRESSION_REQUEST_THRESHOLD = "compression.request.threshold";
+
+    // replaced on reconfiguration while requests are served
+    private volatile Settings settings;
+    private volatile SSLMaterialCache sslMaterialCache;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile Bulkhead bulkhead;
+    private volatile RateLimiter rateLimiter;
+    private volatile RetryPolicy retryPolicy;
+    private volatile ClientMetrics metrics;
+    private volatile ContentCompression compression;
+    private volatile Map<String, TrafficClass> trafficClasses;
+    private volatile TrafficClass defaultTrafficClass;
+    private volatile CloseableHttpAsyncClient asyncHttpClient;
+    private volatile PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private volatile ScheduledThreadPoolExecutor asyncExecutor;
+    private PoolDrainer poolDrainer;
+    // handed out shared clients follow the traffic classes of the current configuration
+    private final CloseableHttpClient defaultHttpClient = new ForwardingHttpClient(
+            () -> defaultTrafficClass.getHttpClient(), () -> { });
+    private final Map<String, CloseableHttpClient> sharedHttpClients = new ConcurrentHashMap<>();
+    private final List<ServiceRegistration<?>> statsRegistrations = new ArrayList<>();
 
     @Override
     public String getEndpoint() {
-        return instanceEndPoint;
+        return settings.instanceEndPoint;
     }
 
     @Override
     public HttpClientBuilder getHttpClientBuilder() {
-        LOG.debug("Create new HttpClient");
+        return createHttpClientBuilder(defaultTrafficClass);
+    }
+
+    @Override
+    public HttpClientBuilder getHttpClientBuilder(final String trafficClass) {
+        return createHttpClientBuilder(getTrafficClass(trafficClass));
+    }
+
+    private HttpClientBuilder createHttpClientBuilder(final TrafficClass trafficClass) {
+        LOG.debug("Create new HttpClient for traffic class {}", trafficClass.getName());
 
         // create and configure the Http client builder
-        final HttpClientBuilder httpClientBuilder = HttpClients.custom();
+        final HttpClientBuilder httpClientBuilder = new DemandwareHttpClientBuilder(trafficClass.getConnectionPool(),
+                trafficClass.getCallGuard(), rateLimiter, retryPolicy, metrics);
 
-        Registry<ConnectionSocketFactory> schemeRegistry = this.createDefaultSchemeRegistry();
-        HttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(schemeRegistry);
-        httpClientBuilder.setConnectionManager(cm);
+        // retries are handled by the retry policy of the instance
+        httpClientBuilder.disableAutomaticRetries();
+
+        // borrow connections from the shared pool, clients built by callers must not shut down the pool on close
+        httpClientBuilder.setConnectionManager(trafficClass.getConnectionPool().getConnectionManager());
+        httpClientBuilder.setConnectionManagerShared(true);
+        httpClientBuilder.setKeepAliveStrategy(createKeepAliveStrategy());
 
         // configure proxy
         httpClientBuilder.setRoutePlanner(createHttpRoutePlanner());
 
-        // define socket timeout
-        if (socketTimeout > 0) {
-            LOG.debug("* Socket Timeout: {}", socketTimeout);
-            final SocketConfig sc = SocketConfig.custom().setSoTimeout(socketTimeout).build();
-            httpClientBuilder.setDefaultSocketConfig(sc);
-        }
-
         // define default request behavior
-        httpClientBuilder.setDefaultRequestConfig(createRequestConfig());
+        final Settings settings = this.settings;
+        httpClientBuilder.setDefaultRequestConfig(createRequestConfig(
+                getTimeout(trafficClass.getConnectTimeout(), settings.connectionTimeout),
+                getTimeout(trafficClass.getSocketTimeout(), settings.socketTimeout)));
 
         // define redirect strategy
         httpClientBuilder.setRedirectStrategy(createDefaultRedirectStrategy());
 
+        // content coding is handled by the instance to count the transferred bytes
+        httpClientBuilder.disableContentCompression();
+        if (compression != null) {
+            httpClientBuilder.addInterceptorLast((HttpRequestInterceptor) compression);
+            httpClientBuilder.addInterceptorLast((HttpResponseInterceptor) compression);
+        }
+
         return httpClientBuilder;
     }
 
+    /**
+     * Get the traffic class with the given name, falling back to the default traffic class.
+     */
+    private TrafficClass getTrafficClass(final String name) {
+        final TrafficClass trafficClass = name != null ? trafficClasses.get(name) : null;
+        if (trafficClass == null) {
+            LOG.debug("Unknown traffic class {}, use {}", name, defaultTrafficClass.getName());
+            return defaultTrafficClass;
+        }
+        return trafficClass;
+    }
+
+    private static int getTimeout(final int timeout, final int defaultTimeout) {
+        return timeout > 0 ? timeout : defaultTimeout;
+    }
+
     /**
      * Setup the default http route planer.
      *
@@ -172,6 +447,46 @@ public class DemandwareClientImpl implements DemandwareClient {
         return new SystemDefaultRoutePlanner(ProxySelector.getDefault());
     }
 
+    /**
+     * Setup the keep-alive strategy, using the keep-alive timeout send by the server with fall back to the configured
+     * keep-alive duration.
+     *
+     * @return the {@code ConnectionKeepAliveStrategy}
+     */
+    protected ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        final long keepAlive = settings.keepAlive;
+        return (response, context) -> {
+            final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAlive;
+        };
+    }
+
+    /**
+     * Creates the default socket config.
+     *
+     * @return the {@code SocketConfig}
+     */
+    protected SocketConfig createSocketConfig() {
+        return createSocketConfig(settings.socketTimeout);
+    }
+
+    /**
+     * Creates the socket config using the given socket timeout.
+     *
+     * @param socketTimeout the socket timeout in ms, 0 for no timeout
+     * @return the {@code SocketConfig}
+     */
+    protected SocketConfig createSocketConfig(final int socketTimeout) {
+        final SocketConfig.Builder socketConfigBuilder = SocketConfig.custom();
+
+        // define socket timeout
+        if (socketTimeout > 0) {
+            LOG.debug("* Socket Timeout: {}", socketTimeout);
+            socketConfigBuilder.setSoTimeout(socketTimeout);
+        }
+        return socketConfigBuilder.build();
+    }
+
     /**
      * Setup the default redirect strategy.
      *
@@ -187,6 +502,18 @@ public class DemandwareClientImpl implements DemandwareClient {
      * @return the {@code RequestConfig}
      */
     protected RequestConfig createRequestConfig() {
+        final Settings settings = this.settings;
+        return createRequestConfig(settings.connectionTimeout, settings.socketTimeout);
+    }
+
+    /**
+     * Creates the request config using the given timeouts.
+     *
+     * @param connectionTimeout the connect timeout in ms, 0 for no timeout
+     * @param socketTimeout     the socket timeout in ms, 0 for no timeout
+     * @return the {@code RequestConfig}
+     */
+    protected RequestConfig createRequestConfig(final int connectionTimeout, final int socketTimeout) {
         final RequestConfig.Builder requestConfigBuilder = RequestConfig.custom();
 
         // define connect timeout
@@ -195,7 +522,13 @@ public class DemandwareClientImpl implements DemandwareClient {
             requestConfigBuilder.setConnectTimeout(connectionTimeout);
         }
 
+        // define socket timeout, the non-blocking client does not use the socket config of the pool
+        if (socketTimeout > 0) {
+            requestConfigBuilder.setSocketTimeout(socketTimeout);
+        }
+
         // define local interface
+        final String protocolInterface = settings.protocolInterface;
         if (StringUtils.isNotEmpty(protocolInterface)) {
             try {
                 requestConfigBuilder.setLocalAddress(InetAddress.getByName(protocolInterface));
@@ -222,89 +555,637 @@ public class DemandwareClientImpl implements DemandwareClient {
      * @return Default SSL socket factory
      */
     protected ConnectionSocketFactory createDefaultSecureSocketFactory() {
-        SSLConnectionSocketFactory sslsf = SSLConnectionSocketFactory.getSocketFactory();
-        SSLContext sslContext = SSLContexts.createDefault();
+        // delegate to the cached SSL material, reloaded if the keystore changes
+        return sslMaterialCache.getSocketFactory();
+    }
 
-        try {
-            if (keyStorePath != null && keyStorePwd != null) {
-                LOG.debug("* Use client keystore of type {} from {}", keystoreType, keyStorePath);
-                KeyStore keyStore = null;
-                try (FileInputStream fis = new FileInputStream(keyStorePath)) {
-                    keyStore = KeyStore.getInstance(keystoreType != null ? keystoreType : "JKS");
-                    keyStore.load(fis, keyStorePwd.toCharArray());
-                }
-                // create custom SSL context
-                sslContext = SSLContexts.custom()
-                    .loadKeyMaterial(keyStore, keyPwd.toCharArray()).loadTrustMaterial(null, new TrustSelfSignedStrategy())
-                    .build();
-            }
+    /**
+     * Creates the connection pool of the non-blocking HTTP client with its own I/O reactor.
+     *
+     * @param maxTotal    maximum number of pooled connections
+     * @param maxPerRoute maximum number of pooled connections per host
+     * @return the {@code PoolingNHttpClientConnectionManager}
+     * @throws IOReactorException if the I/O reactor cannot be created
+     */
+    protected PoolingNHttpClientConnectionManager createAsyncConnectionManager(final int maxTotal,
+                                                                               final int maxPerRoute)
+            throws IOReactorException {
+        final Settings settings = this.settings;
+        final IOReactorConfig.Builder ioReactorConfigBuilder = IOReactorConfig.custom()
+            .setIoThreadCount(settings.asyncIoThreads);
+        if (settings.socketTimeout > 0) {
+            ioReactorConfigBuilder.setSoTimeout(settings.socketTimeout);
+        }
+        if (settings.connectionTimeout > 0) {
+            ioReactorConfigBuilder.setConnectTimeout(settings.connectionTimeout);
+        }
+        final DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(ioReactorConfigBuilder.build(),
+            createThreadFactory("Demandware I/O dispatcher [" + settings.instanceId + "]"));
 
-            // create custom SSL connection factory
-            sslsf = new SSLConnectionSocketFactory(
-                sslContext,
-                new String[]{protocolSSL},
-                null,
-                SSLConnectionSocketFactory.getDefaultHostnameVerifier());
-        } catch (Exception e) {
-            LOG.error("Cannot set custom ssl config: {}", e);
+        final Registry<SchemeIOSessionStrategy> sessionStrategyRegistry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+            .register("http", NoopIOSessionStrategy.INSTANCE)
+            .register("https", sslMaterialCache.getSessionStrategy())
+            .build();
+        final PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+            ioReactor, sessionStrategyRegistry);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        return connectionManager;
+    }
+
+    /**
+     * Creates the non-blocking HTTP client. The client uses its own connection pool but shares the timeouts, SSL
+     * context, proxy, local interface and keep-alive settings with the blocking clients.
+     *
+     * @param connectionManager the connection pool owned by the client
+     * @return the not yet started {@code CloseableHttpAsyncClient}
+     */
+    protected CloseableHttpAsyncClient createAsyncHttpClient(
+            final PoolingNHttpClientConnectionManager connectionManager) {
+        final HttpAsyncClientBuilder httpAsyncClientBuilder = HttpAsyncClients.custom();
+        if (compression != null) {
+            // responses are decompressed once completed, request bodies are streamed as given
+            httpAsyncClientBuilder.addInterceptorLast(
+                (HttpRequestInterceptor) (request, context) -> compression.acceptEncoding(request));
         }
-        return sslsf;
+        return httpAsyncClientBuilder
+            .setConnectionManager(connectionManager)
+            .setKeepAliveStrategy(createKeepAliveStrategy())
+            .setRoutePlanner(createHttpRoutePlanner())
+            .setDefaultRequestConfig(createRequestConfig())
+            .setRedirectStrategy(createDefaultRedirectStrategy())
+            .setThreadFactory(createThreadFactory("Demandware I/O reactor [" + settings.instanceId + "]"))
+            .build();
+    }
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
     @Override
     public CloseableHttpClient getHttpClient() {
-        return getHttpClientBuilder().build();
+        return defaultHttpClient;
+    }
+
+    @Override
+    public CloseableHttpClient getHttpClient(final String trafficClass) {
+        if (trafficClass == null || !trafficClasses.containsKey(trafficClass)) {
+            return defaultHttpClient;
+        }
+        return sharedHttpClients.computeIfAbsent(trafficClass, name -> new ForwardingHttpClient(
+                () -> getTrafficClass(name).getHttpClient(), () -> { }));
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> executeAsync(final HttpUriRequest request) {
+        return executeAsync(request, null);
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> executeAsync(final HttpUriRequest request, final HttpContext context) {
+        return executeAsync(request, context, null);
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> executeAsync(final HttpUriRequest request, final HttpContext context,
+                                                        final String trafficClass) {
+        final CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        final ScheduledThreadPoolExecutor executor = asyncExecutor;
+        if (executor == null || asyncHttpClient == null) {
+            result.completeExceptionally(
+                new DemandwareClientException("Demandware client " + getInstanceId() + " is not active"));
+            return result;
+        }
+
+        // never block the caller: reserve the rate limit token and delay the submission on the executor instead
+        final RateLimiter limiter = rateLimiter != null && rateLimiter.appliesTo(request) ? rateLimiter : null;
+        final long wait = limiter != null ? limiter.reserve() : 0;
+        if (wait < 0) {
+            result.completeExceptionally(new DemandwareCallNotPermittedException(
+                "Rate limit of Demandware instance " + getInstanceId() + " exceeded for " + request.getURI()));
+        } else if (wait > 0) {
+            try {
+                executor.schedule(() -> submitAsync(request, context, trafficClass, limiter, executor, result), wait,
+                    TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(
+                    new DemandwareClientException("Demandware client " + getInstanceId() + " is not active"));
+            }
+        } else {
+            submitAsync(request, context, trafficClass, limiter, executor, result);
+        }
+        return result;
+    }
+
+    private void submitAsync(final HttpUriRequest request, final HttpContext context, final String trafficClass,
+                             final RateLimiter limiter, final ScheduledThreadPoolExecutor executor,
+                             final CompletableFuture<HttpResponse> result) {
+        final CloseableHttpAsyncClient client = asyncHttpClient;
+        if (result.isDone()) {
+            // cancelled by the caller while delayed by the rate limiter
+            return;
+        }
+        if (client == null || !client.isRunning()) {
+            result.completeExceptionally(
+                new DemandwareClientException("Demandware client " + getInstanceId() + " is not active"));
+            return;
+        }
+
+        // reject instead of waiting for a free slot, the caller may be an I/O or request thread
+        final CallGuard guard = getTrafficClass(trafficClass).getCallGuard();
+        final long start;
+        try {
+            start = guard.acquire(false);
+        } catch (DemandwareCallNotPermittedException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+
+        final ClientMetrics metrics = this.metrics;
+        final ContentCompression compression = this.compression;
+        final EndpointMetrics endpoint = metrics.get(metrics.getEndpointType(null, request));
+        final long endpointStart = endpoint.start();
+        final long totalStart = metrics.getTotal().start();
+
+        final Future<HttpResponse> future = client.execute(request, context, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                endpoint.finish(endpointStart, response.getStatusLine().getStatusCode());
+                metrics.getTotal().finish(totalStart, response.getStatusLine().getStatusCode());
+                guard.release(start, CallGuard.isFailure(response));
+                if (limiter != null) {
+                    limiter.onResponse(response);
+                }
+                // dependent stages of the caller must not run on the I/O dispatcher thread
+                complete(executor, () -> {
+                    if (compression != null) {
+                        compression.process(response, context);
+                    }
+                    result.complete(response);
+                });
+            }
+
+            @Override
+            public void failed(final Exception e) {
+                endpoint.finish(endpointStart, 0);
+                metrics.getTotal().finish(totalStart, 0);
+                guard.release(start, true);
+                complete(executor, () -> result.completeExceptionally(e));
+            }
+
+            @Override
+            public void cancelled() {
+                endpoint.finish(endpointStart, 0);
+                metrics.getTotal().finish(totalStart, 0);
+                guard.release(start, false);
+                complete(executor, () -> result.cancel(false));
+            }
+        });
+        // propagate cancellation by the caller to the running exchange
+        result.whenComplete((response, e) -> {
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+    }
+
+    private static void complete(final ScheduledThreadPoolExecutor executor, final Runnable completion) {
+        try {
+            executor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            // the client is deactivated, complete on the calling thread
+            completion.run();
+        }
     }
 
     @Override
     public String getInstanceId() {
-        return instanceId;
+        return settings.instanceId;
     }
     
     @Override
     public String getAssetDownloadEndpoint(){
-        return assetDownloadEndpoint;
+        return settings.assetDownloadEndpoint;
     }
 
     @Override
     public String getWebDavEndpoint() {
-        return StringUtils.isNotEmpty(webDavEndpoint) ? webDavEndpoint : instanceEndPoint;
+        return settings.getWebDavEndpoint();
     }
 
     @Override
     public String getWebDavUser() {
-        return webDavUser;
+        return settings.webDavUser;
     }
 
     @Override
     public String getWebDavUserPassword() {
-        return webDavUserPassword;
+        return settings.webDavUserPassword;
+    }
+
+    SSLMaterialCache getSSLMaterialCache() {
+        return sslMaterialCache;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    Collection<TrafficClass> getTrafficClasses() {
+        return trafficClasses != null ? trafficClasses.values() : Collections.emptyList();
+    }
+
+    PoolDrainer getPoolDrainer() {
+        return poolDrainer;
+    }
+
+    /**
+     * @return the connection manager of the non-blocking client or {@code null} if not started
+     */
+    PoolingNHttpClientConnectionManager getAsyncConnectionManager() {
+        return asyncConnectionManager;
+    }
+
+    ContentCompression getContentCompression() {
+        return compression;
+    }
+
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
     }
 
     @Activate
-    protected void activate(Map<String, Object> config) {
-        instanceId = PropertiesUtil.toString(config.get(INSTANCE_ID), null);
-        instanceEndPoint = PropertiesUtil.toString(config.get(INSTANCE_ENDPOINT), null);
-        assetDownloadEndpoint = PropertiesUtil.toString(config.get(ASSET_DOWNLOAD_ENDPOINT),null);
+    protected void activate(final BundleContext bundleContext, final Map<String, Object> config) {
+        configure(config);
+        poolDrainer = new PoolDrainer(settings.instanceId);
+        asyncExecutor = new ScheduledThreadPoolExecutor(getAsyncCallbackThreads(config),
+                createThreadFactory("Demandware async callback [" + settings.instanceId + "]"));
+        registerStats(bundleContext);
+        LOG.debug("activating Demandware client service");
+    }
+
+    /**
+     * Apply the changed configuration without interrupting the requests in flight. New requests and the shared clients
+     * immediately use the new connection pools, the previous pools are retired and shut down once drained and no
+     * longer referenced by clients built before. Circuit breaker, bulkhead,
+     * rate limiter and SSL material keep their state unless their own configuration changed.
+     *
+     * @param bundleContext the bundle context
+     * @param config        the changed configuration
+     */
+    @Modified
+    protected void modified(final BundleContext bundleContext, final Map<String, Object> config) {
+        final Settings previous = settings;
+        final Collection<TrafficClass> previousTrafficClasses = getTrafficClasses();
+        final CloseableHttpAsyncClient previousAsyncHttpClient = asyncHttpClient;
+        final PoolingNHttpClientConnectionManager previousAsyncConnectionManager = asyncConnectionManager;
+
+        configure(config);
+        asyncExecutor.setCorePoolSize(getAsyncCallbackThreads(config));
 
-        if (StringUtils.isAnyBlank(instanceId, instanceEndPoint, assetDownloadEndpoint)) {
+        final long drainTimeout = Math.max(0,
+                PropertiesUtil.toInteger(config.get(POOL_DRAIN_TIMEOUT), DEFAULT_POOL_DRAIN_TIMEOUT));
+        for (TrafficClass trafficClass : previousTrafficClasses) {
+            // release the reference of the shared client, clients built by callers keep the pool until closed
+            HttpClientUtils.closeQuietly(trafficClass.getHttpClient());
+            final ConnectionPool pool = trafficClass.getConnectionPool();
+            poolDrainer.retire(pool.getName(), pool::getTotalStats, pool::getReferenceCount, pool::shutdown,
+                    drainTimeout);
+        }
+        if (previousAsyncHttpClient != null) {
+            poolDrainer.retire(previous.instanceId + "/async#" + previous.generation,
+                    previousAsyncConnectionManager::getTotalStats, () -> 0,
+                    () -> closeAsyncHttpClient(previousAsyncHttpClient), drainTimeout);
+        }
+        if (!StringUtils.equals(previous.instanceId, settings.instanceId)) {
+            unregisterStats();
+            registerStats(bundleContext);
+        }
+        LOG.info("Reconfigured Demandware client {}", settings.instanceId);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        unregisterStats();
+        if (poolDrainer != null) {
+            poolDrainer.shutdown();
+            poolDrainer = null;
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+        if (asyncHttpClient != null) {
+            closeAsyncHttpClient(asyncHttpClient);
+            asyncHttpClient = null;
+            asyncConnectionManager = null;
+        }
+        if (trafficClasses != null) {
+            for (TrafficClass trafficClass : trafficClasses.values()) {
+                trafficClass.shutdown();
+            }
+            trafficClasses = null;
+        }
+        defaultTrafficClass = null;
+        sslMaterialCache = null;
+        LOG.debug("deactivating Demandware client service");
+    }
+
+    private void configure(final Map<String, Object> config) {
+        final Settings previousSettings = this.settings;
+        final Settings settings = new Settings(config, previousSettings != null ? previousSettings.generation + 1 : 1);
+
+        if (StringUtils.isAnyBlank(settings.instanceId, settings.instanceEndPoint, settings.assetDownloadEndpoint)) {
             String errorMessage = String.format("Failed to activate DemandwareClient. " +
                     "Some of mandatory fields are null: instanceId [%s], instanceEndpoint: [%s], assetDownloadEndpoint [%s]",
-                    instanceId, instanceEndPoint, assetDownloadEndpoint);
+                    settings.instanceId, settings.instanceEndPoint, settings.assetDownloadEndpoint);
             throw new DemandwareClientException(errorMessage);
         }
 
-        webDavEndpoint = PropertiesUtil.toString(config.get(WEBDAV_ENDPOINT), null);
-        webDavUser = PropertiesUtil.toString(config.get(WEBDAV_USER), null);
-        webDavUserPassword = PropertiesUtil.toString(config.get(WEBDAV_PASSWORD), null);
-        protocolInterface = PropertiesUtil.toString(config.get(PROTOCOL_INTERFACE), null);
-        protocolSSL = StringUtils.trimToNull(PropertiesUtil.toString(config.get(PROTOCOL_SSL), "TLSv1.2"));
-        keystoreType = StringUtils.trimToNull(PropertiesUtil.toString(config.get(KEYSTORE_TYPE), "JKS"));
-        keyStorePath = StringUtils.trimToNull(PropertiesUtil.toString(config.get(KEYSTORE_PATH), null));
-        keyStorePwd = StringUtils.trimToNull(PropertiesUtil.toString(config.get(KEYSTORE_PWD), null));
-        keyPwd = StringUtils.trimToNull(PropertiesUtil.toString(config.get(KEY_PWD), null));
-        socketTimeout = PropertiesUtil.toInteger(config.get(INSTANCE_SOCKET_TIMEOUT), 0);
-        connectionTimeout = PropertiesUtil.toInteger(config.get(INSTANCE_CONNECTION_TIMEOUT), 0);
-        LOG.debug("activating Demandware client service");
+        // publish all settings at once, requests never see a mix of previous and changed settings
+        final Map<String, Object> previous = previousSettings != null ? previousSettings.properties : null;
+        this.settings = settings;
+
+        if (isChanged(previous, config, KEYSTORE_TYPE, KEYSTORE_PATH, KEYSTORE_PWD, KEY_PWD, PROTOCOL_SSL,
+                KEYSTORE_CHECK_INTERVAL)) {
+            final int keystoreCheckInterval = Math.max(0,
+                    PropertiesUtil.toInteger(config.get(KEYSTORE_CHECK_INTERVAL), DEFAULT_KEYSTORE_CHECK_INTERVAL));
+            sslMaterialCache = new SSLMaterialCache(settings.keystoreType, settings.keyStorePath, settings.keyStorePwd,
+                    settings.keyPwd, settings.protocolSSL, keystoreCheckInterval);
+        }
+
+        final int maxTotal = Math.max(1, PropertiesUtil.toInteger(config.get(POOL_MAX_TOTAL), DEFAULT_POOL_MAX_TOTAL));
+        final int maxPerRoute = Math.max(1, Math.min(maxTotal,
+                PropertiesUtil.toInteger(config.get(POOL_MAX_PER_ROUTE), DEFAULT_POOL_MAX_PER_ROUTE)));
+        final int idleTimeout = Math.max(1000,
+                PropertiesUtil.toInteger(config.get(POOL_IDLE_TIMEOUT), DEFAULT_POOL_IDLE_TIMEOUT));
+        if (isChanged(previous, config, INSTANCE_ID, BREAKER_ENABLED, BREAKER_WINDOW_SIZE, BREAKER_MINIMUM_CALLS,
+                BREAKER_FAILURE_RATE, BREAKER_SLOW_CALL_RATE, BREAKER_SLOW_CALL_DURATION, BREAKER_OPEN_DURATION,
+                BREAKER_HALF_OPEN_CALLS)) {
+            circuitBreaker = createCircuitBreaker(config);
+        }
+        if (isChanged(previous, config, BULKHEAD_MAX_CONCURRENT, BULKHEAD_MAX_WAIT)) {
+            bulkhead = createBulkhead(config);
+        }
+        if (isChanged(previous, config, INSTANCE_ID, RATE_LIMIT_ENABLED, RATE_LIMIT_PATHS, RATE_LIMIT_RATE,
+                RATE_LIMIT_MIN_RATE, RATE_LIMIT_MAX_RATE, RATE_LIMIT_BURST, RATE_LIMIT_MAX_WAIT,
+                RATE_LIMIT_REMAINING_HEADER, RATE_LIMIT_RESET_HEADER)) {
+            rateLimiter = createRateLimiter(config);
+        }
+        retryPolicy = createRetryPolicy(config);
+        metrics = new ClientMetrics(settings.instanceEndPoint, settings.getWebDavEndpoint(),
+                settings.assetDownloadEndpoint,
+                rateLimiter != null ? rateLimiter.getPaths()
+                        : PropertiesUtil.toStringArray(config.get(RATE_LIMIT_PATHS), new String[]{"/s/-/dw/"}),
+                metrics);
+        if (isChanged(previous, config, COMPRESSION_ENABLED, COMPRESSION_REQUEST_PATHS,
+                COMPRESSION_REQUEST_THRESHOLD)) {
+            compression = createContentCompression(config);
+        }
+        createTrafficClasses(config, maxTotal, maxPerRoute, idleTimeout);
+        try {
+            final PoolingNHttpClientConnectionManager connectionManager = createAsyncConnectionManager(maxTotal,
+                    maxPerRoute);
+            final CloseableHttpAsyncClient client = createAsyncHttpClient(connectionManager);
+            client.start();
+            asyncConnectionManager = connectionManager;
+            asyncHttpClient = client;
+        } catch (IOReactorException e) {
+            LOG.error("Cannot create non-blocking HTTP client for instance {}", settings.instanceId, e);
+            asyncConnectionManager = null;
+            asyncHttpClient = null;
+        }
+    }
+
+    private static int getAsyncCallbackThreads(final Map<String, Object> config) {
+        return Math.max(1, PropertiesUtil.toInteger(config.get(ASYNC_CALLBACK_THREADS), DEFAULT_ASYNC_CALLBACK_THREADS));
+    }
+
+    private static boolean isChanged(final Map<String, Object> previous, final Map<String, Object> config,
+                                     final String... keys) {
+        if (previous == null) {
+            return true;
+        }
+        for (String key : keys) {
+            if (!Objects.deepEquals(previous.get(key), config.get(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeAsyncHttpClient(final CloseableHttpAsyncClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOG.warn("Cannot close non-blocking HTTP client of instance {}", getInstanceId(), e);
+        }
+    }
+
+    private void createTrafficClasses(final Map<String, Object> config, final int maxTotal, final int maxPerRoute,
+                                      final int idleTimeout) {
+        final long maxWait = Math.max(0,
+                PropertiesUtil.toInteger(config.get(BULKHEAD_MAX_WAIT), DEFAULT_BULKHEAD_MAX_WAIT));
+        final Registry<ConnectionSocketFactory> socketFactoryRegistry = createDefaultSchemeRegistry();
+        final Settings settings = this.settings;
+
+        final Map<String, TrafficClass> classes = new LinkedHashMap<>();
+        for (String value : PropertiesUtil.toStringArray(config.get(TRAFFIC_CLASSES), DEFAULT_TRAFFIC_CLASSES)) {
+            final TrafficClass trafficClass = TrafficClass.parse(value);
+            if (trafficClass != null) {
+                classes.put(trafficClass.getName(), trafficClass);
+            } else {
+                LOG.warn("Ignore invalid traffic class configuration {}", value);
+            }
+        }
+        final String defaultName = PropertiesUtil.toString(config.get(TRAFFIC_DEFAULT_CLASS),
+                DEFAULT_TRAFFIC_DEFAULT_CLASS);
+        TrafficClass defaultClass = classes.get(defaultName);
+        if (defaultClass == null) {
+            defaultClass = new TrafficClass(defaultName, 0, 0, 0, 0, 0);
+            classes.put(defaultName, defaultClass);
+        }
+
+        for (TrafficClass trafficClass : classes.values()) {
+            final int classMaxTotal = trafficClass.getMaxConnections() > 0 ? trafficClass.getMaxConnections() : maxTotal;
+            final int classMaxPerRoute = Math.min(classMaxTotal, trafficClass.getMaxConnections() > 0
+                    ? trafficClass.getMaxConnections() : maxPerRoute);
+            final ConnectionPool pool = new ConnectionPool(settings.instanceId + "/" + trafficClass.getName() + "#"
+                    + settings.generation, socketFactoryRegistry,
+                    createSocketConfig(getTimeout(trafficClass.getSocketTimeout(), settings.socketTimeout)),
+                    classMaxTotal, classMaxPerRoute, idleTimeout);
+            final Bulkhead classBulkhead = trafficClass.getMaxConcurrent() > 0
+                    ? new Bulkhead(trafficClass.getMaxConcurrent(), maxWait) : null;
+            trafficClass.start(pool, new CallGuard(settings.instanceId, circuitBreaker, bulkhead, classBulkhead,
+                    trafficClass.getPriority()));
+            trafficClass.setHttpClient(createHttpClientBuilder(trafficClass).build());
+        }
+
+        // switch new requests to the new traffic classes
+        defaultTrafficClass = defaultClass;
+        trafficClasses = classes;
+    }
+
+    private CircuitBreaker createCircuitBreaker(final Map<String, Object> config) {
+        if (PropertiesUtil.toBoolean(config.get(BREAKER_ENABLED), DEFAULT_BREAKER_ENABLED)) {
+            final int windowSize = Math.max(1,
+                    PropertiesUtil.toInteger(config.get(BREAKER_WINDOW_SIZE), DEFAULT_BREAKER_WINDOW_SIZE));
+            return new CircuitBreaker(getInstanceId(), windowSize,
+                    Math.max(1, PropertiesUtil.toInteger(config.get(BREAKER_MINIMUM_CALLS), DEFAULT_BREAKER_MINIMUM_CALLS)),
+                    PropertiesUtil.toInteger(config.get(BREAKER_FAILURE_RATE), DEFAULT_BREAKER_FAILURE_RATE),
+                    PropertiesUtil.toInteger(config.get(BREAKER_SLOW_CALL_RATE), DEFAULT_BREAKER_SLOW_CALL_RATE),
+                    PropertiesUtil.toInteger(config.get(BREAKER_SLOW_CALL_DURATION), DEFAULT_BREAKER_SLOW_CALL_DURATION),
+                    Math.max(0, PropertiesUtil.toInteger(config.get(BREAKER_OPEN_DURATION), DEFAULT_BREAKER_OPEN_DURATION)),
+                    Math.max(1, PropertiesUtil.toInteger(config.get(BREAKER_HALF_OPEN_CALLS),
+                            DEFAULT_BREAKER_HALF_OPEN_CALLS)));
+        }
+        return null;
+    }
+
+    private Bulkhead createBulkhead(final Map<String, Object> config) {
+        final int maxConcurrent = PropertiesUtil.toInteger(config.get(BULKHEAD_MAX_CONCURRENT),
+                DEFAULT_BULKHEAD_MAX_CONCURRENT);
+        if (maxConcurrent > 0) {
+            return new Bulkhead(maxConcurrent,
+                    Math.max(0, PropertiesUtil.toInteger(config.get(BULKHEAD_MAX_WAIT), DEFAULT_BULKHEAD_MAX_WAIT)));
+        }
+        return null;
+    }
+
+    private RateLimiter createRateLimiter(final Map<String, Object> config) {
+        if (!PropertiesUtil.toBoolean(config.get(RATE_LIMIT_ENABLED), DEFAULT_RATE_LIMIT_ENABLED)) {
+            return null;
+        }
+        final int minRate = Math.max(1, PropertiesUtil.toInteger(config.get(RATE_LIMIT_MIN_RATE),
+                DEFAULT_RATE_LIMIT_MIN_RATE));
+        return new RateLimiter(getInstanceId(),
+                PropertiesUtil.toStringArray(config.get(RATE_LIMIT_PATHS), new String[]{"/s/-/dw/"}),
+                PropertiesUtil.toInteger(config.get(RATE_LIMIT_RATE), DEFAULT_RATE_LIMIT_RATE),
+                minRate,
+                PropertiesUtil.toInteger(config.get(RATE_LIMIT_MAX_RATE), DEFAULT_RATE_LIMIT_MAX_RATE),
+                Math.max(1, PropertiesUtil.toInteger(config.get(RATE_LIMIT_BURST), DEFAULT_RATE_LIMIT_BURST)),
+                Math.max(0, PropertiesUtil.toInteger(config.get(RATE_LIMIT_MAX_WAIT), DEFAULT_RATE_LIMIT_MAX_WAIT)),
+                StringUtils.trimToNull(PropertiesUtil.toString(config.get(RATE_LIMIT_REMAINING_HEADER),
+                        DEFAULT_RATE_LIMIT_REMAINING_HEADER)),
+                StringUtils.trimToNull(PropertiesUtil.toString(config.get(RATE_LIMIT_RESET_HEADER),
+                        DEFAULT_RATE_LIMIT_RESET_HEADER)));
+    }
+
+    private ContentCompression createContentCompression(final Map<String, Object> config) {
+        if (!PropertiesUtil.toBoolean(config.get(COMPRESSION_ENABLED), DEFAULT_COMPRESSION_ENABLED)) {
+            return null;
+        }
+        final String[] requestPaths = PropertiesUtil.toStringArray(config.get(COMPRESSION_REQUEST_PATHS));
+        return new ContentCompression(ArrayUtils.isNotEmpty(requestPaths) ? requestPaths : null,
+                Math.max(0, PropertiesUtil.toInteger(config.get(COMPRESSION_REQUEST_THRESHOLD),
+                        DEFAULT_COMPRESSION_REQUEST_THRESHOLD)));
+    }
+
+    private RetryPolicy createRetryPolicy(final Map<String, Object> config) {
+        if (!PropertiesUtil.toBoolean(config.get(RETRY_ENABLED), DEFAULT_RETRY_ENABLED)) {
+            return null;
+        }
+        final String[] statusCodeValues = PropertiesUtil.toStringArray(config.get(RETRY_STATUS_CODES));
+        int[] statusCodes = DEFAULT_RETRY_STATUS_CODES;
+        if (statusCodeValues != null) {
+            statusCodes = new int[statusCodeValues.length];
+            for (int i = 0; i < statusCodeValues.length; i++) {
+                statusCodes[i] = PropertiesUtil.toInteger(statusCodeValues[i], 0);
+            }
+        }
+        final int backoff = Math.max(1, PropertiesUtil.toInteger(config.get(RETRY_BACKOFF), DEFAULT_RETRY_BACKOFF));
+        return new RetryPolicy(
+                PropertiesUtil.toStringArray(config.get(RETRY_METHODS), DEFAULT_RETRY_METHODS),
+                statusCodes,
+                backoff,
+                Math.max(backoff, PropertiesUtil.toInteger(config.get(RETRY_MAX_BACKOFF), DEFAULT_RETRY_MAX_BACKOFF)),
+                Math.max(0, PropertiesUtil.toInteger(config.get(RETRY_DEADLINE), DEFAULT_RETRY_DEADLINE)));
+    }
+
+    private void unregisterStats() {
+        for (ServiceRegistration<?> statsRegistration : statsRegistrations) {
+            statsRegistration.unregister();
+        }
+        statsRegistrations.clear();
+    }
+
+    private void registerStats(final BundleContext bundleContext) {
+        final String instanceId = getInstanceId();
+        final String objectName = "com.adobe.cq.commerce.demandware:type=%s,id=" + ObjectName.quote(instanceId);
+        registerMBean(bundleContext, String.format(objectName, "DemandwareClient"),
+                new StandardMBean(new DemandwareClientStats(this), DemandwareClientStatsMXBean.class, true));
+        registerMBean(bundleContext, String.format(objectName, "DemandwareEndpoint") + ",endpoint=ALL",
+                new StandardMBean(new DemandwareEndpointStats(instanceId, "ALL", metrics.getTotal()),
+                        DemandwareEndpointStatsMXBean.class, true));
+        for (ClientMetrics.EndpointType type : ClientMetrics.EndpointType.values()) {
+            registerMBean(bundleContext, String.format(objectName, "DemandwareEndpoint") + ",endpoint=" + type.name(),
+                    new StandardMBean(new DemandwareEndpointStats(instanceId, type.name(), metrics.get(type)),
+                            DemandwareEndpointStatsMXBean.class, true));
+        }
+    }
+
+    private void registerMBean(final BundleContext bundleContext, final String objectName, final Object mbean) {
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put("jmx.objectname", objectName);
+        statsRegistrations.add(bundleContext.registerService(DynamicMBean.class.getName(), mbean, props));
+    }
+
+    /**
+     * Immutable snapshot of the connection settings of the instance, replaced as a whole on reconfiguration.
+     */
+    private static final class Settings {
+        private final Map<String, Object> properties;
+        private final int generation;
+        private final String instanceId;
+        private final String instanceEndPoint;
+        private final String assetDownloadEndpoint;
+        private final String webDavEndpoint;
+        private final String webDavUser;
+        private final String webDavUserPassword;
+        private final String protocolInterface;
+        private final String protocolSSL;
+        private final String keystoreType;
+        private final String keyStorePath;
+        private final String keyStorePwd;
+        private final String keyPwd;
+        private final int socketTimeout;
+        private final int connectionTimeout;
+        private final long keepAlive;
+        private final int asyncIoThreads;
+
+        Settings(final Map<String, Object> config, final int generation) {
+            this.properties = config;
+            this.generation = generation;
+            instanceId = PropertiesUtil.toString(config.get(INSTANCE_ID), null);
+            instanceEndPoint = PropertiesUtil.toString(config.get(INSTANCE_ENDPOINT), null);
+            assetDownloadEndpoint = PropertiesUtil.toString(config.get(ASSET_DOWNLOAD_ENDPOINT), null);
+            webDavEndpoint = PropertiesUtil.toString(config.get(WEBDAV_ENDPOINT), null);
+            webDavUser = PropertiesUtil.toString(config.get(WEBDAV_USER), null);
+            webDavUserPassword = PropertiesUtil.toString(config.get(WEBDAV_PASSWORD), null);
+            protocolInterface = PropertiesUtil.toString(config.get(PROTOCOL_INTERFACE), null);
+            protocolSSL = StringUtils.trimToNull(PropertiesUtil.toString(config.get(PROTOCOL_SSL), "TLSv1.2"));
+            keystoreType = StringUtils.trimToNull(PropertiesUtil.toString(config.get(KEYSTORE_TYPE), "JKS"));
+            keyStorePath = StringUtils.trimToNull(PropertiesUtil.toString(config.get(KEYSTORE_PATH), null));
+            keyStorePwd = StringUtils.trimToNull(PropertiesUtil.toString(config.get(KEYSTORE_PWD), null));
+            keyPwd = StringUtils.trimToNull(PropertiesUtil.toString(config.get(KEY_PWD), null));
+            socketTimeout = PropertiesUtil.toInteger(config.get(INSTANCE_SOCKET_TIMEOUT), 0);
+            connectionTimeout = PropertiesUtil.toInteger(config.get(INSTANCE_CONNECTION_TIMEOUT), 0);
+            keepAlive = Math.max(0, PropertiesUtil.toInteger(config.get(POOL_KEEP_ALIVE), DEFAULT_POOL_KEEP_ALIVE));
+            asyncIoThreads = Math.max(1, PropertiesUtil.toInteger(config.get(ASYNC_IO_THREADS),
+                    DEFAULT_ASYNC_IO_THREADS));
+        }
+
+        String getWebDavEndpoint() {
+            return StringUtils.isNotEmpty(webDavEndpoint) ? webDavEndpoint : instanceEndPoint;
+        }
     }
 }
@@ -21,7 +21,6 @@ import com.adobe.cq.commerce.demandware.DemandwareClientException;
 import com.adobe.cq.commerce.demandware.DemandwareClientProvider;
 import com.adobe.cq.commerce.demandware.InstanceIdProvider;
 import com.day.cq.replication.AgentConfig;
-import com.google.common.collect.Maps;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
@@ -29,6 +28,9 @@ import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 @Component(label = "Demandware Client Provider", immediate = true)
 @Service(value = DemandwareClientProvider.class)
@@ -36,9 +38,10 @@ public class DemandwareClientProviderImpl implements DemandwareClientProvider {
 	@Reference(referenceInterface = DemandwareClient.class,
 			bind = "bindDemandwareClient",
 			unbind = "unbindDemandwareClient",
+			updated = "updatedDemandwareClient",
 			cardinality = ReferenceCardinality.MANDATORY_MULTIPLE,
 			policy = ReferencePolicy.DYNAMIC)
-	protected HashMap<String, DemandwareClient> demandwareClients;
+	protected final ConcurrentMap<String, DemandwareClient> demandwareClients = new ConcurrentHashMap<>();
 
 	@Reference
 	private InstanceIdProvider instanceIdProvider;
@@ -59,9 +62,14 @@ public class DemandwareClientProviderImpl implements DemandwareClientProvider {
 		return demandwareClient;
 	}
 	
+	/**
+	 * Returns a snapshot of the currently bound Demandware clients
+	 *
+	 * @return copy of the Demandware clients by instance id
+	 */
 	@Override
 	public HashMap<String, DemandwareClient> getDemandwareClients (){
-		return demandwareClients;
+		return new HashMap<>(demandwareClients);
 	}
 
 	/**
@@ -78,13 +86,21 @@ public class DemandwareClientProviderImpl implements DemandwareClientProvider {
 	}
 
 	protected void bindDemandwareClient(final DemandwareClient client) {
-		if (demandwareClients == null) {
-			demandwareClients = Maps.newHashMap();
-		}
 		demandwareClients.put(client.getInstanceId(), client);
 	}
 
 	protected void unbindDemandwareClient(final DemandwareClient client) {
-		demandwareClients.remove(client.getInstanceId());
+		// a replacing client of the same instance may already be bound
+		demandwareClients.values().remove(client);
+	}
+
+	protected void updatedDemandwareClient(final DemandwareClient client) {
+		// the instance id may have changed with the client configuration
+		for (Map.Entry<String, DemandwareClient> entry : demandwareClients.entrySet()) {
+			if (entry.getValue() == client && !entry.getKey().equals(client.getInstanceId())) {
+				demandwareClients.remove(entry.getKey(), client);
+			}
+		}
+		demandwareClients.put(client.getInstanceId(), client);
 	}
 }
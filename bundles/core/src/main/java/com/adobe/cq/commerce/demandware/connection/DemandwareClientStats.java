@@ -0,0 +1,321 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * JMX view on the runtime statistics of a {@link DemandwareClientImpl}.
+ */
+class DemandwareClientStats implements DemandwareClientStatsMXBean {
+
+    private final DemandwareClientImpl client;
+
+    DemandwareClientStats(final DemandwareClientImpl client) {
+        this.client = client;
+    }
+
+    @Override
+    public String getInstanceId() {
+        return client.getInstanceId();
+    }
+
+    @Override
+    public String getEndpoint() {
+        return client.getEndpoint();
+    }
+
+    @Override
+    public String getKeyStorePath() {
+        final SSLMaterialCache sslMaterial = client.getSSLMaterialCache();
+        return sslMaterial != null ? sslMaterial.getKeyStorePath() : null;
+    }
+
+    @Override
+    public long getSslRebuildCount() {
+        final SSLMaterialCache sslMaterial = client.getSSLMaterialCache();
+        return sslMaterial != null ? sslMaterial.getRebuildCount() : 0;
+    }
+
+    @Override
+    public long getSslRebuildFailureCount() {
+        final SSLMaterialCache sslMaterial = client.getSSLMaterialCache();
+        return sslMaterial != null ? sslMaterial.getRebuildFailureCount() : 0;
+    }
+
+    @Override
+    public long getSslLastRebuildTime() {
+        final SSLMaterialCache sslMaterial = client.getSSLMaterialCache();
+        return sslMaterial != null ? sslMaterial.getLastRebuildTime() : 0;
+    }
+
+    @Override
+    public long getSslTotalRebuildTime() {
+        final SSLMaterialCache sslMaterial = client.getSSLMaterialCache();
+        return sslMaterial != null ? sslMaterial.getTotalRebuildTime() : 0;
+    }
+
+    @Override
+    public Date getSslLastRebuildDate() {
+        final SSLMaterialCache sslMaterial = client.getSSLMaterialCache();
+        return sslMaterial != null && sslMaterial.getLastRebuildDate() > 0
+                ? new Date(sslMaterial.getLastRebuildDate()) : null;
+    }
+
+    @Override
+    public String getBreakerState() {
+        final CircuitBreaker circuitBreaker = getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getState().name() : "DISABLED";
+    }
+
+    @Override
+    public float getBreakerFailureRate() {
+        final CircuitBreaker circuitBreaker = getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getFailureRate() : 0;
+    }
+
+    @Override
+    public float getBreakerSlowCallRate() {
+        final CircuitBreaker circuitBreaker = getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getSlowCallRate() : 0;
+    }
+
+    @Override
+    public long getBreakerNotPermittedCount() {
+        final CircuitBreaker circuitBreaker = getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getNotPermittedCount() : 0;
+    }
+
+    @Override
+    public int getBreakerOpenedCount() {
+        final CircuitBreaker circuitBreaker = getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getOpenedCount() : 0;
+    }
+
+    @Override
+    public int getBulkheadActiveCount() {
+        final Bulkhead bulkhead = getBulkhead();
+        return bulkhead != null ? bulkhead.getActiveCount() : 0;
+    }
+
+    @Override
+    public int getBulkheadMaxConcurrent() {
+        final Bulkhead bulkhead = getBulkhead();
+        return bulkhead != null ? bulkhead.getMaxConcurrent() : 0;
+    }
+
+    @Override
+    public long getBulkheadRejectedCount() {
+        final Bulkhead bulkhead = getBulkhead();
+        return bulkhead != null ? bulkhead.getRejectedCount() : 0;
+    }
+
+    @Override
+    public int getBulkheadWaitingCount() {
+        final Bulkhead bulkhead = getBulkhead();
+        return bulkhead != null ? bulkhead.getWaitingCount() : 0;
+    }
+
+    @Override
+    public String[] getTrafficClasses() {
+        final List<String> summaries = new ArrayList<>();
+        for (TrafficClass trafficClass : client.getTrafficClasses()) {
+            final StringBuilder summary = new StringBuilder(trafficClass.getName())
+                    .append(" (priority ").append(trafficClass.getPriority()).append(")");
+            final Bulkhead classBulkhead = trafficClass.getCallGuard().getClassBulkhead();
+            if (classBulkhead != null) {
+                summary.append(": ").append(classBulkhead.getActiveCount()).append("/")
+                        .append(classBulkhead.getMaxConcurrent()).append(" calls, ")
+                        .append(classBulkhead.getWaitingCount()).append(" waiting, ")
+                        .append(classBulkhead.getRejectedCount()).append(" rejected");
+            }
+            final PoolStats poolStats = trafficClass.getConnectionPool().getTotalStats();
+            summary.append(", pool ").append(poolStats.getLeased()).append(" leased/")
+                    .append(poolStats.getAvailable()).append(" available/")
+                    .append(poolStats.getPending()).append(" pending of ").append(poolStats.getMax());
+            summaries.add(summary.toString());
+        }
+        final PoolingNHttpClientConnectionManager asyncConnectionManager = client.getAsyncConnectionManager();
+        if (asyncConnectionManager != null) {
+            final PoolStats poolStats = asyncConnectionManager.getTotalStats();
+            summaries.add("async: pool " + poolStats.getLeased() + " leased/" + poolStats.getAvailable()
+                    + " available/" + poolStats.getPending() + " pending of " + poolStats.getMax());
+        }
+        return summaries.toArray(new String[0]);
+    }
+
+    @Override
+    public double getRateLimitRate() {
+        final RateLimiter rateLimiter = client.getRateLimiter();
+        return rateLimiter != null ? rateLimiter.getRate() : 0;
+    }
+
+    @Override
+    public long getRateLimitWaitCount() {
+        final RateLimiter rateLimiter = client.getRateLimiter();
+        return rateLimiter != null ? rateLimiter.getWaitCount() : 0;
+    }
+
+    @Override
+    public long getRateLimitTotalWaitTime() {
+        final RateLimiter rateLimiter = client.getRateLimiter();
+        return rateLimiter != null ? rateLimiter.getTotalWaitTime() : 0;
+    }
+
+    @Override
+    public long getRateLimitRejectedCount() {
+        final RateLimiter rateLimiter = client.getRateLimiter();
+        return rateLimiter != null ? rateLimiter.getRejectedCount() : 0;
+    }
+
+    @Override
+    public long getRateLimitThrottledCount() {
+        final RateLimiter rateLimiter = client.getRateLimiter();
+        return rateLimiter != null ? rateLimiter.getThrottledCount() : 0;
+    }
+
+    @Override
+    public int getPoolLeased() {
+        int leased = 0;
+        for (PoolStats poolStats : getPoolStats()) {
+            leased += poolStats.getLeased();
+        }
+        return leased;
+    }
+
+    @Override
+    public int getPoolAvailable() {
+        int available = 0;
+        for (PoolStats poolStats : getPoolStats()) {
+            available += poolStats.getAvailable();
+        }
+        return available;
+    }
+
+    @Override
+    public int getPoolPending() {
+        int pending = 0;
+        for (PoolStats poolStats : getPoolStats()) {
+            pending += poolStats.getPending();
+        }
+        return pending;
+    }
+
+    @Override
+    public int getPoolMax() {
+        int max = 0;
+        for (PoolStats poolStats : getPoolStats()) {
+            max += poolStats.getMax();
+        }
+        return max;
+    }
+
+    @Override
+    public int getPoolDrainingCount() {
+        final PoolDrainer poolDrainer = client.getPoolDrainer();
+        return poolDrainer != null ? poolDrainer.getDrainingCount() : 0;
+    }
+
+    @Override
+    public long getPoolDrainedCount() {
+        final PoolDrainer poolDrainer = client.getPoolDrainer();
+        return poolDrainer != null ? poolDrainer.getDrainedCount() : 0;
+    }
+
+    @Override
+    public long getPoolForcedShutdownCount() {
+        final PoolDrainer poolDrainer = client.getPoolDrainer();
+        return poolDrainer != null ? poolDrainer.getForcedCount() : 0;
+    }
+
+    @Override
+    public long getCompressedResponseCount() {
+        final ContentCompression compression = client.getContentCompression();
+        return compression != null ? compression.getResponseCount() : 0;
+    }
+
+    @Override
+    public long getCompressedResponseBytes() {
+        final ContentCompression compression = client.getContentCompression();
+        return compression != null ? compression.getResponseCompressedBytes() : 0;
+    }
+
+    @Override
+    public long getDecompressedResponseBytes() {
+        final ContentCompression compression = client.getContentCompression();
+        return compression != null ? compression.getResponseBytes() : 0;
+    }
+
+    @Override
+    public long getCompressedRequestCount() {
+        final ContentCompression compression = client.getContentCompression();
+        return compression != null ? compression.getRequestCount() : 0;
+    }
+
+    @Override
+    public long getCompressedRequestBytes() {
+        final ContentCompression compression = client.getContentCompression();
+        return compression != null ? compression.getRequestCompressedBytes() : 0;
+    }
+
+    @Override
+    public long getUncompressedRequestBytes() {
+        final ContentCompression compression = client.getContentCompression();
+        return compression != null ? compression.getRequestBytes() : 0;
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        final long compressed = getCompressedResponseBytes() + getCompressedRequestBytes();
+        return compressed > 0 ? (double) (getDecompressedResponseBytes() + getUncompressedRequestBytes()) / compressed
+                : 0;
+    }
+
+    @Override
+    public long getCompressionBytesSaved() {
+        return getDecompressedResponseBytes() + getUncompressedRequestBytes() - getCompressedResponseBytes()
+                - getCompressedRequestBytes();
+    }
+
+    private CircuitBreaker getCircuitBreaker() {
+        return client.getCircuitBreaker();
+    }
+
+    private Bulkhead getBulkhead() {
+        return client.getBulkhead();
+    }
+
+    /**
+     * @return the statistics of the connection pools of all traffic classes and of the non-blocking client
+     */
+    private List<PoolStats> getPoolStats() {
+        final List<PoolStats> poolStats = new ArrayList<>();
+        for (TrafficClass trafficClass : client.getTrafficClasses()) {
+            poolStats.add(trafficClass.getConnectionPool().getTotalStats());
+        }
+        final PoolingNHttpClientConnectionManager asyncConnectionManager = client.getAsyncConnectionManager();
+        if (asyncConnectionManager != null) {
+            poolStats.add(asyncConnectionManager.getTotalStats());
+        }
+        return poolStats;
+    }
+}
@@ -0,0 +1,210 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.Date;
+
+/**
+ * Runtime statistics of a single Demandware client instance, registered in JMX as
+ * {@code com.adobe.cq.commerce.demandware:type=DemandwareClient,id=<instance id>}.
+ */
+public interface DemandwareClientStatsMXBean {
+
+    String getInstanceId();
+
+    String getEndpoint();
+
+    /**
+     * @return path of the client keystore, {@code null} if no keystore is configured
+     */
+    String getKeyStorePath();
+
+    /**
+     * @return number of times the SSL context was built from the keystore
+     */
+    long getSslRebuildCount();
+
+    /**
+     * @return number of failed attempts to reload a changed keystore
+     */
+    long getSslRebuildFailureCount();
+
+    /**
+     * @return duration in ms of the last SSL context build
+     */
+    long getSslLastRebuildTime();
+
+    /**
+     * @return accumulated duration in ms of all SSL context builds
+     */
+    long getSslTotalRebuildTime();
+
+    /**
+     * @return time of the last SSL context build
+     */
+    Date getSslLastRebuildDate();
+
+    /**
+     * @return state of the circuit breaker, {@code DISABLED} if no circuit breaker is configured
+     */
+    String getBreakerState();
+
+    /**
+     * @return failure rate in percent of the recent calls
+     */
+    float getBreakerFailureRate();
+
+    /**
+     * @return slow call rate in percent of the recent calls
+     */
+    float getBreakerSlowCallRate();
+
+    /**
+     * @return number of calls rejected by the open circuit breaker
+     */
+    long getBreakerNotPermittedCount();
+
+    /**
+     * @return number of times the circuit breaker opened
+     */
+    int getBreakerOpenedCount();
+
+    /**
+     * @return number of calls currently executed, limited by the max concurrent calls
+     */
+    int getBulkheadActiveCount();
+
+    int getBulkheadMaxConcurrent();
+
+    /**
+     * @return number of calls rejected because the max concurrent calls were reached
+     */
+    long getBulkheadRejectedCount();
+
+    /**
+     * @return current OCAPI requests per second permitted by the rate limiter, 0 if no rate limit is configured
+     */
+    double getRateLimitRate();
+
+    /**
+     * @return number of OCAPI calls which had to wait for the rate limiter
+     */
+    long getRateLimitWaitCount();
+
+    /**
+     * @return accumulated time in ms OCAPI calls waited for the rate limiter
+     */
+    long getRateLimitTotalWaitTime();
+
+    /**
+     * @return number of OCAPI calls rejected because the maximum wait time would have been exceeded
+     */
+    long getRateLimitRejectedCount();
+
+    /**
+     * @return number of 429 and 503 responses received for OCAPI calls
+     */
+    long getRateLimitThrottledCount();
+
+    /**
+     * @return number of calls waiting for a free slot of the instance
+     */
+    int getBulkheadWaitingCount();
+
+    /**
+     * @return summary of the active, waiting and rejected calls and the connection pool of each traffic class and
+     * the connection pool of the non-blocking client
+     */
+    String[] getTrafficClasses();
+
+    /**
+     * @return number of pooled connections currently leased, summed over all traffic classes and the non-blocking
+     * client
+     */
+    int getPoolLeased();
+
+    /**
+     * @return number of idle pooled connections, summed over all traffic classes and the non-blocking client
+     */
+    int getPoolAvailable();
+
+    /**
+     * @return number of requests waiting for a pooled connection, summed over all traffic classes and the
+     * non-blocking client
+     */
+    int getPoolPending();
+
+    /**
+     * @return maximum number of pooled connections, summed over all traffic classes and the non-blocking client
+     */
+    int getPoolMax();
+
+    /**
+     * @return number of connection pools replaced by a changed configuration and still serving requests in flight
+     */
+    int getPoolDrainingCount();
+
+    /**
+     * @return number of replaced connection pools shut down after all their requests completed
+     */
+    long getPoolDrainedCount();
+
+    /**
+     * @return number of replaced connection pools shut down when the drain timeout elapsed
+     */
+    long getPoolForcedShutdownCount();
+
+    /**
+     * @return number of gzip encoded responses
+     */
+    long getCompressedResponseCount();
+
+    /**
+     * @return number of gzip encoded response bytes read from the wire
+     */
+    long getCompressedResponseBytes();
+
+    /**
+     * @return number of bytes decompressed from gzip encoded responses
+     */
+    long getDecompressedResponseBytes();
+
+    /**
+     * @return number of gzip encoded requests
+     */
+    long getCompressedRequestCount();
+
+    /**
+     * @return number of gzip encoded request bytes written to the wire
+     */
+    long getCompressedRequestBytes();
+
+    /**
+     * @return number of request bytes before gzip encoding
+     */
+    long getUncompressedRequestBytes();
+
+    /**
+     * @return ratio of uncompressed to compressed bytes of all gzip encoded requests and responses
+     */
+    double getCompressionRatio();
+
+    /**
+     * @return number of bytes not transferred thanks to gzip encoding of requests and responses
+     */
+    long getCompressionBytesSaved();
+}
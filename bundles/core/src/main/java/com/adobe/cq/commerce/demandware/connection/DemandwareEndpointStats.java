@@ -0,0 +1,110 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.Map;
+
+/**
+ * JMX view on the {@link EndpointMetrics} of one endpoint type of a {@link DemandwareClientImpl}.
+ */
+class DemandwareEndpointStats implements DemandwareEndpointStatsMXBean {
+
+    private final String instanceId;
+    private final String endpointType;
+    private final EndpointMetrics metrics;
+
+    DemandwareEndpointStats(final String instanceId, final String endpointType, final EndpointMetrics metrics) {
+        this.instanceId = instanceId;
+        this.endpointType = endpointType;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    @Override
+    public String getEndpointType() {
+        return endpointType;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return metrics.getLatency().getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return metrics.getErrorCount();
+    }
+
+    @Override
+    public int getInFlight() {
+        return metrics.getInFlight();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return metrics.getLatency().getMean();
+    }
+
+    @Override
+    public long getP50Latency() {
+        return metrics.getLatency().getPercentile(50);
+    }
+
+    @Override
+    public long getP95Latency() {
+        return metrics.getLatency().getPercentile(95);
+    }
+
+    @Override
+    public long getP99Latency() {
+        return metrics.getLatency().getPercentile(99);
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return metrics.getLatency().getMax();
+    }
+
+    @Override
+    public long getStatus2xxCount() {
+        return metrics.getStatusClassCount(2);
+    }
+
+    @Override
+    public long getStatus3xxCount() {
+        return metrics.getStatusClassCount(3);
+    }
+
+    @Override
+    public long getStatus4xxCount() {
+        return metrics.getStatusClassCount(4);
+    }
+
+    @Override
+    public long getStatus5xxCount() {
+        return metrics.getStatusClassCount(5);
+    }
+
+    @Override
+    public Map<String, Long> getStatusCodes() {
+        return metrics.getStatusCodes();
+    }
+}
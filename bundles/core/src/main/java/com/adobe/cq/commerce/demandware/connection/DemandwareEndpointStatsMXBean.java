@@ -0,0 +1,67 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.Map;
+
+/**
+ * Request statistics of one endpoint type of a Demandware instance, registered in JMX as
+ * {@code com.adobe.cq.commerce.demandware:type=DemandwareEndpoint,id=<instance id>,endpoint=<endpoint type>}. The
+ * endpoint type {@code ALL} covers all requests of the instance. Latencies are measured in ms until the response
+ * headers are received.
+ */
+public interface DemandwareEndpointStatsMXBean {
+
+    String getInstanceId();
+
+    String getEndpointType();
+
+    long getRequestCount();
+
+    /**
+     * @return number of requests failed without response, e.g. due to timeouts or connection errors
+     */
+    long getErrorCount();
+
+    /**
+     * @return number of requests currently sent and waiting for the response
+     */
+    int getInFlight();
+
+    double getMeanLatency();
+
+    long getP50Latency();
+
+    long getP95Latency();
+
+    long getP99Latency();
+
+    long getMaxLatency();
+
+    long getStatus2xxCount();
+
+    long getStatus3xxCount();
+
+    long getStatus4xxCount();
+
+    long getStatus5xxCount();
+
+    /**
+     * @return number of responses per status code
+     */
+    Map<String, Long> getStatusCodes();
+}
@@ -0,0 +1,112 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.client.AuthenticationStrategy;
+import org.apache.http.client.UserTokenHandler;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * HTTP client builder handed out by {@link DemandwareClientImpl}. Clients built from it pass every request execution
+ * through the protection of the Demandware instance, regardless of further customization done by the caller other
+ * than the connection manager. Each built client references the connection pool of the builder until the client is
+ * closed.
+ * <p>
+ * A caller setting its own connection manager talks to another service, e.g. the account manager issuing access
+ * tokens. Such clients neither reference the pool nor pass the metrics, circuit breaker, bulkhead, rate limiter and
+ * retry of the instance, so their failures do not count against the instance.
+ */
+class DemandwareHttpClientBuilder extends HttpClientBuilder {
+
+    private final ConnectionPool pool;
+    private final CallGuard guard;
+    private final RateLimiter rateLimiter;
+    private final RetryPolicy retryPolicy;
+    private final ClientMetrics metrics;
+    // whether the client currently built uses the connection pool, set by createMainExec
+    private boolean pooled;
+
+    DemandwareHttpClientBuilder(final ConnectionPool pool, final CallGuard guard, final RateLimiter rateLimiter,
+                                final RetryPolicy retryPolicy, final ClientMetrics metrics) {
+        this.pool = pool;
+        this.guard = guard;
+        this.rateLimiter = rateLimiter;
+        this.retryPolicy = retryPolicy;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected ClientExecChain createMainExec(final HttpRequestExecutor requestExec,
+                                             final HttpClientConnectionManager connManager,
+                                             final ConnectionReuseStrategy reuseStrategy,
+                                             final ConnectionKeepAliveStrategy keepAliveStrategy,
+                                             final HttpProcessor proxyHttpProcessor,
+                                             final AuthenticationStrategy targetAuthStrategy,
+                                             final AuthenticationStrategy proxyAuthStrategy,
+                                             final UserTokenHandler userTokenHandler) {
+        // called by build() with the connection manager in effect, before the protocol exec is decorated
+        pooled = connManager == pool.getConnectionManager();
+        return super.createMainExec(requestExec, connManager, reuseStrategy, keepAliveStrategy, proxyHttpProcessor,
+                targetAuthStrategy, proxyAuthStrategy, userTokenHandler);
+    }
+
+    @Override
+    protected ClientExecChain decorateProtocolExec(final ClientExecChain protocolExec) {
+        if (!pooled) {
+            return protocolExec;
+        }
+        // measure the requests actually sent to the instance
+        ClientExecChain execChain = new MetricsExecChain(protocolExec, metrics);
+        execChain = new GuardedExecChain(execChain, guard);
+        // wait for the rate limiter before a concurrent call slot is occupied
+        if (rateLimiter != null) {
+            execChain = new RateLimitedExecChain(execChain, rateLimiter);
+        }
+        // each retry attempt passes limiter and guard again
+        if (retryPolicy != null) {
+            execChain = new RetryExecChain(execChain, retryPolicy);
+        }
+        return execChain;
+    }
+
+    @Override
+    public CloseableHttpClient build() {
+        final CloseableHttpClient client = super.build();
+        if (!pooled) {
+            return client;
+        }
+        // keep a retired pool open while the client may still be used, see PoolDrainer
+        pool.retain();
+        final AtomicBoolean closed = new AtomicBoolean();
+        return new ForwardingHttpClient(() -> client, () -> {
+            HttpClientUtils.closeQuietly(client);
+            if (closed.compareAndSet(false, true)) {
+                pool.release();
+            }
+        });
+    }
+}
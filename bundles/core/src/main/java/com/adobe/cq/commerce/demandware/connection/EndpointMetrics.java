@@ -0,0 +1,92 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request metrics of one endpoint type of a Demandware instance: request and error counts, in-flight requests,
+ * response status codes and the latency until the response headers are received.
+ */
+class EndpointMetrics {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong errors = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<>();
+
+    /**
+     * @return the start time of the request
+     */
+    long start() {
+        inFlight.incrementAndGet();
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @param start      start time of the request
+     * @param statusCode the response status code, 0 if the request failed without response
+     */
+    void finish(final long start, final int statusCode) {
+        inFlight.decrementAndGet();
+        latency.record(System.currentTimeMillis() - start);
+        if (statusCode > 0) {
+            statusCodes.computeIfAbsent(statusCode, code -> new AtomicLong()).incrementAndGet();
+        } else {
+            errors.incrementAndGet();
+        }
+    }
+
+    LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @param statusClass the status class, e.g. 5 for all server errors
+     * @return number of responses of the status class
+     */
+    long getStatusClassCount(final int statusClass) {
+        long count = 0;
+        for (Map.Entry<Integer, AtomicLong> entry : statusCodes.entrySet()) {
+            if (entry.getKey() / 100 == statusClass) {
+                count += entry.getValue().get();
+            }
+        }
+        return count;
+    }
+
+    Map<String, Long> getStatusCodes() {
+        final Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : statusCodes.entrySet()) {
+            counts.put(String.valueOf(entry.getKey()), entry.getValue().get());
+        }
+        return counts;
+    }
+}
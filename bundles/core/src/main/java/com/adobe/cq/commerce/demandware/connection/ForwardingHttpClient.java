@@ -0,0 +1,73 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HTTP client forwarding all requests to the client returned by a supplier. Used for the clients handed out by
+ * {@link DemandwareClientImpl}, either to follow the current configuration of the instance or to release the
+ * connection pool of the client when it is closed.
+ */
+class ForwardingHttpClient extends CloseableHttpClient {
+
+    private final Supplier<CloseableHttpClient> delegate;
+    private final Runnable close;
+
+    /**
+     * @param delegate supplies the client executing the requests, called for each request
+     * @param close    invoked when the client is closed
+     */
+    ForwardingHttpClient(final Supplier<CloseableHttpClient> delegate, final Runnable close) {
+        this.delegate = delegate;
+        this.close = close;
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(final HttpHost target, final HttpRequest request,
+                                              final HttpContext context) throws IOException, ClientProtocolException {
+        return delegate.get().execute(target, request, context);
+    }
+
+    @Override
+    public void close() {
+        close.run();
+    }
+
+    @Override
+    @Deprecated
+    public HttpParams getParams() {
+        return delegate.get().getParams();
+    }
+
+    @Override
+    @Deprecated
+    public ClientConnectionManager getConnectionManager() {
+        return delegate.get().getConnectionManager();
+    }
+}
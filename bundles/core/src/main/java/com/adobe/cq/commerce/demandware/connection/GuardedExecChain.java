@@ -0,0 +1,311 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.EofSensorInputStream;
+import org.apache.http.conn.EofSensorWatcher;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Execution chain element passing each request execution through the {@link CallGuard} of the instance. I/O errors
+ * and server errors are recorded as failed calls. A call lasts until its response entity is read to the end or the
+ * response is closed, so the bulkhead slot is held while the body is streamed.
+ */
+class GuardedExecChain implements ClientExecChain {
+
+    private final ClientExecChain requestExecutor;
+    private final CallGuard guard;
+
+    GuardedExecChain(final ClientExecChain requestExecutor, final CallGuard guard) {
+        this.requestExecutor = requestExecutor;
+        this.guard = guard;
+    }
+
+    @Override
+    public CloseableHttpResponse execute(final HttpRoute route, final HttpRequestWrapper request,
+                                         final HttpClientContext clientContext, final HttpExecutionAware execAware)
+            throws IOException, HttpException {
+        final long start = guard.acquire();
+        final CloseableHttpResponse response;
+        try {
+            response = requestExecutor.execute(route, request, clientContext, execAware);
+        } catch (IOException | HttpException | RuntimeException e) {
+            guard.release(start, true);
+            throw e;
+        }
+        final Call call = new Call(start, CallGuard.isFailure(response));
+        final HttpEntity entity = response.getEntity();
+        if (entity == null || !entity.isStreaming()) {
+            call.release();
+            return response;
+        }
+        response.setEntity(new GuardedEntity(entity, call));
+        return new GuardedResponse(response, call);
+    }
+
+    /**
+     * Permitted call, finished once by the first end of stream, close or abort of its response.
+     */
+    private class Call implements EofSensorWatcher {
+        private final long start;
+        private final boolean failed;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Call(final long start, final boolean failed) {
+            this.start = start;
+            this.failed = failed;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                guard.release(start, failed);
+            }
+        }
+
+        @Override
+        public boolean eofDetected(final InputStream wrapped) {
+            release();
+            return true;
+        }
+
+        @Override
+        public boolean streamClosed(final InputStream wrapped) {
+            release();
+            return true;
+        }
+
+        @Override
+        public boolean streamAbort(final InputStream wrapped) {
+            release();
+            return true;
+        }
+    }
+
+    /**
+     * Response entity finishing the call when its content is read to the end, closed or aborted.
+     */
+    private static class GuardedEntity extends HttpEntityWrapper {
+        private final Call call;
+        private InputStream content;
+
+        private GuardedEntity(final HttpEntity wrappedEntity, final Call call) {
+            super(wrappedEntity);
+            this.call = call;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null) {
+                content = new EofSensorInputStream(wrappedEntity.getContent(), call);
+            }
+            return content;
+        }
+
+        @Override
+        public void writeTo(final OutputStream outStream) throws IOException {
+            try (InputStream in = getContent()) {
+                final byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    outStream.write(buffer, 0, n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Response finishing the call when it is closed before its entity is read to the end.
+     */
+    @SuppressWarnings("deprecation")
+    private static class GuardedResponse implements CloseableHttpResponse {
+        private final CloseableHttpResponse response;
+        private final Call call;
+
+        private GuardedResponse(final CloseableHttpResponse response, final Call call) {
+            this.response = response;
+            this.call = call;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                response.close();
+            } finally {
+                call.release();
+            }
+        }
+
+        @Override
+        public StatusLine getStatusLine() {
+            return response.getStatusLine();
+        }
+
+        @Override
+        public void setStatusLine(final StatusLine statusline) {
+            response.setStatusLine(statusline);
+        }
+
+        @Override
+        public void setStatusLine(final ProtocolVersion ver, final int code) {
+            response.setStatusLine(ver, code);
+        }
+
+        @Override
+        public void setStatusLine(final ProtocolVersion ver, final int code, final String reason) {
+            response.setStatusLine(ver, code, reason);
+        }
+
+        @Override
+        public void setStatusCode(final int code) {
+            response.setStatusCode(code);
+        }
+
+        @Override
+        public void setReasonPhrase(final String reason) {
+            response.setReasonPhrase(reason);
+        }
+
+        @Override
+        public HttpEntity getEntity() {
+            return response.getEntity();
+        }
+
+        @Override
+        public void setEntity(final HttpEntity entity) {
+            response.setEntity(entity);
+        }
+
+        @Override
+        public Locale getLocale() {
+            return response.getLocale();
+        }
+
+        @Override
+        public void setLocale(final Locale loc) {
+            response.setLocale(loc);
+        }
+
+        @Override
+        public ProtocolVersion getProtocolVersion() {
+            return response.getProtocolVersion();
+        }
+
+        @Override
+        public boolean containsHeader(final String name) {
+            return response.containsHeader(name);
+        }
+
+        @Override
+        public Header[] getHeaders(final String name) {
+            return response.getHeaders(name);
+        }
+
+        @Override
+        public Header getFirstHeader(final String name) {
+            return response.getFirstHeader(name);
+        }
+
+        @Override
+        public Header getLastHeader(final String name) {
+            return response.getLastHeader(name);
+        }
+
+        @Override
+        public Header[] getAllHeaders() {
+            return response.getAllHeaders();
+        }
+
+        @Override
+        public void addHeader(final Header header) {
+            response.addHeader(header);
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            response.addHeader(name, value);
+        }
+
+        @Override
+        public void setHeader(final Header header) {
+            response.setHeader(header);
+        }
+
+        @Override
+        public void setHeader(final String name, final String value) {
+            response.setHeader(name, value);
+        }
+
+        @Override
+        public void setHeaders(final Header[] headers) {
+            response.setHeaders(headers);
+        }
+
+        @Override
+        public void removeHeader(final Header header) {
+            response.removeHeader(header);
+        }
+
+        @Override
+        public void removeHeaders(final String name) {
+            response.removeHeaders(name);
+        }
+
+        @Override
+        public HeaderIterator headerIterator() {
+            return response.headerIterator();
+        }
+
+        @Override
+        public HeaderIterator headerIterator(final String name) {
+            return response.headerIterator(name);
+        }
+
+        @Override
+        public HttpParams getParams() {
+            return response.getParams();
+        }
+
+        @Override
+        public void setParams(final HttpParams params) {
+            response.setParams(params);
+        }
+
+        @Override
+        public String toString() {
+            return response.toString();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.DynamicMBean;
+import javax.management.StandardMBean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
+import com.adobe.cq.commerce.demandware.InheritedPropertyResolver;
+import com.day.cq.commons.inherit.HierarchyNodeInheritanceValueMap;
+import com.day.cq.wcm.api.Page;
+
+/**
+ * Caches the effective values of the inheritable Demandware properties per hierarchy node. The values of a node are
+ * built from the properties of its content node and the cached values of its parent, so resolving a page below a
+ * cached ancestor reads a single node. A change of one of the properties, or an added, moved or removed node, evicts
+ * the values of the node and all its descendants. Changes made on other cluster nodes are received as external
+ * changes and evict the same way. The least recently used nodes are evicted once the cache is full. Properties not
+ * configured are resolved without cache.
+ */
+@Component(metatype = true, immediate = true, label = "Demandware Inherited Property Resolver",
+        description = "Caches the inherited Demandware page properties")
+@Service(value = {InheritedPropertyResolver.class, ResourceChangeListener.class})
+@Properties({
+        @Property(name = ResourceChangeListener.PATHS, label = "Content roots", description = "Paths of the " +
+                "content with inherited Demandware properties", value = {"/content"},
+                cardinality = Integer.MAX_VALUE),
+        @Property(name = ResourceChangeListener.CHANGES, value = {"ADDED", "CHANGED", "REMOVED"},
+                propertyPrivate = true)
+})
+public class InheritedPropertyResolverImpl implements InheritedPropertyResolver, ExternalResourceChangeListener {
+    private static final Logger LOG = LoggerFactory.getLogger(InheritedPropertyResolverImpl.class);
+
+    private static final String JCR_CONTENT = "/" + JcrConstants.JCR_CONTENT;
+
+    @Property(label = "Cached properties", description = "Names of the inheritable properties cached", value = {
+            DemandwareCommerceConstants.PN_DWRE_INSTANCE_ID,
+            DemandwareCommerceConstants.PN_DWRE_SITE,
+            DemandwareCommerceConstants.PN_DWRE_LIBRARY,
+            DemandwareCommerceConstants.PN_DWRE_TEMPLATE_PATH
+    }, cardinality = Integer.MAX_VALUE)
+    private static final String PROPERTY_NAMES = "property.names";
+
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    @Property(label = "Max cached nodes", description = "Maximum number of hierarchy nodes with cached values, " +
+            "the least recently used nodes are evicted", intValue = DEFAULT_MAX_ENTRIES)
+    private static final String MAX_ENTRIES = "cache.maxEntries";
+
+    // effective values by hierarchy node path in access order, guarded by itself
+    private final Map<String, Map<String, String>> cache = new LinkedHashMap<String, Map<String, String>>(16,
+            0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Map<String, String>> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    // incremented by each eviction, values resolved meanwhile are not cached
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder uncachedCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private Set<String> propertyNames = Collections.emptySet();
+    private volatile int maxEntries;
+    private ServiceRegistration<?> statsRegistration;
+
+    @Activate
+    protected void activate(final BundleContext bundleContext, final Map<String, Object> config) {
+        propertyNames = new HashSet<>(Arrays.asList(PropertiesUtil.toStringArray(config.get(PROPERTY_NAMES),
+                new String[0])));
+        maxEntries = Math.max(0, PropertiesUtil.toInteger(config.get(MAX_ENTRIES), DEFAULT_MAX_ENTRIES));
+        synchronized (cache) {
+            cache.clear();
+        }
+        try {
+            final Hashtable<String, Object> props = new Hashtable<>();
+            props.put("jmx.objectname", "com.adobe.cq.commerce.demandware:type=InheritedPropertyResolver");
+            statsRegistration = bundleContext.registerService(DynamicMBean.class.getName(),
+                    new StandardMBean(new InheritedPropertyResolverStats(this),
+                            InheritedPropertyResolverStatsMXBean.class, true), props);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Cannot register inherited property resolver statistics MBean", e);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (statsRegistration != null) {
+            statsRegistration.unregister();
+            statsRegistration = null;
+        }
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public String getInherited(final Page page, final String name, final String defaultValue) {
+        if (page == null) {
+            return defaultValue;
+        }
+        final Resource content = page.getContentResource();
+        final Resource node = content != null ? content.getParent() : null;
+        if (node == null || !propertyNames.contains(name)) {
+            uncachedCount.increment();
+            return content != null
+                    ? new HierarchyNodeInheritanceValueMap(content).getInherited(name, defaultValue) : defaultValue;
+        }
+        final Map<String, String> values = getCached(node.getPath());
+        if (values != null) {
+            hitCount.increment();
+            return getValue(values, name, defaultValue);
+        }
+        missCount.increment();
+        return getValue(resolve(node), name, defaultValue);
+    }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes) {
+        if (getSize() == 0) {
+            return;
+        }
+        for (ResourceChange change : changes) {
+            final String path = getEvictionPath(change);
+            if (path != null) {
+                evictTree(path);
+            }
+        }
+    }
+
+    private static String getValue(final Map<String, String> values, final String name, final String defaultValue) {
+        final String value = values.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Get the values of the node, resolving and caching the values of the node and its ancestors not cached yet.
+     */
+    private Map<String, String> resolve(final Resource node) {
+        final String path = node.getPath();
+        Map<String, String> values = getCached(path);
+        if (values != null) {
+            return values;
+        }
+        final long resolvedGeneration = generation.get();
+        final Resource parent = node.getParent();
+        values = new HashMap<>(parent != null && !"/".equals(parent.getPath())
+                ? resolve(parent) : Collections.emptyMap());
+        final Resource content = node.getChild(JcrConstants.JCR_CONTENT);
+        if (content != null) {
+            final ValueMap properties = content.getValueMap();
+            for (String name : propertyNames) {
+                final String value = properties.get(name, String.class);
+                if (value != null) {
+                    values.put(name, value);
+                }
+            }
+        }
+        values = Collections.unmodifiableMap(values);
+        if (maxEntries > 0) {
+            synchronized (cache) {
+                // evictions take the same lock, so a changed generation means the values may be outdated already
+                if (generation.get() == resolvedGeneration) {
+                    cache.put(path, values);
+                }
+            }
+        }
+        return values;
+    }
+
+    private Map<String, String> getCached(final String path) {
+        synchronized (cache) {
+            return cache.get(path);
+        }
+    }
+
+    /**
+     * Get the path of the subtree to evict for a change.
+     *
+     * @return path of the hierarchy node whose values changed or {@code null} if no cached values are affected
+     */
+    private String getEvictionPath(final ResourceChange change) {
+        final String path = change.getPath();
+        if (StringUtils.endsWith(path, JCR_CONTENT)) {
+            if (change.getType() == ResourceChange.ChangeType.CHANGED && !isPropertyChanged(change)) {
+                return null;
+            }
+            return StringUtils.removeEnd(path, JCR_CONTENT);
+        }
+        if (StringUtils.contains(path, JCR_CONTENT + "/") || change.getType() == ResourceChange.ChangeType.CHANGED) {
+            // components and the properties of hierarchy nodes do not carry inherited properties
+            return null;
+        }
+        // added, moved or removed hierarchy node
+        return path;
+    }
+
+    /**
+     * @return {@code true} if one of the cached properties changed or the changed properties are unknown
+     */
+    @SuppressWarnings("deprecation")
+    private boolean isPropertyChanged(final ResourceChange change) {
+        final Set<String> added = change.getAddedPropertyNames();
+        final Set<String> changed = change.getChangedPropertyNames();
+        final Set<String> removed = change.getRemovedPropertyNames();
+        if (added == null && changed == null && removed == null) {
+            return true;
+        }
+        for (String name : propertyNames) {
+            if (added != null && added.contains(name) || changed != null && changed.contains(name)
+                    || removed != null && removed.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evictTree(final String path) {
+        final String prefix = path + "/";
+        final int count;
+        synchronized (cache) {
+            generation.incrementAndGet();
+            final int size = cache.size();
+            cache.keySet().removeIf(key -> key.equals(path) || key.startsWith(prefix));
+            count = size - cache.size();
+        }
+        if (count > 0) {
+            evictionCount.add(count);
+            LOG.debug("Evicted the inherited properties of {} nodes below {}", count, path);
+        }
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    long getUncachedCount() {
+        return uncachedCount.sum();
+    }
+
+    long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    int getSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    String[] getPropertyNames() {
+        return propertyNames.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,67 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.connection;
+
+/**
+ * JMX view on the statistics of the {@link InheritedPropertyResolverImpl}.
+ */
+class InheritedPropertyResolverStats implements InheritedPropertyResolverStatsMXBean {
+
+    private final InheritedPropertyResolverImpl resolver;
+
+    InheritedPropertyResolverStats(final InheritedPropertyResolverImpl resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return resolver.getPropertyNames();
+    }
+
+    @Override
+    public int getSize() {
+        return resolver.getSize();
+    }
+
+    @Override
+    public long getHitCount() {
+        return resolver.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return resolver.getMissCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = getHitCount();
+        final long lookups = hits + getMissCount();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    @Override
+    public long getUncachedCount() {
+        return resolver.getUncachedCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return resolver.getEvictionCount();
+    }
+}
@@ -0,0 +1,60 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.connection;
+
+/**
+ * Statistics of the inherited property resolver, registered in JMX as
+ * {@code com.adobe.cq.commerce.demandware:type=InheritedPropertyResolver}.
+ */
+public interface InheritedPropertyResolverStatsMXBean {
+
+    /**
+     * @return names of the cached properties
+     */
+    String[] getPropertyNames();
+
+    /**
+     * @return number of hierarchy nodes with cached values
+     */
+    int getSize();
+
+    /**
+     * @return number of lookups answered from the cached values of the page
+     */
+    long getHitCount();
+
+    /**
+     * @return number of lookups resolving the values of the page
+     */
+    long getMissCount();
+
+    /**
+     * @return ratio of lookups answered from the cache
+     */
+    double getHitRatio();
+
+    /**
+     * @return number of lookups of properties not cached
+     */
+    long getUncachedCount();
+
+    /**
+     * @return number of cached node values evicted by changed content
+     */
+    long getEvictionCount();
+}
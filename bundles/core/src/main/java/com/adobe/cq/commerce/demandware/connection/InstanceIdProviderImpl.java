@@ -17,13 +17,14 @@
 package com.adobe.cq.commerce.demandware.connection;
 
 import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
+import com.adobe.cq.commerce.demandware.InheritedPropertyResolver;
 import com.adobe.cq.commerce.demandware.InstanceIdProvider;
-import com.day.cq.commons.inherit.HierarchyNodeInheritanceValueMap;
 import com.day.cq.replication.AgentConfig;
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageManager;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.ResourceResolver;
@@ -39,15 +40,17 @@ public class InstanceIdProviderImpl implements InstanceIdProvider {
     private static final Logger LOG = LoggerFactory.getLogger(InstanceIdProviderImpl.class);
     private static final String DWRE_SCHEME = "demandware://";
     
+    @Reference
+    private InheritedPropertyResolver inheritedPropertyResolver;
+    
     @Override
     public String getInstanceId(final Page page) {
         if (page == null) {
             LOG.error("Failed to fetch Demandware instance id. Page is missing.");
             return StringUtils.EMPTY;
         }
-        final HierarchyNodeInheritanceValueMap pageProperties = new HierarchyNodeInheritanceValueMap(
-                page.getContentResource());
-        return pageProperties.getInherited(DemandwareCommerceConstants.PN_DWRE_INSTANCE_ID, StringUtils.EMPTY);
+        return inheritedPropertyResolver.getInherited(page, DemandwareCommerceConstants.PN_DWRE_INSTANCE_ID,
+                StringUtils.EMPTY);
     }
     
     @Override
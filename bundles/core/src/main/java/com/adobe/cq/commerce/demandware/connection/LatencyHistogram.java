@@ -0,0 +1,107 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets. Each power of two of milliseconds is split into
+ * {@value #SUB_BUCKETS} linear sub buckets, so the relative error of the reported percentiles is at most 25%.
+ * Latencies above {@value #MAX_EXPONENT} powers of two are counted in the last bucket.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_EXPONENT = 22;
+
+    private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXPONENT + 1) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(final long millis) {
+        final long value = Math.max(0, millis);
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry until the maximum is updated or another thread recorded a larger value
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    double getMean() {
+        final long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return upper bound in ms of the bucket containing the percentile, 0 if nothing was recorded
+     */
+    long getPercentile(final double percentile) {
+        final long[] snapshot = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(getUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int getBucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // exponent of the highest bit, the next two bits select the sub bucket
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return (MAX_EXPONENT + 1) * SUB_BUCKETS - 1;
+        }
+        final int subBucket = (int) (value >> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getUpperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + 1;
+        final int subBucket = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - 2)) - 1;
+    }
+}
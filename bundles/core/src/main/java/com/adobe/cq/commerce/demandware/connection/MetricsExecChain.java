@@ -0,0 +1,59 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.io.IOException;
+
+import org.apache.http.HttpException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * Execution chain element recording the {@link ClientMetrics} of each request execution sent to the instance.
+ */
+class MetricsExecChain implements ClientExecChain {
+
+    private final ClientExecChain requestExecutor;
+    private final ClientMetrics metrics;
+
+    MetricsExecChain(final ClientExecChain requestExecutor, final ClientMetrics metrics) {
+        this.requestExecutor = requestExecutor;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CloseableHttpResponse execute(final HttpRoute route, final HttpRequestWrapper request,
+                                         final HttpClientContext clientContext, final HttpExecutionAware execAware)
+            throws IOException, HttpException {
+        final EndpointMetrics endpoint = metrics.get(metrics.getEndpointType(route.getTargetHost(), request));
+        final long start = endpoint.start();
+        final long totalStart = metrics.getTotal().start();
+        int statusCode = 0;
+        try {
+            final CloseableHttpResponse response = requestExecutor.execute(route, request, clientContext, execAware);
+            statusCode = response.getStatusLine().getStatusCode();
+            return response;
+        } finally {
+            endpoint.finish(start, statusCode);
+            metrics.getTotal().finish(totalStart, statusCode);
+        }
+    }
+}
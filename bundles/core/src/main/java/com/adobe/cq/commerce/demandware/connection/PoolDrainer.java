@@ -0,0 +1,129 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shuts down connection pools replaced by a reconfiguration of the owning {@link DemandwareClientImpl}. A retired
+ * pool is no longer used for new requests but keeps serving the requests in flight and the clients built before the
+ * reconfiguration. It is shut down as soon as no client references the pool and no connection is leased or requested
+ * anymore, at the latest after the drain timeout.
+ */
+class PoolDrainer {
+    private static final Logger LOG = LoggerFactory.getLogger(PoolDrainer.class);
+
+    private static final long CHECK_INTERVAL = 1000;
+
+    private final ScheduledExecutorService executor;
+    private final Map<String, Runnable> draining = new ConcurrentHashMap<>();
+    private final AtomicLong drainedCount = new AtomicLong();
+    private final AtomicLong forcedCount = new AtomicLong();
+
+    PoolDrainer(final String name) {
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "Demandware connection drainer [" + name + "]");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Retire the pool, it is shut down once drained.
+     *
+     * @param name         name of the pool
+     * @param stats        current statistics of the pool
+     * @param references current number of clients referencing the pool
+     * @param shutdown     shuts down the pool
+     * @param drainTimeout maximum time in ms to wait for the requests in flight
+     */
+    void retire(final String name, final Supplier<PoolStats> stats, final IntSupplier references,
+                final Runnable shutdown, final long drainTimeout) {
+        LOG.info("Retired connection pool {} referenced by {} clients, draining {}", name, references.getAsInt(),
+                stats.get());
+        draining.put(name, shutdown);
+        executor.schedule(() -> drain(name, stats, references, shutdown, System.currentTimeMillis() + drainTimeout),
+                CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void drain(final String name, final Supplier<PoolStats> stats, final IntSupplier references,
+                       final Runnable shutdown, final long deadline) {
+        final PoolStats poolStats = stats.get();
+        final int referenceCount = references.getAsInt();
+        if (referenceCount <= 0 && poolStats.getLeased() == 0 && poolStats.getPending() == 0) {
+            LOG.info("Connection pool {} drained", name);
+            drainedCount.incrementAndGet();
+        } else if (System.currentTimeMillis() >= deadline) {
+            LOG.warn("Connection pool {} not drained in time, shut down {} still referenced by {} clients", name,
+                    poolStats, referenceCount);
+            forcedCount.incrementAndGet();
+        } else {
+            executor.schedule(() -> drain(name, stats, references, shutdown, deadline), CHECK_INTERVAL,
+                    TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (draining.remove(name) != null) {
+            shutdown.run();
+        }
+    }
+
+    /**
+     * @return number of retired pools not yet drained
+     */
+    int getDrainingCount() {
+        return draining.size();
+    }
+
+    /**
+     * @return number of retired pools shut down after all requests completed
+     */
+    long getDrainedCount() {
+        return drainedCount.get();
+    }
+
+    /**
+     * @return number of retired pools shut down when the drain timeout elapsed
+     */
+    long getForcedCount() {
+        return forcedCount.get();
+    }
+
+    /**
+     * Stop draining and shut down all retired pools immediately.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        for (String name : draining.keySet()) {
+            final Runnable shutdown = draining.remove(name);
+            if (shutdown != null) {
+                LOG.info("Shut down retired connection pool {}", name);
+                shutdown.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.io.IOException;
+
+import org.apache.http.HttpException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+import com.adobe.cq.commerce.demandware.DemandwareCallNotPermittedException;
+
+/**
+ * Execution chain element taking a token from the {@link RateLimiter} of the instance before rate limited requests
+ * are executed and passing the responses back to the limiter.
+ */
+class RateLimitedExecChain implements ClientExecChain {
+
+    private final ClientExecChain requestExecutor;
+    private final RateLimiter rateLimiter;
+
+    RateLimitedExecChain(final ClientExecChain requestExecutor, final RateLimiter rateLimiter) {
+        this.requestExecutor = requestExecutor;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public CloseableHttpResponse execute(final HttpRoute route, final HttpRequestWrapper request,
+                                         final HttpClientContext clientContext, final HttpExecutionAware execAware)
+            throws IOException, HttpException {
+        if (!rateLimiter.appliesTo(request)) {
+            return requestExecutor.execute(route, request, clientContext, execAware);
+        }
+        if (!rateLimiter.acquire()) {
+            throw new DemandwareCallNotPermittedException("Rate limit of Demandware instance exceeded for "
+                    + request.getRequestLine().getUri());
+        }
+        final CloseableHttpResponse response = requestExecutor.execute(route, request, clientContext, execAware);
+        rateLimiter.onResponse(response);
+        return response;
+    }
+}
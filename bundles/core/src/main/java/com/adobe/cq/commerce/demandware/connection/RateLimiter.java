@@ -0,0 +1,261 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.net.URI;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adaptive token bucket limiting the OCAPI request rate of a single Demandware instance. The bucket starts with the
+ * configured rate and adapts it to the responses of the instance:
+ * <ul>
+ * <li>{@code 429} and {@code 503} responses halve the rate and block all calls for the {@code Retry-After} time</li>
+ * <li>quota headers (remaining calls and reset time) set the rate to spread the remaining calls until the reset</li>
+ * <li>other successful responses increase the rate by about one request per second each second</li>
+ * </ul>
+ * Callers wait for a token up to the configured maximum wait time, otherwise the call is rejected.
+ */
+class RateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimiter.class);
+
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /* reset values above are absolute epoch seconds rather than delta seconds */
+    private static final long EPOCH_SECONDS_THRESHOLD = 1000000000L;
+
+    private final String name;
+    private final String[] paths;
+    private final double minRate;
+    private final double maxRate;
+    private final double burst;
+    private final long maxWait;
+    private final String remainingHeader;
+    private final String resetHeader;
+    private final LongSupplier clock;
+
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long blockedUntil;
+
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+
+    RateLimiter(final String name, final String[] paths, final double rate, final double minRate,
+                final double maxRate, final int burst, final long maxWait, final String remainingHeader,
+                final String resetHeader) {
+        this(name, paths, rate, minRate, maxRate, burst, maxWait, remainingHeader, resetHeader, System::nanoTime);
+    }
+
+    /**
+     * @param clock current time in ns, used to refill the bucket and to time blocked periods
+     */
+    RateLimiter(final String name, final String[] paths, final double rate, final double minRate,
+                final double maxRate, final int burst, final long maxWait, final String remainingHeader,
+                final String resetHeader, final LongSupplier clock) {
+        this.name = name;
+        this.paths = paths;
+        this.minRate = minRate;
+        this.maxRate = Math.max(minRate, maxRate);
+        this.rate = Math.max(minRate, Math.min(this.maxRate, rate));
+        this.burst = burst;
+        this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.remainingHeader = remainingHeader;
+        this.resetHeader = resetHeader;
+        this.clock = clock;
+        this.tokens = burst;
+        this.lastRefill = clock.getAsLong();
+        this.blockedUntil = lastRefill;
+    }
+
+    /**
+     * @return {@code true} if the request targets one of the rate limited paths
+     */
+    boolean appliesTo(final HttpRequest request) {
+        final String path;
+        if (request instanceof HttpUriRequest) {
+            path = ((HttpUriRequest) request).getURI().getRawPath();
+        } else {
+            path = URI.create(request.getRequestLine().getUri()).getRawPath();
+        }
+        return StringUtils.startsWithAny(path, paths);
+    }
+
+    /**
+     * Take a token from the bucket, waiting up to the maximum wait time.
+     *
+     * @return {@code true} if the call may be executed
+     */
+    boolean acquire() {
+        final long wait = reserve();
+        if (wait < 0) {
+            return false;
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reserve a token from the bucket without waiting. The caller must delay the call by the returned time, used by
+     * callers which must not block.
+     *
+     * @return the time in ns to wait before the call may be executed, or {@code -1} if the call is rejected because it
+     * would have to wait longer than the maximum wait time
+     */
+    long reserve() {
+        final long wait;
+        synchronized (this) {
+            final long now = clock.getAsLong();
+            refill(now);
+            final long tokenWait = tokens >= 1 ? 0 : (long) ((1 - tokens) / rate * NANOS_PER_SECOND);
+            wait = Math.max(tokenWait, blockedUntil - now);
+            if (wait > maxWait) {
+                rejectedCount.incrementAndGet();
+                return -1;
+            }
+            // reserve the token, waiting callers queue up behind each other
+            tokens -= 1;
+        }
+        if (wait > 0) {
+            waitCount.incrementAndGet();
+            totalWaitTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(wait));
+        }
+        return Math.max(0, wait);
+    }
+
+    /**
+     * Adapt the rate to the response of a rate limited call.
+     *
+     * @param response the response received
+     */
+    void onResponse(final HttpResponse response) {
+        final int status = response.getStatusLine().getStatusCode();
+        final long now = clock.getAsLong();
+        if (status == SC_TOO_MANY_REQUESTS || status == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+            throttledCount.incrementAndGet();
+            final long retryAfter = getRetryAfter(response);
+            final double reducedRate;
+            synchronized (this) {
+                rate = Math.max(minRate, rate / 2);
+                tokens = Math.min(tokens, 0);
+                blockedUntil = Math.max(blockedUntil, now + retryAfter);
+                reducedRate = rate;
+            }
+            LOG.debug("Demandware instance {} throttled with status {}, reduce rate to {}/s and pause for {}ms",
+                    name, status, reducedRate, TimeUnit.NANOSECONDS.toMillis(retryAfter));
+            return;
+        }
+
+        final long remaining = getLongHeader(response, remainingHeader);
+        final long reset = getLongHeader(response, resetHeader);
+        synchronized (this) {
+            if (remaining >= 0 && reset >= 0) {
+                final long resetSeconds = reset > EPOCH_SECONDS_THRESHOLD
+                        ? reset - System.currentTimeMillis() / 1000 : reset;
+                if (remaining == 0) {
+                    blockedUntil = Math.max(blockedUntil, now + Math.max(0, resetSeconds) * NANOS_PER_SECOND);
+                    rate = minRate;
+                } else {
+                    rate = Math.max(minRate, Math.min(maxRate, (double) remaining / Math.max(1, resetSeconds)));
+                }
+            } else if (status < HttpStatus.SC_BAD_REQUEST) {
+                rate = Math.min(maxRate, rate + 1 / rate);
+            }
+        }
+    }
+
+    String[] getPaths() {
+        return paths;
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    long getWaitCount() {
+        return waitCount.get();
+    }
+
+    long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    private void refill(final long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+        lastRefill = now;
+    }
+
+    /**
+     * @return the Retry-After time in ns, one second if the header is missing or invalid
+     */
+    private static long getRetryAfter(final HttpResponse response) {
+        final Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header != null && StringUtils.isNotBlank(header.getValue())) {
+            final String value = header.getValue().trim();
+            if (NumberUtils.isDigits(value)) {
+                return TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+            }
+            final Date date = DateUtils.parseDate(value);
+            if (date != null) {
+                return TimeUnit.MILLISECONDS.toNanos(Math.max(0, date.getTime() - System.currentTimeMillis()));
+            }
+        }
+        return NANOS_PER_SECOND;
+    }
+
+    private static long getLongHeader(final HttpResponse response, final String name) {
+        if (StringUtils.isEmpty(name)) {
+            return -1;
+        }
+        final Header header = response.getFirstHeader(name);
+        return header != null ? NumberUtils.toLong(StringUtils.trim(header.getValue()), -1) : -1;
+    }
+}
@@ -0,0 +1,103 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.apache.http.HttpException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Execution chain element repeating failed request executions according to the {@link RetryPolicy} of the instance.
+ * Each attempt passes the rate limiter, bulkhead and circuit breaker again.
+ */
+class RetryExecChain implements ClientExecChain {
+    private static final Logger LOG = LoggerFactory.getLogger(RetryExecChain.class);
+
+    private final ClientExecChain requestExecutor;
+    private final RetryPolicy retryPolicy;
+
+    RetryExecChain(final ClientExecChain requestExecutor, final RetryPolicy retryPolicy) {
+        this.requestExecutor = requestExecutor;
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public CloseableHttpResponse execute(final HttpRoute route, final HttpRequestWrapper request,
+                                         final HttpClientContext clientContext, final HttpExecutionAware execAware)
+            throws IOException, HttpException {
+        final int maxAttempts = retryPolicy.getMaxAttempts(request);
+        final long deadline = retryPolicy.getDeadline(System.currentTimeMillis());
+        for (int attempt = 1; ; attempt++) {
+            final CloseableHttpResponse response;
+            try {
+                response = requestExecutor.execute(route, request, clientContext, execAware);
+            } catch (IOException e) {
+                final boolean retryable = attempt < Math.max(maxAttempts, 2) && retryPolicy.isRetryable(e)
+                        && (attempt < maxAttempts || retryPolicy.isNotSent(e));
+                if (!retryable || !await(request, attempt, retryPolicy.getDelay(attempt, null), deadline, execAware)) {
+                    throw e;
+                }
+                LOG.debug("Retry {} after {} (attempt {})", request.getRequestLine(), e.toString(), attempt + 1);
+                continue;
+            }
+
+            if (attempt >= maxAttempts || !retryPolicy.isRetryable(response)) {
+                return response;
+            }
+            final long delay = retryPolicy.getDelay(attempt, response);
+            if (System.currentTimeMillis() + delay >= deadline) {
+                return response;
+            }
+            LOG.debug("Retry {} after status {} (attempt {})", request.getRequestLine(),
+                    response.getStatusLine().getStatusCode(), attempt + 1);
+            // release the connection of the failed attempt
+            try {
+                EntityUtils.consume(response.getEntity());
+            } finally {
+                response.close();
+            }
+            if (!await(request, attempt, delay, deadline, execAware)) {
+                throw new InterruptedIOException("Retry of " + request.getRequestLine() + " aborted");
+            }
+        }
+    }
+
+    private boolean await(final HttpRequestWrapper request, final int attempt, final long delay, final long deadline,
+                          final HttpExecutionAware execAware) {
+        if (System.currentTimeMillis() + delay >= deadline || (execAware != null && execAware.isAborted())) {
+            LOG.debug("Give up {} after {} attempts", request.getRequestLine(), attempt);
+            return false;
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retry policy of a single Demandware instance. Only requests which are safe to repeat are retried:
+ * <ul>
+ * <li>methods configured with a number of attempts, a {@code POST} using the method override header counts as the
+ * overridden method</li>
+ * <li>{@code PATCH} only if it is conditional using {@code If-Match}</li>
+ * <li>requests with a repeatable body</li>
+ * </ul>
+ * Requests are retried on the configured status codes, on connection resets and on timeouts. Failed connects are
+ * retried for all methods, the request was never sent in this case. The delay between two attempts grows
+ * exponentially with full jitter, a {@code Retry-After} response header is respected. No attempt is started if the
+ * delay would exceed the total deadline of the request.
+ */
+class RetryPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+
+    private static final String METHOD_OVERRIDE_HEADER = "x-dw-http-method-override";
+
+    private final Map<String, Integer> maxAttempts;
+    private final Set<Integer> statusCodes;
+    private final long backoff;
+    private final long maxBackoff;
+    private final long deadline;
+
+    /**
+     * @param methods     retryable methods in the format {@code METHOD;attempts}
+     * @param statusCodes retryable response status codes
+     * @param backoff     base delay in ms
+     * @param maxBackoff  maximum delay in ms
+     * @param deadline    maximum total duration in ms of all attempts of a request
+     */
+    RetryPolicy(final String[] methods, final int[] statusCodes, final long backoff, final long maxBackoff,
+                final long deadline) {
+        this.maxAttempts = new HashMap<>();
+        for (final String method : methods) {
+            final String name = StringUtils.trimToNull(StringUtils.substringBefore(method, ";"));
+            final int attempts = NumberUtils.toInt(StringUtils.trim(StringUtils.substringAfter(method, ";")), 0);
+            if (name != null && attempts > 1) {
+                maxAttempts.put(name.toUpperCase(Locale.ENGLISH), attempts);
+            } else {
+                LOG.warn("Ignore invalid retry configuration {}", method);
+            }
+        }
+        this.statusCodes = new HashSet<>();
+        for (final int statusCode : statusCodes) {
+            this.statusCodes.add(statusCode);
+        }
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return maximum number of attempts for the request, 1 if the request must not be repeated
+     */
+    int getMaxAttempts(final HttpRequest request) {
+        String method = request.getRequestLine().getMethod();
+        final Header override = request.getFirstHeader(METHOD_OVERRIDE_HEADER);
+        if (override != null && StringUtils.isNotBlank(override.getValue())) {
+            method = override.getValue().trim();
+        }
+        method = method.toUpperCase(Locale.ENGLISH);
+        if ("PATCH".equals(method) && !request.containsHeader(HttpHeaders.IF_MATCH)) {
+            return 1;
+        }
+        if (request instanceof HttpEntityEnclosingRequest) {
+            final HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && !entity.isRepeatable()) {
+                return 1;
+            }
+        }
+        final Integer attempts = maxAttempts.get(method);
+        return attempts != null ? attempts : 1;
+    }
+
+    boolean isRetryable(final HttpResponse response) {
+        return statusCodes.contains(response.getStatusLine().getStatusCode());
+    }
+
+    boolean isRetryable(final IOException e) {
+        return e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException
+                || e instanceof NoHttpResponseException || e instanceof SocketException;
+    }
+
+    /**
+     * @return {@code true} if the request was never sent and can be retried regardless of the method
+     */
+    boolean isNotSent(final IOException e) {
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException;
+    }
+
+    /**
+     * Calculates the delay before the next attempt.
+     *
+     * @param attempt  number of the failed attempt, starting with 1
+     * @param response the failed response, {@code null} if the attempt failed with an exception
+     * @return delay in ms
+     */
+    long getDelay(final int attempt, final HttpResponse response) {
+        final long ceiling = Math.min(maxBackoff, backoff << Math.min(attempt - 1, 30));
+        final long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(delay, getRetryAfter(response));
+    }
+
+    /**
+     * @return the time in ms the attempts of a request started at the given time may take
+     */
+    long getDeadline(final long start) {
+        return start + deadline;
+    }
+
+    private static long getRetryAfter(final HttpResponse response) {
+        final Header header = response != null ? response.getFirstHeader(HttpHeaders.RETRY_AFTER) : null;
+        if (header == null || StringUtils.isBlank(header.getValue())) {
+            return 0;
+        }
+        final String value = header.getValue().trim();
+        if (NumberUtils.isDigits(value)) {
+            return TimeUnit.SECONDS.toMillis(NumberUtils.toLong(value));
+        }
+        final Date date = DateUtils.parseDate(value);
+        return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : 0;
+    }
+}
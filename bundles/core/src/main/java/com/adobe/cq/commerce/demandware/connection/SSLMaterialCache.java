@@ -0,0 +1,256 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the parsed client keystore together with the {@code SSLContext} and the SSL socket factories built from it.
+ * The material is built once per configuration and only rebuilt if the keystore file changes. The file is checked at
+ * most once per check interval, a changed modification time or size triggers a checksum comparison and only a changed
+ * checksum triggers a rebuild. If the rebuild fails the previous material is kept until the file changes again.
+ */
+class SSLMaterialCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SSLMaterialCache.class);
+
+    private final String keystoreType;
+    private final String keyStorePath;
+    private final String keyStorePwd;
+    private final String keyPwd;
+    private final String[] protocols;
+    private final long checkInterval;
+
+    private final AtomicLong rebuildCount = new AtomicLong();
+    private final AtomicLong rebuildFailureCount = new AtomicLong();
+    private final AtomicLong totalRebuildTime = new AtomicLong();
+    private volatile long lastRebuildTime;
+    private volatile long lastRebuildDate;
+
+    private volatile Material material;
+    private volatile long nextCheck;
+
+    SSLMaterialCache(final String keystoreType, final String keyStorePath, final String keyStorePwd,
+                     final String keyPwd, final String protocolSSL, final long checkInterval) {
+        this.keystoreType = keystoreType != null ? keystoreType : "JKS";
+        this.keyStorePath = keyStorePwd != null ? keyStorePath : null;
+        this.keyStorePwd = keyStorePwd;
+        this.keyPwd = keyPwd;
+        this.protocols = protocolSSL != null ? new String[]{protocolSSL} : null;
+        this.checkInterval = checkInterval;
+        this.material = load();
+        this.nextCheck = System.currentTimeMillis() + checkInterval;
+    }
+
+    SSLContext getSSLContext() {
+        return current().sslContext;
+    }
+
+    /**
+     * @return socket factory delegating to the current material, suitable for a long-lived connection manager
+     */
+    LayeredConnectionSocketFactory getSocketFactory() {
+        return new LayeredConnectionSocketFactory() {
+            @Override
+            public Socket createLayeredSocket(final Socket socket, final String target, final int port,
+                                              final HttpContext context) throws IOException {
+                return current().socketFactory.createLayeredSocket(socket, target, port, context);
+            }
+
+            @Override
+            public Socket createSocket(final HttpContext context) throws IOException {
+                return current().socketFactory.createSocket(context);
+            }
+
+            @Override
+            public Socket connectSocket(final int connectTimeout, final Socket sock, final HttpHost host,
+                                        final InetSocketAddress remoteAddress, final InetSocketAddress localAddress,
+                                        final HttpContext context) throws IOException {
+                return current().socketFactory.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress,
+                        context);
+            }
+        };
+    }
+
+    /**
+     * @return session strategy delegating to the current material, suitable for a long-lived connection manager
+     */
+    SchemeIOSessionStrategy getSessionStrategy() {
+        return new SchemeIOSessionStrategy() {
+            @Override
+            public boolean isLayeringRequired() {
+                return true;
+            }
+
+            @Override
+            public IOSession upgrade(final HttpHost host, final IOSession session) throws IOException {
+                return current().sessionStrategy.upgrade(host, session);
+            }
+        };
+    }
+
+    long getRebuildCount() {
+        return rebuildCount.get();
+    }
+
+    long getRebuildFailureCount() {
+        return rebuildFailureCount.get();
+    }
+
+    long getTotalRebuildTime() {
+        return totalRebuildTime.get();
+    }
+
+    long getLastRebuildTime() {
+        return lastRebuildTime;
+    }
+
+    long getLastRebuildDate() {
+        return lastRebuildDate;
+    }
+
+    String getKeyStorePath() {
+        return keyStorePath;
+    }
+
+    private Material current() {
+        final long now = System.currentTimeMillis();
+        if (keyStorePath == null || now < nextCheck) {
+            return material;
+        }
+        synchronized (this) {
+            if (now >= nextCheck) {
+                nextCheck = now + checkInterval;
+                final File file = new File(keyStorePath);
+                final Material current = material;
+                if (file.lastModified() != current.lastModified || file.length() != current.size) {
+                    LOG.debug("Keystore {} changed on disk, verify checksum", keyStorePath);
+                    material = load();
+                }
+            }
+            return material;
+        }
+    }
+
+    private Material load() {
+        final long start = System.currentTimeMillis();
+        final Material current = material;
+        final File file = keyStorePath != null ? new File(keyStorePath) : null;
+        final long lastModified = file != null ? file.lastModified() : 0;
+        final long size = file != null ? file.length() : 0;
+        try {
+            if (file == null) {
+                return record(start, new Material(SSLContexts.createDefault(), 0, 0, null));
+            }
+
+            final byte[] bytes = Files.readAllBytes(file.toPath());
+            final byte[] checksum = checksum(bytes);
+            if (current != null && Arrays.equals(checksum, current.checksum)) {
+                // touched but unchanged, remember the new file attributes only
+                return new Material(current, lastModified, bytes.length);
+            }
+
+            LOG.debug("* Use client keystore of type {} from {}", keystoreType, keyStorePath);
+            final KeyStore keyStore = KeyStore.getInstance(keystoreType);
+            keyStore.load(new ByteArrayInputStream(bytes), keyStorePwd.toCharArray());
+            // create custom SSL context
+            final SSLContext sslContext = SSLContexts.custom()
+                    .loadKeyMaterial(keyStore, keyPwd != null ? keyPwd.toCharArray() : null)
+                    .loadTrustMaterial(null, new TrustSelfSignedStrategy())
+                    .build();
+            final Material loaded = record(start, new Material(sslContext, lastModified, bytes.length, checksum));
+            LOG.info("Loaded client keystore {} in {}ms", keyStorePath, lastRebuildTime);
+            return loaded;
+        } catch (Exception e) {
+            rebuildFailureCount.incrementAndGet();
+            if (current != null) {
+                LOG.error("Cannot reload client keystore {}, keep using the previous one: {}", keyStorePath, e);
+                // remember the attributes of the broken file, so it is only retried once it changes again
+                return new Material(current, lastModified, size);
+            }
+            LOG.error("Cannot set custom ssl config: {}", e);
+            return new Material(SSLContexts.createDefault(), 0, 0, null);
+        }
+    }
+
+    private Material record(final long start, final Material loaded) {
+        final long end = System.currentTimeMillis();
+        rebuildCount.incrementAndGet();
+        totalRebuildTime.addAndGet(end - start);
+        lastRebuildTime = end - start;
+        lastRebuildDate = end;
+        return loaded;
+    }
+
+    private static byte[] checksum(final byte[] bytes) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+
+    /**
+     * Immutable snapshot of SSL context and factories built from one version of the keystore file.
+     */
+    private class Material {
+        private final SSLContext sslContext;
+        private final SSLConnectionSocketFactory socketFactory;
+        private final SSLIOSessionStrategy sessionStrategy;
+        private final long lastModified;
+        private final long size;
+        private final byte[] checksum;
+
+        private Material(final SSLContext sslContext, final long lastModified, final long size, final byte[] checksum) {
+            this.sslContext = sslContext;
+            this.socketFactory = new SSLConnectionSocketFactory(sslContext, protocols, null,
+                    SSLConnectionSocketFactory.getDefaultHostnameVerifier());
+            this.sessionStrategy = new SSLIOSessionStrategy(sslContext, protocols, null,
+                    SSLIOSessionStrategy.getDefaultHostnameVerifier());
+            this.lastModified = lastModified;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        private Material(final Material material, final long lastModified, final long size) {
+            this.sslContext = material.sslContext;
+            this.socketFactory = material.socketFactory;
+            this.sessionStrategy = material.sessionStrategy;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.checksum = material.checksum;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+/**
+ * Named class of traffic to a Demandware instance, e.g. interactive preview or bulk replication. Each class has its
+ * own connection pool, shared client, concurrency limit and timeouts. Waiting calls of a class with a higher priority
+ * are admitted to the instance ahead of the calls of lower priority classes.
+ */
+class TrafficClass {
+
+    private final String name;
+    private final int priority;
+    private final int maxConnections;
+    private final int maxConcurrent;
+    private final int connectTimeout;
+    private final int socketTimeout;
+
+    private ConnectionPool connectionPool;
+    private CallGuard callGuard;
+    private CloseableHttpClient httpClient;
+
+    TrafficClass(final String name, final int priority, final int maxConnections, final int maxConcurrent,
+                 final int connectTimeout, final int socketTimeout) {
+        this.name = name;
+        this.priority = priority;
+        this.maxConnections = maxConnections;
+        this.maxConcurrent = maxConcurrent;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * Parses a traffic class configuration in the format
+     * {@code name;priority;maxConnections;maxConcurrent;connectTimeout;socketTimeout}. Limits and timeouts of 0 or
+     * missing values fall back to the instance settings.
+     *
+     * @param config the configuration
+     * @return the traffic class or {@code null} if the configuration has no name
+     */
+    static TrafficClass parse(final String config) {
+        final String[] values = StringUtils.splitPreserveAllTokens(config, ';');
+        if (values == null || values.length == 0 || StringUtils.isBlank(values[0])) {
+            return null;
+        }
+        return new TrafficClass(values[0].trim(), getInt(values, 1), getInt(values, 2), getInt(values, 3),
+                getInt(values, 4), getInt(values, 5));
+    }
+
+    private static int getInt(final String[] values, final int index) {
+        return index < values.length ? Math.max(0, NumberUtils.toInt(StringUtils.trim(values[index]), 0)) : 0;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    CallGuard getCallGuard() {
+        return callGuard;
+    }
+
+    CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    void start(final ConnectionPool connectionPool, final CallGuard callGuard) {
+        this.connectionPool = connectionPool;
+        this.callGuard = callGuard;
+    }
+
+    void setHttpClient(final CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    void shutdown() {
+        if (connectionPool != null) {
+            connectionPool.shutdown();
+        }
+    }
+}
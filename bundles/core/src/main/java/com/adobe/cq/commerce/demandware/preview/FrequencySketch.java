@@ -0,0 +1,124 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch estimating how often a key was accessed recently, used as TinyLFU admission filter of the
+ * {@link PreviewCache}. Each key is counted in four 4-bit counters, the estimate is the minimum of them. All counters
+ * are halved once the number of increments reaches ten times the table size, so the estimates follow the recent
+ * popularity of the keys. Increments are lock-free.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param expectedEntries expected number of cached entries
+     */
+    FrequencySketch(final int expectedEntries) {
+        final int length = ceilingPowerOfTwo(Math.max(64, expectedEntries));
+        table = new AtomicLongArray(length);
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+    /**
+     * @param hash hash code of the key
+     * @return estimated number of recent accesses of the key, at most 15
+     */
+    int frequency(final int hash) {
+        final int h = spread(hash);
+        final int start = (h & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            final long value = table.get(indexOf(h, i));
+            frequency = Math.min(frequency, (int) ((value >>> ((start + i) << 2)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * Count an access of the key.
+     *
+     * @param hash hash code of the key
+     */
+    void increment(final int hash) {
+        final int h = spread(hash);
+        final int start = (h & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(h, i), start + i);
+        }
+        if (added && additions.incrementAndGet() >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(final int index, final int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        long value;
+        do {
+            value = table.get(index);
+            if ((value & mask) == mask) {
+                return false;
+            }
+        } while (!table.compareAndSet(index, value, value + (1L << offset)));
+        return true;
+    }
+
+    private synchronized void reset() {
+        if (additions.get() < sampleSize) {
+            // already reset by a concurrent increment
+            return;
+        }
+        for (int i = 0; i < table.length(); i++) {
+            long value;
+            do {
+                value = table.get(i);
+            } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+        }
+        additions.set(0);
+    }
+
+    private int indexOf(final int hash, final int i) {
+        long h = (SEEDS[i] + hash) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int spread(final int hash) {
+        int h = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+
+    private static int ceilingPowerOfTwo(final int value) {
+        return value >= (1 << 30) ? 1 << 30 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,78 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Last successfully rendered preview of each component, served if the preview cannot be rendered in time. Unlike the
+ * {@link PreviewCache} the previews never expire, they are kept by resource path and compressed, the least recently
+ * used previews are dropped if the maximum number of previews is exceeded.
+ */
+class LastKnownGood {
+
+    private final Map<String, Preview> previews;
+
+    /**
+     * @param maxEntries maximum number of kept previews
+     */
+    LastKnownGood(final int maxEntries) {
+        this.previews = new LinkedHashMap<String, Preview>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Preview> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the last known good preview of the resource or {@code null}
+     */
+    String get(final String path) {
+        final Preview preview;
+        synchronized (this) {
+            preview = previews.get(path);
+        }
+        return preview != null ? PreviewCache.decompress(preview.compressed, preview.length) : null;
+    }
+
+    void put(final String path, final String preview) {
+        final byte[] bytes = preview.getBytes(StandardCharsets.UTF_8);
+        final Preview compressed = new Preview(PreviewCache.compress(bytes), bytes.length);
+        synchronized (this) {
+            previews.put(path, compressed);
+        }
+    }
+
+    synchronized int size() {
+        return previews.size();
+    }
+
+    private static class Preview {
+        final byte[] compressed;
+        // UTF-8 bytes of the preview
+        final int length;
+
+        private Preview(byte[] compressed, int length) {
+            this.compressed = compressed;
+            this.length = length;
+        }
+    }
+}
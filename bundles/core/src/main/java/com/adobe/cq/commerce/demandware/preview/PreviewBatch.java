@@ -0,0 +1,139 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+
+/**
+ * Batch of preview requests sharing the preview parameters, sent to the batch preview endpoint in one round trip.
+ * The markup of each request is enclosed by HTML comment markers carrying the cache key of the request, e.g.
+ * <pre>
+ * &lt;!--dwre-preview:&lt;key&gt;--&gt; markup &lt;!--/dwre-preview:&lt;key&gt;--&gt;
+ * </pre>
+ * The batch preview template is expected to render the posted markup keeping the markers, so the response can be
+ * split into the preview of each request. Requests sharing the same cache key are sent only once.
+ */
+class PreviewBatch {
+
+    private static final String MARKER_START = "<!--dwre-preview:";
+    private static final String MARKER_END = "<!--/dwre-preview:";
+    private static final String MARKER_CLOSE = "-->";
+
+    private final String uri;
+    private final List<NameValuePair> parameters;
+    private final Map<String, PreviewRequest> requests = new LinkedHashMap<>();
+
+    /**
+     * @param uri        the batch preview endpoint URI
+     * @param parameters the request parameters shared by all requests of the batch
+     */
+    PreviewBatch(final String uri, final List<NameValuePair> parameters) {
+        this.uri = uri;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+    }
+
+    String getUri() {
+        return uri;
+    }
+
+    void add(final PreviewRequest request) {
+        requests.putIfAbsent(request.getCacheKey(), request);
+    }
+
+    /**
+     * @return the distinct requests of the batch, in the order added
+     */
+    List<PreviewRequest> getRequests() {
+        return new ArrayList<>(requests.values());
+    }
+
+    int size() {
+        return requests.size();
+    }
+
+    /**
+     * @return the HTTP request posting the enclosed markup of all requests to the batch preview endpoint
+     * @throws IllegalArgumentException if the endpoint URI is invalid
+     */
+    HttpUriRequest toHttpRequest() {
+        final StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, PreviewRequest> request : requests.entrySet()) {
+            content.append(MARKER_START).append(request.getKey()).append(MARKER_CLOSE)
+                    .append(request.getValue().getContent())
+                    .append(MARKER_END).append(request.getKey()).append(MARKER_CLOSE);
+        }
+        final RequestBuilder requestBuilder = RequestBuilder.post().setUri(uri);
+        for (NameValuePair parameter : parameters) {
+            requestBuilder.addParameter(parameter);
+        }
+        requestBuilder.addHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_HTML.getMimeType());
+        requestBuilder.setEntity(new StringEntity(content.toString(), ContentType.TEXT_HTML));
+        return requestBuilder.build();
+    }
+
+    /**
+     * Split the batch response into the previews of the requests. Requests without markers in the response are
+     * missing in the result.
+     *
+     * @param response the rendered batch response
+     * @return the rendered previews by cache key
+     */
+    Map<String, String> split(final String response) {
+        final Map<String, String> previews = new HashMap<>();
+        if (response == null) {
+            return previews;
+        }
+        int position = 0;
+        while ((position = response.indexOf(MARKER_START, position)) >= 0) {
+            final int keyStart = position + MARKER_START.length();
+            final int keyEnd = response.indexOf(MARKER_CLOSE, keyStart);
+            if (keyEnd < 0) {
+                break;
+            }
+            final String key = response.substring(keyStart, keyEnd);
+            final String endMarker = MARKER_END + key + MARKER_CLOSE;
+            final int end = response.indexOf(endMarker, keyEnd);
+            if (end < 0) {
+                position = keyEnd;
+                continue;
+            }
+            if (requests.containsKey(key)) {
+                previews.put(key, response.substring(keyEnd + MARKER_CLOSE.length(), end));
+            }
+            position = end + endMarker.length();
+        }
+        return previews;
+    }
+
+    @Override
+    public String toString() {
+        return "PreviewBatch{uri='" + uri + "', parameters=" + parameters + ", requests=" + requests.size() + "}";
+    }
+}
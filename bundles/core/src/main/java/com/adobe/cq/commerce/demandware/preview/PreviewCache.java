@@ -16,102 +16,700 @@
 
 package com.adobe.cq.commerce.demandware.preview;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Simple cache for caching of rendered content fragments.
+ * Cache for rendered content fragments, bounded by the total size of the cached fragments. Fragments are cached by the
+ * content hash of their {@link PreviewRequest}, each fragment remembers the path of the resource it was last rendered
+ * for to be invalidated if the resource changes.
+ * <p>
+ * Reads are lock-free, writes and evictions are serialized. Entries expire after the configured age, expired entries
+ * are no longer returned as fresh but are kept as stale for the grace time to be served while they are refreshed.
+ * Entries beyond the grace time are removed by a sweep running at most once per age with the writes. Eviction uses the
+ * CLOCK algorithm approximating LRU, a new fragment displacing other entries is only admitted if it was requested
+ * more frequently than the entries it displaces (TinyLFU), so a burst of one-off renders does not flush the fragments
+ * used by all editors.
+ * <p>
+ * Fragments are stored as strings, as Deflate compressed UTF-8 bytes or as compressed bytes in direct buffers outside
+ * the heap, see {@link Storage}. Compressed fragments are decompressed on every read. An optional
+ * {@link PreviewDiskStore} keeps all cached fragments on disk, fragments not cached in memory are read from the disk
+ * store, so the cache survives restarts.
  */
 public class PreviewCache {
     private static final Logger LOGGER = LoggerFactory.getLogger(PreviewCache.class);
-    private int size = 1000;
-    private int age = 60;
-    private LinkedHashMap<Key, String> resourceMap = new LinkedHashMap<Key, String>() {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
-            return size < size();
-        }
-    };
 
+    /**
+     * Default maximum size of the cached fragments in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    // approximate memory used by map entry, cache entry and strings besides the characters
+    private static final int ENTRY_OVERHEAD = 128;
+    // average fragment size assumed to size the frequency sketch
+    private static final int AVERAGE_SIZE = 8 * 1024;
+    // fragments shorter than this are stored uncompressed
+    private static final int MIN_COMPRESS_LENGTH = 256;
+
+    /**
+     * Storage of the cached fragments.
+     */
+    public enum Storage {
+        /**
+         * Fragments are stored as strings, two bytes per character.
+         */
+        HEAP,
+        /**
+         * Fragments are stored as Deflate compressed UTF-8 bytes on the heap.
+         */
+        COMPRESSED,
+        /**
+         * Fragments are stored as Deflate compressed UTF-8 bytes in direct buffers outside the heap.
+         */
+        OFF_HEAP
+    }
+
+    private final long age;
+    private final long grace;
+    private final long maxSize;
+    private final Storage storage;
+    private final PreviewDiskStore diskStore;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // guarded by evictionLock
+    private final Queue<Entry> clock = new ArrayDeque<>();
+    private volatile long size;
+    private volatile long offHeapSize;
+    private volatile long fragmentSize;
+    private volatile long storedFragmentSize;
+    private long nextSweep;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder staleHitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+    private final LongAdder rejectionCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    /**
+     * @param age caching time in seconds
+     */
     public PreviewCache(int age) {
-        this.age = age;
+        this(age, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param age     caching time in seconds
+     * @param maxSize maximum size of the cached fragments in bytes
+     */
+    public PreviewCache(int age, long maxSize) {
+        this(age, maxSize, 0);
     }
 
-    public synchronized String get(Resource resource) {
+    /**
+     * @param age     caching time in seconds
+     * @param maxSize maximum size of the cached fragments in bytes
+     * @param grace   time in seconds expired fragments are kept to be served stale while they are refreshed
+     */
+    public PreviewCache(int age, long maxSize, int grace) {
+        this(age, maxSize, grace, Storage.HEAP);
+    }
+
+    /**
+     * @param age     caching time in seconds
+     * @param maxSize maximum size of the cached fragments in bytes, including the memory outside the heap
+     * @param grace   time in seconds expired fragments are kept to be served stale while they are refreshed
+     * @param storage storage of the cached fragments
+     */
+    public PreviewCache(int age, long maxSize, int grace, Storage storage) {
+        this(age, maxSize, grace, storage, null);
+    }
+
+    /**
+     * @param age       caching time in seconds
+     * @param maxSize   maximum size of the cached fragments in bytes, including the memory outside the heap
+     * @param grace     time in seconds expired fragments are kept to be served stale while they are refreshed
+     * @param storage   storage of the cached fragments
+     * @param diskStore second level store of the cached fragments, may be {@code null}
+     */
+    PreviewCache(int age, long maxSize, int grace, Storage storage, PreviewDiskStore diskStore) {
+        this.age = age * 1000L;
+        this.storage = storage != null ? storage : Storage.HEAP;
+        this.diskStore = diskStore;
+        this.grace = Math.max(0, grace) * 1000L;
+        this.maxSize = maxSize;
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxSize / AVERAGE_SIZE));
+        this.nextSweep = System.currentTimeMillis() + Math.max(1000, this.age + this.grace);
+    }
+
+    public String get(Resource resource) {
         if (resource == null)
             return null;
 
-        clean();
-        return resourceMap.get(Key.forAccess(resource));
+        return get(resource.getPath());
     }
 
-    public synchronized void put(Resource resource, String renderedPreview) {
+    public void put(Resource resource, String renderedPreview) {
         if (resource == null || renderedPreview == null)
             return;
 
-        clean();
-        resourceMap.put(Key.forStore(resource), renderedPreview);
+        put(resource.getPath(), resource.getPath(), renderedPreview);
     }
 
-    private void clean() {
-        int size = resourceMap.size();
-        final long time = System.currentTimeMillis() - age * 1000;
-        for (Iterator<Key> iterator = resourceMap.keySet().iterator(); iterator.hasNext(); ) {
-            Key key = iterator.next();
-            if (key.older(time)) {
-                iterator.remove();
-            } else {
-                break;
+    String get(final PreviewRequest request) {
+        return get(request.getCacheKey());
+    }
+
+    /**
+     * Get the expired fragment still within the grace time, to be served while the fragment is refreshed.
+     *
+     * @param request the preview request
+     * @return the stale fragment or {@code null}
+     */
+    String getStale(final PreviewRequest request) {
+        final Entry entry = entries.get(request.getCacheKey());
+        if (entry == null || entry.isDead(System.currentTimeMillis())) {
+            return null;
+        }
+        entry.referenced = true;
+        staleHitCount.increment();
+        return entry.getValue();
+    }
+
+    void put(final PreviewRequest request, final String renderedPreview) {
+        put(request.getCacheKey(), request.getPath(), renderedPreview);
+    }
+
+    String get(final String key) {
+        sketch.increment(key.hashCode());
+        final long now = System.currentTimeMillis();
+        final Entry entry = entries.get(key);
+        if (entry == null && diskStore != null) {
+            final PreviewDiskStore.Record record = diskStore.get(key, now);
+            if (record != null) {
+                // load into memory, including stale fragments to be served while refreshed
+                put(key, record.path, record.value, record.expires, record.dies, false);
+                if (now < record.expires) {
+                    hitCount.increment();
+                    return record.value;
+                }
             }
         }
+        if (entry == null || entry.isExpired(now)) {
+            missCount.increment();
+            return null;
+        }
+        entry.referenced = true;
+        hitCount.increment();
+        return entry.getValue();
     }
 
-    private static class Key {
-        final long time;
-        final String path;
+    void put(final String key, final String path, final String value) {
+        final long now = System.currentTimeMillis();
+        put(key, path, value, now + age, now + age + grace, true);
+    }
 
-        private Key(String path, long time) {
-            this.time = time;
-            this.path = path;
+    private void put(final String key, final String path, final String value, final long expires, final long dies,
+                     final boolean store) {
+        if (store && diskStore != null) {
+            diskStore.put(key, path, value, expires, dies);
+        }
+        final long now = System.currentTimeMillis();
+        final Entry entry = new Entry(key, path, value, storage, expires, dies);
+        if (entry.size > maxSize) {
+            LOGGER.debug("Do not cache {}, size {} exceeds the cache size", key, entry.size);
+            rejectionCount.increment();
+            return;
         }
 
-        private static Key forStore(Resource resource) {
-            return new Key(resource.getPath(), System.currentTimeMillis());
+        evictionLock.lock();
+        try {
+            if (now >= nextSweep) {
+                sweep(now);
+            }
+            final Entry previous = entries.get(key);
+            long excess = size + entry.size - (previous != null ? previous.size : 0) - maxSize;
+            while (excess > 0) {
+                final Entry victim = nextVictim(now);
+                if (victim == null) {
+                    break;
+                }
+                if (previous == null && !victim.isDead(now)
+                        && sketch.frequency(key.hashCode()) < sketch.frequency(victim.key.hashCode())) {
+                    // the victim is more popular than the new fragment, keep it
+                    clock.offer(victim);
+                    rejectionCount.increment();
+                    return;
+                }
+                if (victim != previous) {
+                    remove(victim);
+                    excess -= victim.size;
+                    (victim.isDead(now) ? expirationCount : evictionCount).increment();
+                }
+            }
+            if (previous != null) {
+                account(previous, -1);
+            }
+            entries.put(key, entry);
+            clock.offer(entry);
+            account(entry, 1);
+        } finally {
+            evictionLock.unlock();
         }
+    }
 
-        private static Key forAccess(Resource resource) {
-            return new Key(resource.getPath(), 0);
+    /**
+     * Remove the cached fragment.
+     *
+     * @param key key of the fragment
+     */
+    public void invalidate(final String key) {
+        evictionLock.lock();
+        try {
+            final Entry entry = entries.get(key);
+            if (entry != null && remove(entry)) {
+                invalidationCount.increment();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        if (diskStore != null) {
+            diskStore.remove(key);
         }
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+    /**
+     * Remove the cached fragments of the resource, of its ancestors and of its descendants.
+     *
+     * @param path path of the resource
+     * @return number of removed fragments
+     */
+    public int invalidateTree(final String path) {
+        return invalidateTrees(Collections.singleton(path));
+    }
+
+    /**
+     * Remove the cached fragments of the resources, of their ancestors and of their descendants in one pass, used for
+     * the changes of an observation batch.
+     *
+     * @param paths paths of the resources
+     * @return number of removed fragments
+     */
+    public int invalidateTrees(final Collection<String> paths) {
+        final Set<String> changed = new HashSet<>();
+        final Set<String> ancestors = new HashSet<>();
+        for (String path : paths) {
+            if (StringUtils.isNotEmpty(path)) {
+                final String normalized = "/".equals(path) ? path : StringUtils.removeEnd(path, "/");
+                changed.add(normalized);
+                for (String ancestor = normalized; ancestor != null; ancestor = getParent(ancestor)) {
+                    ancestors.add(ancestor);
+                }
+            }
+        }
+        if (changed.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        evictionLock.lock();
+        try {
+            for (Entry entry : entries.values()) {
+                if (entry.path != null && isAffected(entry.path, changed, ancestors) && remove(entry)) {
+                    count++;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        if (diskStore != null) {
+            // fragments only stored on disk are not counted
+            diskStore.removeIf(entryPath -> isAffected(entryPath, changed, ancestors));
+        }
+        invalidationCount.add(count);
+        return count;
+    }
+
+    /**
+     * @param changed   the changed paths
+     * @param ancestors the changed paths and all their ancestors
+     * @return {@code true} if the fragment of the entry path is affected by a change of one of the paths
+     */
+    private static boolean isAffected(final String entryPath, final Set<String> changed, final Set<String> ancestors) {
+        if (ancestors.contains(entryPath)) {
+            return true;
+        }
+        for (String path = getParent(entryPath); path != null; path = getParent(path)) {
+            if (changed.contains(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getParent(final String path) {
+        final int index = path.lastIndexOf('/');
+        if (index < 0 || "/".equals(path)) {
+            return null;
+        }
+        return index == 0 ? "/" : path.substring(0, index);
+    }
+
+    /**
+     * Remove all cached fragments.
+     */
+    public void clear() {
+        evictionLock.lock();
+        try {
+            entries.clear();
+            clock.clear();
+            size = 0;
+            offHeapSize = 0;
+            fragmentSize = 0;
+            storedFragmentSize = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+        if (diskStore != null) {
+            diskStore.clear();
+        }
+    }
+
+    /**
+     * Close the disk store, the cache must no longer be used afterwards.
+     */
+    public void close() {
+        if (diskStore != null) {
+            diskStore.close();
+        }
+    }
+
+    /**
+     * @return number of cached fragments, including expired fragments not yet removed
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return approximate size of the cached fragments in bytes, including the memory outside the heap
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return size of the fragments stored in direct buffers outside the heap in bytes
+     */
+    public long getOffHeapSize() {
+        return offHeapSize;
+    }
 
-            Key key = (Key) o;
+    /**
+     * @return size of the cached fragments as strings in bytes, two bytes per character
+     */
+    public long getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * @return size of the cached fragments as stored in bytes
+     */
+    public long getStoredFragmentSize() {
+        return storedFragmentSize;
+    }
+
+    /**
+     * @return ratio of the fragment size as strings to the stored fragment size
+     */
+    public double getCompressionRatio() {
+        final long stored = storedFragmentSize;
+        return stored > 0 ? (double) fragmentSize / stored : 0;
+    }
 
-            if (!path.equals(key.path)) return false;
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return number of fragments stored on disk, 0 if no disk store is used
+     */
+    public int getDiskEntryCount() {
+        return diskStore != null ? diskStore.getEntryCount() : 0;
+    }
+
+    /**
+     * @return size of the disk store in bytes
+     */
+    public long getDiskSize() {
+        return diskStore != null ? diskStore.getSize() : 0;
+    }
 
+    public long getDiskMaxSize() {
+        return diskStore != null ? diskStore.getMaxSize() : 0;
+    }
+
+    /**
+     * @return number of fragments not cached in memory read from disk
+     */
+    public long getDiskHitCount() {
+        return diskStore != null ? diskStore.getHitCount() : 0;
+    }
+
+    public long getDiskMissCount() {
+        return diskStore != null ? diskStore.getMissCount() : 0;
+    }
+
+    /**
+     * @return number of corrupt records found on disk
+     */
+    public long getDiskCorruptCount() {
+        return diskStore != null ? diskStore.getCorruptCount() : 0;
+    }
+
+    /**
+     * @return number of compacted disk segments
+     */
+    public long getDiskCompactionCount() {
+        return diskStore != null ? diskStore.getCompactionCount() : 0;
+    }
+
+    /**
+     * @return number of disk segments dropped to keep the disk store size
+     */
+    public long getDiskDroppedSegmentCount() {
+        return diskStore != null ? diskStore.getDroppedSegmentCount() : 0;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return number of expired fragments served while refreshed
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirationCount.sum();
+    }
+
+    /**
+     * @return number of fragments not cached by the admission policy
+     */
+    public long getRejectionCount() {
+        return rejectionCount.sum();
+    }
+
+    /**
+     * @return number of fragments removed because the content changed
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    /**
+     * Select the next entry to evict, giving recently read entries a second chance. Must be called with the eviction
+     * lock held, the returned entry is no longer part of the clock.
+     */
+    private Entry nextVictim(final long now) {
+        for (int i = clock.size() * 2; i >= 0; i--) {
+            final Entry entry = clock.poll();
+            if (entry == null) {
+                return null;
+            }
+            if (entries.get(entry.key) != entry) {
+                // replaced or removed entry
+                continue;
+            }
+            if (entry.referenced && !entry.isDead(now)) {
+                entry.referenced = false;
+                clock.offer(entry);
+                continue;
+            }
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Remove all expired entries and the stale clock entries. Must be called with the eviction lock held.
+     */
+    private void sweep(final long now) {
+        int expired = 0;
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            final Entry entry = iterator.next();
+            if (entry.isDead(now)) {
+                iterator.remove();
+                account(entry, -1);
+                expired++;
+            }
+        }
+        clock.removeIf(entry -> entries.get(entry.key) != entry);
+        expirationCount.add(expired);
+        nextSweep = now + Math.max(1000, age + grace);
+        LOGGER.debug("Removed {} expired fragments, {} fragments cached", expired, entries.size());
+    }
+
+    private boolean remove(final Entry entry) {
+        if (entries.remove(entry.key, entry)) {
+            account(entry, -1);
             return true;
         }
+        return false;
+    }
 
-        @Override
-        public int hashCode() {
-            return path.hashCode();
+    /**
+     * Add or subtract the entry from the cache sizes. Must be called with the eviction lock held.
+     */
+    private void account(final Entry entry, final int sign) {
+        size += sign * entry.size;
+        fragmentSize += sign * 2L * entry.length;
+        storedFragmentSize += sign * entry.storedSize;
+        if (entry.data instanceof ByteBuffer) {
+            offHeapSize += sign * entry.storedSize;
+        }
+    }
+
+    static byte[] compress(final byte[] bytes) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            final byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static String decompress(final byte[] compressed, final int length) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            final byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                final int inflated = inflater.inflate(bytes, offset, length - offset);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated cached fragment");
+                }
+                offset += inflated;
+            }
+            return new String(bytes, 0, offset, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt cached fragment", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class Entry {
+        final String key;
+        final String path;
+        // the fragment as string, compressed byte array or compressed direct buffer
+        final Object data;
+        // characters of the fragment
+        final int length;
+        // UTF-8 bytes of a compressed fragment
+        final int encodedLength;
+        final long storedSize;
+        final long size;
+        final long expires;
+        final long dies;
+        volatile boolean referenced;
+
+        private Entry(String key, String path, String value, Storage storage, long expires, long dies) {
+            this.key = key;
+            this.path = path;
+            this.length = value.length();
+            if (storage == Storage.HEAP || value.length() < MIN_COMPRESS_LENGTH) {
+                this.data = value;
+                this.encodedLength = 0;
+                // two bytes per character
+                this.storedSize = 2L * value.length();
+            } else {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                final byte[] compressed = compress(bytes);
+                this.encodedLength = bytes.length;
+                this.storedSize = compressed.length;
+                if (storage == Storage.OFF_HEAP) {
+                    final ByteBuffer buffer = ByteBuffer.allocateDirect(compressed.length);
+                    buffer.put(compressed);
+                    buffer.flip();
+                    this.data = buffer;
+                } else {
+                    this.data = compressed;
+                }
+            }
+            this.size = 2L * (key.length() + StringUtils.length(path)) + storedSize + ENTRY_OVERHEAD;
+            this.expires = expires;
+            this.dies = dies;
+        }
+
+        String getValue() {
+            if (data instanceof String) {
+                return (String) data;
+            }
+            if (data instanceof ByteBuffer) {
+                final ByteBuffer buffer = ((ByteBuffer) data).duplicate();
+                final byte[] compressed = new byte[buffer.remaining()];
+                buffer.get(compressed);
+                return decompress(compressed, encodedLength);
+            }
+            return decompress((byte[]) data, encodedLength);
+        }
+
+        boolean isExpired(long now) {
+            return now >= expires;
         }
 
-        public boolean older(long val) {
-            return time < val;
+        boolean isDead(long now) {
+            return now >= dies;
         }
 
         @Override
         public String toString() {
-            return "Key{time=" + time + ", path='" + path + "'}";
+            return "Entry{key='" + key + "', path='" + path + "', size=" + size + ", expires=" + expires + "}";
         }
     }
 }
@@ -0,0 +1,108 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.cq.commerce.demandware.PreviewServiceConfig;
+
+/**
+ * Evicts cached previews as soon as the previewed content changes, so the preview cache time can be raised without
+ * showing stale previews. A changed resource evicts the previews of the resource itself, of its ancestors and of its
+ * descendants. A changed page content node evicts the previews of the page and all its child pages, as the preview
+ * depends on inherited page properties like site and language.
+ */
+@Component(metatype = true, immediate = true, label = "Demandware Preview Cache Invalidator",
+        description = "Evicts cached previews of changed content")
+@Service(value = ResourceChangeListener.class)
+@Properties({
+        @Property(name = ResourceChangeListener.PATHS, label = "Content roots", description = "Paths of the " +
+                "previewed content", value = {"/content"}, cardinality = Integer.MAX_VALUE),
+        @Property(name = ResourceChangeListener.CHANGES, value = {"ADDED", "CHANGED", "REMOVED"},
+                propertyPrivate = true)
+})
+public class PreviewCacheInvalidator implements ResourceChangeListener {
+    private static final Logger LOG = LoggerFactory.getLogger(PreviewCacheInvalidator.class);
+
+    private static final String JCR_CONTENT = "/jcr:content";
+
+    @Reference(referenceInterface = PreviewServiceConfig.class,
+            bind = "bindPreviewServiceConfig",
+            unbind = "unbindPreviewServiceConfig",
+            cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC)
+    private final ConcurrentMap<PreviewServiceConfig, PreviewCache> caches = new ConcurrentHashMap<>();
+
+    @Override
+    public void onChange(final List<ResourceChange> changes) {
+        if (caches.isEmpty()) {
+            return;
+        }
+        // each invalidation scans the whole cache, so invalidate the paths of the batch in one pass
+        final Set<String> paths = new HashSet<>();
+        for (ResourceChange change : changes) {
+            paths.add(getInvalidationPath(change.getPath()));
+        }
+        for (PreviewCache cache : caches.values()) {
+            final int count = cache.invalidateTrees(paths);
+            if (count > 0) {
+                LOG.debug("Evicted {} cached previews for {} changed paths", count, paths.size());
+            }
+        }
+    }
+
+    /**
+     * Get the path of the subtree to invalidate for a changed resource.
+     *
+     * @param path path of the changed resource
+     * @return path of the containing page if page properties changed, the changed path otherwise
+     */
+    static String getInvalidationPath(final String path) {
+        if (StringUtils.endsWith(path, JCR_CONTENT)) {
+            return StringUtils.removeEnd(path, JCR_CONTENT);
+        }
+        return path;
+    }
+
+    protected void bindPreviewServiceConfig(final PreviewServiceConfig config, final Map<String, Object> properties) {
+        if (config.getCache() != null) {
+            caches.put(config, config.getCache());
+        }
+    }
+
+    protected void unbindPreviewServiceConfig(final PreviewServiceConfig config, final Map<String, Object> properties) {
+        caches.remove(config);
+    }
+}
@@ -0,0 +1,152 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.preview;
+
+/**
+ * JMX view on the statistics of a {@link PreviewCache}.
+ */
+class PreviewCacheStats implements PreviewCacheStatsMXBean {
+
+    private final String instanceId;
+    private final PreviewCache cache;
+
+    PreviewCacheStats(final String instanceId, final PreviewCache cache) {
+        this.instanceId = instanceId;
+        this.cache = cache;
+    }
+
+    @Override
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    @Override
+    public String getStorage() {
+        return cache.getStorage().name();
+    }
+
+    @Override
+    public int getEntryCount() {
+        return cache.getEntryCount();
+    }
+
+    @Override
+    public long getSize() {
+        return cache.getSize();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    @Override
+    public long getOffHeapSize() {
+        return cache.getOffHeapSize();
+    }
+
+    @Override
+    public long getFragmentSize() {
+        return cache.getFragmentSize();
+    }
+
+    @Override
+    public long getStoredFragmentSize() {
+        return cache.getStoredFragmentSize();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        return cache.getCompressionRatio();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    @Override
+    public long getStaleHitCount() {
+        return cache.getStaleHitCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    @Override
+    public long getExpirationCount() {
+        return cache.getExpirationCount();
+    }
+
+    @Override
+    public long getRejectionCount() {
+        return cache.getRejectionCount();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return cache.getInvalidationCount();
+    }
+
+    @Override
+    public int getDiskEntryCount() {
+        return cache.getDiskEntryCount();
+    }
+
+    @Override
+    public long getDiskSize() {
+        return cache.getDiskSize();
+    }
+
+    @Override
+    public long getDiskMaxSize() {
+        return cache.getDiskMaxSize();
+    }
+
+    @Override
+    public long getDiskHitCount() {
+        return cache.getDiskHitCount();
+    }
+
+    @Override
+    public long getDiskMissCount() {
+        return cache.getDiskMissCount();
+    }
+
+    @Override
+    public long getDiskCorruptCount() {
+        return cache.getDiskCorruptCount();
+    }
+
+    @Override
+    public long getDiskCompactionCount() {
+        return cache.getDiskCompactionCount();
+    }
+
+    @Override
+    public long getDiskDroppedSegmentCount() {
+        return cache.getDiskDroppedSegmentCount();
+    }
+}
@@ -0,0 +1,121 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.preview;
+
+/**
+ * Statistics of the preview cache of a Demandware instance, registered in JMX as
+ * {@code com.adobe.cq.commerce.demandware:type=PreviewCache,id=<instance id>}.
+ */
+public interface PreviewCacheStatsMXBean {
+
+    String getInstanceId();
+
+    /**
+     * @return storage of the cached fragments, {@code HEAP}, {@code COMPRESSED} or {@code OFF_HEAP}
+     */
+    String getStorage();
+
+    /**
+     * @return number of cached fragments, including expired fragments not yet removed
+     */
+    int getEntryCount();
+
+    /**
+     * @return approximate memory used by the cache in bytes, including the memory outside the heap
+     */
+    long getSize();
+
+    long getMaxSize();
+
+    /**
+     * @return memory used outside the heap in bytes
+     */
+    long getOffHeapSize();
+
+    /**
+     * @return size of the cached fragments as strings in bytes
+     */
+    long getFragmentSize();
+
+    /**
+     * @return size of the cached fragments as stored in bytes
+     */
+    long getStoredFragmentSize();
+
+    /**
+     * @return ratio of the fragment size as strings to the stored fragment size
+     */
+    double getCompressionRatio();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    /**
+     * @return number of expired fragments served while refreshed
+     */
+    long getStaleHitCount();
+
+    long getEvictionCount();
+
+    long getExpirationCount();
+
+    /**
+     * @return number of fragments not cached by the admission policy
+     */
+    long getRejectionCount();
+
+    /**
+     * @return number of fragments removed because the content changed
+     */
+    long getInvalidationCount();
+
+    /**
+     * @return number of fragments stored on disk, 0 if the disk cache is disabled
+     */
+    int getDiskEntryCount();
+
+    /**
+     * @return size of the disk cache in bytes
+     */
+    long getDiskSize();
+
+    long getDiskMaxSize();
+
+    /**
+     * @return number of fragments not cached in memory read from disk
+     */
+    long getDiskHitCount();
+
+    long getDiskMissCount();
+
+    /**
+     * @return number of corrupt records found on disk
+     */
+    long getDiskCorruptCount();
+
+    /**
+     * @return number of disk segments rewritten by the compactor
+     */
+    long getDiskCompactionCount();
+
+    /**
+     * @return number of disk segments dropped to keep the disk cache size
+     */
+    long getDiskDroppedSegmentCount();
+}
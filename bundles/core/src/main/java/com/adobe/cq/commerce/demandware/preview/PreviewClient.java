@@ -0,0 +1,127 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import com.adobe.cq.commerce.demandware.DemandwareClient;
+import com.adobe.cq.commerce.demandware.PreviewServiceConfig;
+
+/**
+ * HTTP client of the previews of one Demandware instance, built once per preview service configuration and
+ * Demandware client. Requests are sent with the shared interactive client of the instance. If the storefront is
+ * protected, the storefront user is authenticated preemptively, so the previews do not cost an additional round trip
+ * for the authentication challenge. The client is immutable, each request gets its own execution context.
+ */
+class PreviewClient {
+
+    private final PreviewServiceConfig config;
+    private final DemandwareClient client;
+    // the Demandware client is reconfigured in place, the credentials are scoped to the endpoint at build time
+    private final String endpoint;
+    private final CredentialsProvider credentialsProvider;
+
+    PreviewClient(final PreviewServiceConfig config, final DemandwareClient client) {
+        this.config = config;
+        this.client = client;
+        this.endpoint = client.getEndpoint();
+        this.credentialsProvider = createCredentialsProvider(config, endpoint);
+    }
+
+    /**
+     * @return {@code true} if the client was built from the given configuration and Demandware client and the
+     * endpoint of the Demandware client did not change since
+     */
+    boolean isBuiltFrom(final PreviewServiceConfig config, final DemandwareClient client) {
+        return this.config == config && this.client == client && StringUtils.equals(endpoint, client.getEndpoint());
+    }
+
+    /**
+     * Execute the preview request. The response must be closed by the caller, the client must not.
+     */
+    CloseableHttpResponse execute(final HttpUriRequest request) throws IOException {
+        final CloseableHttpClient httpClient = client.getHttpClient(DemandwareClient.TRAFFIC_CLASS_INTERACTIVE);
+        final HttpClientContext context = createContext(request);
+        return context != null ? httpClient.execute(request, context) : httpClient.execute(request);
+    }
+
+    /**
+     * Execute the preview request with the non-blocking client of the instance.
+     *
+     * @return future completed with the buffered response
+     * @see DemandwareClient#executeAsync(HttpUriRequest, org.apache.http.protocol.HttpContext, String)
+     */
+    CompletableFuture<HttpResponse> executeAsync(final HttpUriRequest request) {
+        return client.executeAsync(request, createContext(request), DemandwareClient.TRAFFIC_CLASS_INTERACTIVE);
+    }
+
+    /**
+     * @return the execution context authenticating the storefront user preemptively or {@code null} if the storefront
+     * is not protected
+     */
+    private HttpClientContext createContext(final HttpUriRequest request) {
+        if (credentialsProvider == null) {
+            return null;
+        }
+        // the auth cache is updated by the client, so each request gets its own
+        final HttpHost target = URIUtils.extractHost(request.getURI());
+        final AuthCache authCache = new BasicAuthCache();
+        if (target != null) {
+            authCache.put(target, new BasicScheme());
+        }
+        final HttpClientContext context = HttpClientContext.create();
+        context.setCredentialsProvider(credentialsProvider);
+        context.setAuthCache(authCache);
+        return context;
+    }
+
+    /**
+     * Setup storefront user credentials.
+     *
+     * @return the credentials or {@code null} if the storefront is not protected
+     */
+    private static CredentialsProvider createCredentialsProvider(final PreviewServiceConfig config,
+                                                                 final String endpoint) {
+        if (!Boolean.TRUE.equals(config.getStorfrontProtectionEnabled())
+                || config.getStorfrontProtectionUser() == null || config.getStorfrontProtectionPassword() == null) {
+            return null;
+        }
+        final CredentialsProvider credsProvider = new BasicCredentialsProvider();
+        credsProvider.setCredentials(new AuthScope(endpoint, AuthScope.ANY_PORT),
+                new UsernamePasswordCredentials(config.getStorfrontProtectionUser(),
+                        config.getStorfrontProtectionPassword()));
+        return credsProvider;
+    }
+}
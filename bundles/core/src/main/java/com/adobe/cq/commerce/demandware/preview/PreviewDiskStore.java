@@ -0,0 +1,668 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent second level store of the {@link PreviewCache}, so cached previews survive restarts. Fragments are
+ * appended Deflate compressed to segment files, each record is protected by a CRC32 checksum. The index of the live
+ * records is kept in memory and rebuilt by scanning the segments on start, a corrupt or truncated record ends the scan
+ * of its segment. Removed fragments are recorded as tombstones. Segments are accessed through {@link RandomAccessFile}
+ * rather than a {@code FileChannel}, an interrupted caller would close the channel for all threads.
+ * <p>
+ * The store is bounded by the total size of the segments, the oldest segment is dropped if the size is exceeded. A
+ * background compactor rewrites the live records of segments mostly consisting of replaced, removed or expired records
+ * and deletes them.
+ */
+class PreviewDiskStore implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(PreviewDiskStore.class);
+
+    private static final int MAGIC = 0x44575043;
+    // magic, body length and checksum
+    private static final int HEADER_SIZE = 12;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final long COMPACT_INTERVAL = 60;
+    // segments with less live data are compacted
+    private static final double COMPACT_THRESHOLD = 0.5;
+
+    private static final Set<String> OPEN_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    private final File directory;
+    private final long maxSize;
+    private final long segmentSize;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final Deque<Segment> segments = new ConcurrentLinkedDeque<>();
+    private final AtomicLong size = new AtomicLong();
+    private final Object writeLock = new Object();
+    private final ScheduledExecutorService compactor;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    // guarded by writeLock
+    private Segment active;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder corruptCount = new LongAdder();
+    private final LongAdder compactionCount = new LongAdder();
+    private final LongAdder droppedSegmentCount = new LongAdder();
+
+    /**
+     * Open the store, loading the index from the segments in the directory.
+     *
+     * @param directory directory of the segment files, created if missing
+     * @param maxSize   maximum total size of the segment files in bytes
+     * @throws IOException if the directory cannot be used or is locked by another store
+     */
+    PreviewDiskStore(final File directory, final long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE, maxSize / 8);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create preview cache directory " + directory);
+        }
+        // closing a second channel of the lock file may release the lock, so check the stores of this JVM first
+        if (!OPEN_DIRECTORIES.add(directory.getCanonicalPath())) {
+            throw new IOException("Preview cache directory " + directory + " is used by another cache");
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(directory, "lock"), "rw");
+            lock = file.getChannel().tryLock();
+            if (lock == null) {
+                throw new IOException("Preview cache directory " + directory + " is used by another process");
+            }
+            lockFile = file;
+            loadSegments();
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : segments) {
+                closeQuietly(segment.data);
+            }
+            if (file != null) {
+                closeQuietly(file);
+            }
+            OPEN_DIRECTORIES.remove(directory.getCanonicalPath());
+            throw e;
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "Demandware preview cache compactor [" + directory + "]");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compact, COMPACT_INTERVAL, COMPACT_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the stored fragment or {@code null} if not stored, dead or corrupt
+     */
+    Record get(final String key, final long now) {
+        final Location location = index.get(key);
+        if (location == null || location.isDead(now)) {
+            missCount.increment();
+            return null;
+        }
+        try {
+            final Record record = read(location.segment, location.offset, location.length);
+            if (record != null && key.equals(record.key)) {
+                hitCount.increment();
+                return record;
+            }
+            LOG.warn("Corrupt preview cache record {} in {}", key, location.segment.file);
+            corruptCount.increment();
+        } catch (IOException e) {
+            // the segment may have been dropped concurrently
+            LOG.debug("Cannot read preview cache record {}: {}", key, e.getMessage());
+        }
+        removeLocation(key, location);
+        missCount.increment();
+        return null;
+    }
+
+    void put(final String key, final String path, final String value, final long expires, final long dies) {
+        final byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer record = encode(key, path, PreviewCache.compress(encoded), encoded.length, expires, dies);
+        try {
+            append(key, path, record, expires, dies);
+        } catch (IOException e) {
+            LOG.warn("Cannot store preview {} in {}: {}", key, directory, e.getMessage());
+        }
+    }
+
+    void remove(final String key) {
+        final Location location = index.get(key);
+        if (location != null && removeLocation(key, location)) {
+            writeTombstone(key, location.dies);
+        }
+    }
+
+    /**
+     * Remove all fragments with a path matching the predicate.
+     *
+     * @return number of removed fragments
+     */
+    int removeIf(final Predicate<String> path) {
+        int count = 0;
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            if (entry.getValue().path != null && path.test(entry.getValue().path)
+                    && removeLocation(entry.getKey(), entry.getValue())) {
+                writeTombstone(entry.getKey(), entry.getValue().dies);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    void clear() {
+        synchronized (writeLock) {
+            index.clear();
+            for (Segment segment : segments) {
+                drop(segment);
+            }
+            segments.clear();
+            size.set(0);
+            active = null;
+        }
+    }
+
+    int getEntryCount() {
+        return index.size();
+    }
+
+    long getSize() {
+        return size.get();
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    long getCorruptCount() {
+        return corruptCount.sum();
+    }
+
+    long getCompactionCount() {
+        return compactionCount.sum();
+    }
+
+    long getDroppedSegmentCount() {
+        return droppedSegmentCount.sum();
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        synchronized (writeLock) {
+            for (Segment segment : segments) {
+                closeQuietly(segment.data);
+            }
+            try {
+                lock.release();
+            } catch (IOException e) {
+                LOG.debug("Cannot release lock of {}", directory, e);
+            }
+            closeQuietly(lockFile);
+            try {
+                OPEN_DIRECTORIES.remove(directory.getCanonicalPath());
+            } catch (IOException e) {
+                LOG.debug("Cannot resolve {}", directory, e);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the live records and tombstones of segments mostly consisting of garbage and delete the segments.
+     */
+    void compact() {
+        final long now = System.currentTimeMillis();
+        for (Segment segment : segments) {
+            if (segment == active || segment.size.get() == 0
+                    || segment.live.get() >= segment.size.get() * COMPACT_THRESHOLD) {
+                continue;
+            }
+            final int[] moved = new int[1];
+            try {
+                scan(segment, (offset, body, record) -> {
+                    if (now >= record.dies) {
+                        return;
+                    }
+                    if (record.tombstone) {
+                        // keep the tombstone as long as the removed record may exist in an older segment, unless
+                        // the key was stored again, the moved tombstone would be loaded after the new record
+                        synchronized (writeLock) {
+                            if (index.get(record.key) == null) {
+                                append(null, null, toRecord(body), 0, 0);
+                            }
+                        }
+                        return;
+                    }
+                    final Location location = index.get(record.key);
+                    if (location != null && location.segment == segment && location.offset == offset
+                            && relocate(record.key, location, toRecord(body))) {
+                        moved[0]++;
+                    }
+                });
+            } catch (IOException e) {
+                LOG.warn("Cannot compact preview cache segment {}: {}", segment.file, e.getMessage());
+                return;
+            }
+            synchronized (writeLock) {
+                if (segments.remove(segment)) {
+                    size.addAndGet(-segment.size.get());
+                    index.entrySet().removeIf(entry -> entry.getValue().segment == segment);
+                    drop(segment);
+                }
+            }
+            compactionCount.increment();
+            LOG.debug("Compacted preview cache segment {}, moved {} records", segment.file, moved[0]);
+        }
+    }
+
+    private void append(final String key, final String path, final ByteBuffer record, final long expires,
+                        final long dies) throws IOException {
+        final Location location;
+        synchronized (writeLock) {
+            final Segment segment = writableSegment();
+            final long offset = segment.size.get();
+            write(segment, record, offset);
+            location = new Location(segment, offset, record.limit(), path, expires, dies);
+            if (key != null) {
+                final Location previous = index.put(key, location);
+                if (previous != null) {
+                    previous.segment.live.addAndGet(-previous.length);
+                }
+                segment.live.addAndGet(location.length);
+            }
+            evict();
+        }
+    }
+
+    private boolean relocate(final String key, final Location previous, final ByteBuffer record) throws IOException {
+        synchronized (writeLock) {
+            if (index.get(key) != previous) {
+                return false;
+            }
+            final Segment segment = writableSegment();
+            final long offset = segment.size.get();
+            write(segment, record, offset);
+            final Location location = new Location(segment, offset, record.limit(), previous.path, previous.expires,
+                    previous.dies);
+            index.put(key, location);
+            previous.segment.live.addAndGet(-previous.length);
+            segment.live.addAndGet(location.length);
+            return true;
+        }
+    }
+
+    private void writeTombstone(final String key, final long dies) {
+        try {
+            append(null, null, encode(key, null, null, 0, 0, dies), 0, 0);
+        } catch (IOException e) {
+            LOG.warn("Cannot remove preview {} from {}: {}", key, directory, e.getMessage());
+        }
+    }
+
+    private boolean removeLocation(final String key, final Location location) {
+        if (index.remove(key, location)) {
+            location.segment.live.addAndGet(-location.length);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    private Segment writableSegment() throws IOException {
+        if (active == null || active.size.get() >= segmentSize) {
+            final int id = active != null ? active.id + 1 : 0;
+            active = new Segment(id, new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+            segments.addLast(active);
+        }
+        return active;
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    private void write(final Segment segment, final ByteBuffer record, final long offset) throws IOException {
+        synchronized (segment) {
+            segment.data.seek(offset);
+            segment.data.write(record.array(), record.arrayOffset(), record.limit());
+        }
+        segment.size.addAndGet(record.limit());
+        size.addAndGet(record.limit());
+    }
+
+    /**
+     * Drop the oldest segments until the store fits its maximum size. Must be called with the write lock held.
+     */
+    private void evict() {
+        while (size.get() > maxSize && segments.size() > 1) {
+            final Segment oldest = segments.pollFirst();
+            size.addAndGet(-oldest.size.get());
+            index.entrySet().removeIf(entry -> entry.getValue().segment == oldest);
+            drop(oldest);
+            droppedSegmentCount.increment();
+            LOG.debug("Dropped preview cache segment {}", oldest.file);
+        }
+    }
+
+    private void drop(final Segment segment) {
+        closeQuietly(segment.data);
+        if (!segment.file.delete()) {
+            LOG.warn("Cannot delete preview cache segment {}", segment.file);
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+                && name.endsWith(SEGMENT_SUFFIX));
+        final List<Segment> loaded = new ArrayList<>();
+        if (files != null) {
+            final List<Integer> ids = new ArrayList<>();
+            for (File file : files) {
+                try {
+                    ids.add(Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length(),
+                            file.getName().length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.debug("Ignore unknown file {}", file);
+                }
+            }
+            final Integer[] sorted = ids.toArray(new Integer[0]);
+            Arrays.sort(sorted);
+            for (int id : sorted) {
+                loaded.add(new Segment(id, new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX)));
+            }
+        }
+        final long now = System.currentTimeMillis();
+        for (Segment segment : loaded) {
+            load(segment, now);
+            segments.addLast(segment);
+            size.addAndGet(segment.size.get());
+            active = segment;
+        }
+        synchronized (writeLock) {
+            evict();
+        }
+        LOG.info("Loaded {} cached previews from {}, {} bytes", index.size(), directory, size.get());
+    }
+
+    /**
+     * Add the records of the segment to the index, truncating the segment at the first corrupt record.
+     */
+    private void load(final Segment segment, final long now) throws IOException {
+        final long end = scan(segment, (offset, body, record) -> {
+            final Location previous = index.remove(record.key);
+            if (previous != null) {
+                previous.segment.live.addAndGet(-previous.length);
+            }
+            if (!record.tombstone && now < record.dies) {
+                final Location location = new Location(segment, offset, HEADER_SIZE + body.length, record.path,
+                        record.expires, record.dies);
+                index.put(record.key, location);
+                segment.live.addAndGet(location.length);
+            }
+        });
+        if (end < segment.data.length()) {
+            LOG.warn("Truncate corrupt preview cache segment {} at {}", segment.file, end);
+            corruptCount.increment();
+            segment.data.setLength(end);
+        }
+        segment.size.set(end);
+    }
+
+    /**
+     * Visit the records of the segment in order, ending at the first corrupt record.
+     *
+     * @return offset of the end of the last valid record
+     */
+    private long scan(final Segment segment, final RecordVisitor visitor) throws IOException {
+        final long length = segment.file.length();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            while (offset + HEADER_SIZE <= length) {
+                final int magic = in.readInt();
+                final int bodyLength = in.readInt();
+                final int checksum = in.readInt();
+                if (magic != MAGIC || bodyLength < 0 || offset + HEADER_SIZE + bodyLength > length) {
+                    break;
+                }
+                final byte[] body = new byte[bodyLength];
+                in.readFully(body);
+                final CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                final Record record;
+                try {
+                    record = decode(ByteBuffer.wrap(body), false);
+                } catch (RuntimeException e) {
+                    break;
+                }
+                visitor.visit(offset, body, record);
+                offset += HEADER_SIZE + bodyLength;
+            }
+        } catch (EOFException e) {
+            LOG.debug("Unexpected end of preview cache segment {}", segment.file);
+        }
+        return offset;
+    }
+
+    private static ByteBuffer toRecord(final byte[] body) {
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + body.length);
+        buffer.putInt(MAGIC).putInt(body.length).putInt((int) crc.getValue()).put(body);
+        buffer.flip();
+        return buffer;
+    }
+
+    private Record read(final Segment segment, final long offset, final int length) throws IOException {
+        final ByteBuffer body = readRaw(segment, offset, length);
+        if (body == null) {
+            return null;
+        }
+        body.position(HEADER_SIZE);
+        return decode(body.slice(), true);
+    }
+
+    /**
+     * @return the record including its header or {@code null} if the record is corrupt
+     */
+    private ByteBuffer readRaw(final Segment segment, final long offset, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            synchronized (segment) {
+                segment.data.seek(offset);
+                segment.data.readFully(buffer.array());
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != length - HEADER_SIZE) {
+            return null;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, length - HEADER_SIZE);
+        return (int) crc.getValue() == buffer.getInt(8) ? buffer : null;
+    }
+
+    private static ByteBuffer encode(final String key, final String path, final byte[] compressed,
+                                     final int encodedLength, final long expires, final long dies) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] pathBytes = path != null ? path.getBytes(StandardCharsets.UTF_8) : null;
+        final int length = 8 + 8 + 4 + keyBytes.length + 4 + (pathBytes != null ? pathBytes.length : 0) + 4 + 4
+                + (compressed != null ? compressed.length : 0);
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+        buffer.putInt(MAGIC).putInt(length).putInt(0);
+        buffer.putLong(expires).putLong(dies);
+        buffer.putInt(keyBytes.length).put(keyBytes);
+        buffer.putInt(pathBytes != null ? pathBytes.length : -1);
+        if (pathBytes != null) {
+            buffer.put(pathBytes);
+        }
+        // a negative length marks a tombstone
+        buffer.putInt(compressed != null ? compressed.length : -1).putInt(encodedLength);
+        if (compressed != null) {
+            buffer.put(compressed);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, length);
+        buffer.putInt(8, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Record decode(final ByteBuffer body, final boolean withValue) {
+        final long expires = body.getLong();
+        final long dies = body.getLong();
+        final String key = readString(body, body.getInt());
+        final String path = readString(body, body.getInt());
+        final int compressedLength = body.getInt();
+        final int encodedLength = body.getInt();
+        if (compressedLength < 0) {
+            return new Record(key, path, null, expires, dies, true);
+        }
+        String value = null;
+        if (withValue) {
+            final byte[] compressed = new byte[compressedLength];
+            body.get(compressed);
+            value = PreviewCache.decompress(compressed, encodedLength);
+        }
+        return new Record(key, path, value, expires, dies, false);
+    }
+
+    private static String readString(final ByteBuffer buffer, final int length) {
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOG.debug("Cannot close {}", closeable, e);
+        }
+    }
+
+    /**
+     * Fragment read from the store.
+     */
+    static class Record {
+        final String key;
+        final String path;
+        final String value;
+        final long expires;
+        final long dies;
+        final boolean tombstone;
+
+        private Record(String key, String path, String value, long expires, long dies, boolean tombstone) {
+            this.key = key;
+            this.path = path;
+            this.value = value;
+            this.expires = expires;
+            this.dies = dies;
+            this.tombstone = tombstone;
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(long offset, byte[] body, Record record) throws IOException;
+    }
+
+    private static class Location {
+        final Segment segment;
+        final long offset;
+        final int length;
+        final String path;
+        final long expires;
+        final long dies;
+
+        private Location(Segment segment, long offset, int length, String path, long expires, long dies) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.path = path;
+            this.expires = expires;
+            this.dies = dies;
+        }
+
+        boolean isDead(long now) {
+            return now >= dies;
+        }
+    }
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final RandomAccessFile data;
+        final AtomicLong size = new AtomicLong();
+        // bytes of the records referenced by the index
+        final AtomicLong live = new AtomicLong();
+
+        private Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.data = new RandomAccessFile(file, "rw");
+            this.size.set(data.length());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.sling.SlingServlet;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
+import com.adobe.cq.commerce.demandware.PreviewContext;
+import com.adobe.cq.commerce.demandware.PreviewService;
+import com.day.cq.wcm.api.PageManager;
+
+/**
+ * Serves the preview fragment of a placeholder component, requested by the page for the placeholders rendered as
+ * lightweight shell. The component is rendered by the request thread, the request to Demandware is executed by the
+ * non-blocking client and the request thread is released while waiting for the preview if the container supports
+ * asynchronous requests. Otherwise the preview is streamed from Demandware into the response.
+ */
+@Component(label = "Demandware Preview Fragment Servlet", metatype = true, immediate = true)
+@SlingServlet(resourceTypes = "sling/servlet/default", selectors = DemandwareCommerceConstants.DWRE_PREVIEW_SELECTOR,
+        extensions = "html", methods = "GET", generateComponent = false)
+public class PreviewFragmentServlet extends SlingSafeMethodsServlet {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(PreviewFragmentServlet.class);
+    private static final String TIMEOUT_MSG = "<p>Live Demandware preview timed out. See log for details.</p>";
+    
+    private static final int DEFAULT_TIMEOUT = 30000;
+    @Property(label = "Timeout", description = "Maximum time in ms to wait for the preview of an asynchronous " +
+            "request", intValue = DEFAULT_TIMEOUT)
+    private static final String TIMEOUT = "timeout";
+    
+    @Reference
+    private PreviewService previewService;
+    
+    private long timeout;
+    
+    @Activate
+    protected void activate(final Map<String, Object> config) {
+        timeout = PropertiesUtil.toInteger(config.get(TIMEOUT), DEFAULT_TIMEOUT);
+    }
+    
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response) throws ServletException,
+            IOException {
+        // bound to all resources, only components of a page with a preview configuration have a preview
+        final Resource resource = request.getResource();
+        final PageManager pageManager = request.getResourceResolver().adaptTo(PageManager.class);
+        if (pageManager == null || pageManager.getContainingPage(resource) == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        final PreviewContext context = previewService.getPreviewContext(request, resource);
+        if (context == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        
+        final boolean category = ArrayUtils.contains(request.getRequestPathInfo().getSelectors(),
+                DemandwareCommerceConstants.DWRE_PREVIEW_CATEGORY_SELECTOR);
+        if (!request.isAsyncSupported()) {
+            setHeaders(response);
+            if (category) {
+                previewService.previewCategoryComponent(context, resource, true, response.getWriter());
+            } else {
+                previewService.previewComponent(context, resource, true, response.getWriter());
+            }
+            return;
+        }
+        
+        final CompletableFuture<String> preview = category
+                ? previewService.previewCategoryComponentAsync(context, resource, true)
+                : previewService.previewComponentAsync(context, resource, true);
+        
+        if (preview.isDone()) {
+            write(response, preview.join());
+            return;
+        }
+        
+        final AsyncContext asyncContext;
+        try {
+            asyncContext = request.startAsync();
+        } catch (IllegalStateException e) {
+            LOG.debug("Asynchronous request not supported for {}, wait for the preview", resource.getPath());
+            write(response, preview.join());
+            return;
+        }
+        asyncContext.setTimeout(timeout);
+        
+        final AtomicBoolean completed = new AtomicBoolean();
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(final AsyncEvent event) throws IOException {
+                if (completed.compareAndSet(false, true)) {
+                    LOG.warn("Preview of {} not completed within {}ms", resource.getPath(), timeout);
+                    complete(asyncContext, TIMEOUT_MSG);
+                }
+            }
+            
+            @Override
+            public void onError(final AsyncEvent event) {
+                completed.set(true);
+            }
+            
+            @Override
+            public void onComplete(final AsyncEvent event) {
+                completed.set(true);
+            }
+            
+            @Override
+            public void onStartAsync(final AsyncEvent event) {
+            }
+        });
+        
+        final String path = resource.getPath();
+        preview.whenComplete((renderedPreview, e) -> {
+            if (completed.compareAndSet(false, true)) {
+                if (e != null) {
+                    LOG.error("Failed to render preview of {}", path, e);
+                }
+                // write the response on a container thread rather than the thread completing the preview
+                asyncContext.start(() -> complete(asyncContext, renderedPreview));
+            }
+        });
+    }
+    
+    private void complete(final AsyncContext asyncContext, final String renderedPreview) {
+        try {
+            write(asyncContext.getResponse(), renderedPreview);
+        } catch (IOException e) {
+            LOG.debug("Cannot write preview fragment: {}", e.getMessage());
+        } finally {
+            asyncContext.complete();
+        }
+    }
+    
+    private static void write(final ServletResponse response, final String renderedPreview) throws IOException {
+        setHeaders(response);
+        if (renderedPreview != null) {
+            response.getWriter().write(renderedPreview);
+        }
+    }
+    
+    private static void setHeaders(final ServletResponse response) {
+        response.setContentType("text/html");
+        response.setCharacterEncoding("UTF-8");
+        if (response instanceof HttpServletResponse) {
+            // the fragment is requested by the page on every load, authors expect the current preview
+            ((HttpServletResponse) response).setHeader("Cache-Control", "no-cache");
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.cq.commerce.demandware.PreviewContext;
+import com.adobe.cq.commerce.demandware.PreviewService;
+import com.day.cq.wcm.api.Page;
+
+/**
+ * Prefetches the previews of all Demandware placeholders of a page as soon as the page request starts, so the
+ * previews are requested concurrently instead of one after another while the placeholders render. The placeholders
+ * wait for their prefetched preview, the page costs about one Demandware round trip. Without background prefetch the
+ * previews are requested in batches before the page renders. The filter also marks the start of the page render, the
+ * previews not rendered within the render deadline of the {@link PreviewServiceImpl} fall back to the last known good
+ * previews.
+ */
+@Component(metatype = true, label = "Demandware Preview Prefetch Filter",
+        description = "Requests the previews of all placeholders of a page concurrently")
+@Service(value = Filter.class)
+@Properties({
+        @Property(name = "sling.filter.scope", value = "REQUEST", propertyPrivate = true),
+        @Property(name = "service.ranking", intValue = -1000, propertyPrivate = true)
+})
+public class PreviewPrefetchFilter implements Filter {
+    private static final Logger LOG = LoggerFactory.getLogger(PreviewPrefetchFilter.class);
+
+    @Property(label = "Enabled", description = "Prefetch the previews of the placeholders of requested pages",
+            boolValue = true)
+    private static final String ENABLED = "enabled";
+
+    @Property(label = "Background prefetch", description = "Request the previews in the background while the page " +
+            "renders. If disabled, the previews are requested in one batch before the page renders", boolValue = true)
+    private static final String BACKGROUND = "background";
+
+    @Property(label = "Placeholder resource types", description = "Resource types of the placeholders previewed " +
+            "as components", value = {
+            "commerce/demandware/components/placeholder/header",
+            "commerce/demandware/components/placeholder/footer",
+            "commerce/demandware/components/placeholder/content-navigation",
+            "commerce/demandware/components/placeholder/product"
+    }, cardinality = Integer.MAX_VALUE)
+    private static final String RESOURCE_TYPES = "resource.types";
+
+    @Property(label = "Category placeholder resource types", description = "Resource types of the placeholders " +
+            "previewed as category components", value = {
+            "commerce/demandware/components/placeholder/category-slot",
+            "commerce/demandware/components/placeholder/search-navigation"
+    }, cardinality = Integer.MAX_VALUE)
+    private static final String CATEGORY_RESOURCE_TYPES = "category.resource.types";
+
+    @Reference
+    private PreviewService previewService;
+
+    private boolean enabled;
+    private boolean background;
+    private String[] resourceTypes;
+    private String[] categoryResourceTypes;
+
+    @Activate
+    protected void activate(final Map<String, Object> config) {
+        enabled = PropertiesUtil.toBoolean(config.get(ENABLED), true);
+        background = PropertiesUtil.toBoolean(config.get(BACKGROUND), true);
+        resourceTypes = PropertiesUtil.toStringArray(config.get(RESOURCE_TYPES), new String[0]);
+        categoryResourceTypes = PropertiesUtil.toStringArray(config.get(CATEGORY_RESOURCE_TYPES), new String[0]);
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof SlingHttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+        if (!"GET".equals(slingRequest.getMethod())
+                || !"html".equals(slingRequest.getRequestPathInfo().getExtension())) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (slingRequest.getAttribute(PreviewServiceImpl.RENDER_START_ATTRIBUTE) == null) {
+            slingRequest.setAttribute(PreviewServiceImpl.RENDER_START_ATTRIBUTE, System.currentTimeMillis());
+        }
+        if (enabled) {
+            prefetch(slingRequest, slingRequest.getResource());
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private void prefetch(final SlingHttpServletRequest request, final Resource resource) {
+        final Page page = resource != null ? resource.adaptTo(Page.class) : null;
+        if (page == null || page.getContentResource() == null) {
+            return;
+        }
+        final List<Resource> placeholders = new ArrayList<>();
+        final List<Resource> categoryPlaceholders = new ArrayList<>();
+        collectPlaceholders(page.getContentResource(), placeholders, categoryPlaceholders);
+        if (placeholders.isEmpty() && categoryPlaceholders.isEmpty()) {
+            return;
+        }
+        try {
+            final PreviewContext context = previewService.getPreviewContext(request, page.getContentResource());
+            if (context == null || context.getPreviewServiceConfig().isLazyLoading()) {
+                // nothing to preview, or the page requests the placeholder previews itself once loaded
+                return;
+            }
+            LOG.debug("Prefetch {} placeholder previews of {}", placeholders.size() + categoryPlaceholders.size(),
+                    page.getPath());
+            if (background) {
+                previewService.prefetchComponents(context, placeholders, true);
+                previewService.prefetchCategoryComponents(context, categoryPlaceholders, true);
+            } else {
+                // the placeholders get their preview from the context
+                previewService.previewComponents(context, placeholders, true);
+                previewService.previewCategoryComponents(context, categoryPlaceholders, true);
+            }
+        } catch (RuntimeException e) {
+            // the placeholders request their previews themselves
+            LOG.warn("Cannot prefetch the placeholder previews of {}", page.getPath(), e);
+        }
+    }
+
+    private void collectPlaceholders(final Resource resource, final List<Resource> placeholders,
+                                     final List<Resource> categoryPlaceholders) {
+        final Iterator<Resource> children = resource.listChildren();
+        while (children.hasNext()) {
+            final Resource child = children.next();
+            // check category types first, as they may extend the generic placeholder
+            if (isResourceType(child, categoryResourceTypes)) {
+                categoryPlaceholders.add(child);
+            } else if (isResourceType(child, resourceTypes)) {
+                placeholders.add(child);
+            } else {
+                collectPlaceholders(child, placeholders, categoryPlaceholders);
+            }
+        }
+    }
+
+    private static boolean isResourceType(final Resource resource, final String[] resourceTypes) {
+        for (String resourceType : resourceTypes) {
+            if (resource.isResourceType(resourceType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
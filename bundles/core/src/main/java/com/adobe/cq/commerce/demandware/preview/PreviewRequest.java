@@ -0,0 +1,158 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+
+/**
+ * Immutable preview request sent to Demandware, consisting of the preview endpoint, the request parameters and the
+ * rendered component markup. The cache key is a SHA-256 hash of all of them, so equal requests share one cached
+ * preview regardless of the page they originate from, and any change of the markup, site, locale, template or
+ * parameters results in a different key.
+ */
+class PreviewRequest {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String path;
+    private final String uri;
+    private final List<NameValuePair> parameters;
+    private final String content;
+    private final long deadline;
+    private volatile String cacheKey;
+
+    /**
+     * @param path       path of the previewed resource
+     * @param uri        the preview endpoint URI
+     * @param parameters the request parameters, in the order sent
+     * @param content    the rendered component markup
+     * @param deadline   the render deadline of the preview in ms since the epoch, 0 if none
+     */
+    PreviewRequest(final String path, final String uri, final List<NameValuePair> parameters, final String content,
+                   final long deadline) {
+        this.path = path;
+        this.uri = uri;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+        this.content = content;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return path of the previewed resource
+     */
+    String getPath() {
+        return path;
+    }
+
+    String getUri() {
+        return uri;
+    }
+
+    List<NameValuePair> getParameters() {
+        return parameters;
+    }
+
+    String getContent() {
+        return content;
+    }
+
+    /**
+     * @return the render deadline of the preview in ms since the epoch, 0 if none. Not part of the cache key.
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return hex encoded SHA-256 hash of endpoint, parameters and markup
+     */
+    String getCacheKey() {
+        String key = cacheKey;
+        if (key == null) {
+            key = digest();
+            cacheKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * @return the HTTP request posting the markup to the preview endpoint
+     * @throws IllegalArgumentException if the endpoint URI is invalid
+     */
+    HttpUriRequest toHttpRequest() {
+        final RequestBuilder requestBuilder = RequestBuilder.post().setUri(uri);
+        for (NameValuePair parameter : parameters) {
+            requestBuilder.addParameter(parameter);
+        }
+        requestBuilder.addHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_HTML.getMimeType());
+        requestBuilder.setEntity(new StringEntity(content, ContentType.TEXT_HTML));
+        return requestBuilder.build();
+    }
+
+    private String digest() {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+        // length prefixed values, so no two different requests result in the same input
+        update(digest, uri);
+        for (NameValuePair parameter : parameters) {
+            update(digest, parameter.getName());
+            update(digest, parameter.getValue());
+        }
+        update(digest, content);
+
+        final byte[] hash = digest.digest();
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) 1);
+        digest.update(new byte[]{(byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+                (byte) (bytes.length >>> 8), (byte) bytes.length});
+        digest.update(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "PreviewRequest{path='" + path + "', uri='" + uri + "', parameters=" + parameters + "}";
+    }
+}
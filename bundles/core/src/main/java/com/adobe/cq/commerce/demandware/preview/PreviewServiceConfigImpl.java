@@ -21,13 +21,23 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyOption;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.DynamicMBean;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.io.IOException;
+import java.util.Hashtable;
 import java.util.Map;
 
 /**
@@ -48,6 +58,11 @@ public class PreviewServiceConfigImpl implements PreviewServiceConfig {
     @Property(label = "Preview endpoint for category pages")
     private static final String PREVIEW_SEARCH_ENDPOINT = "endpointSearch";
     
+    @Property(label = "Batch preview endpoint", description = "Endpoint rendering the previews of all components " +
+            "of a page in one request, keeping the preview markers of the posted markup. Leave empty to request " +
+            "each preview separately")
+    private static final String PREVIEW_BATCH_ENDPOINT = "endpointBatch";
+    
     @Property(label = "Preview template path")
     private static final String PREVIEW_TEMPLATE = "template";
     
@@ -58,9 +73,38 @@ public class PreviewServiceConfigImpl implements PreviewServiceConfig {
     private static final String PREVIEW_CACHE_ENABLED = "cache.enabled";
     
     private static final int DEFAULT_PREVIEW_CACHE_TIME = 60;
-    @Property(label = "Caching time in seconds", intValue = DEFAULT_PREVIEW_CACHE_TIME)
+    @Property(label = "Caching time in seconds", description = "Cached previews are evicted as soon as the " +
+            "previewed content changes, the caching time only limits the staleness of Demandware side changes",
+            intValue = DEFAULT_PREVIEW_CACHE_TIME)
     private static final String PREVIEW_CACHE_TIME = "cache.time";
     
+    private static final int DEFAULT_PREVIEW_CACHE_SIZE = 16;
+    @Property(label = "Cache size in MB", description = "Maximum size of the cached previews",
+            intValue = DEFAULT_PREVIEW_CACHE_SIZE)
+    private static final String PREVIEW_CACHE_SIZE = "cache.size";
+    
+    private static final int DEFAULT_PREVIEW_CACHE_GRACE_TIME = 0;
+    @Property(label = "Stale grace time in seconds", description = "Time expired previews are served while they are " +
+            "refreshed in the background, 0 to always wait for the refreshed preview",
+            intValue = DEFAULT_PREVIEW_CACHE_GRACE_TIME)
+    private static final String PREVIEW_CACHE_GRACE_TIME = "cache.graceTime";
+    
+    @Property(label = "Cache storage", description = "Storage of the cached previews, compressed previews use a " +
+            "fraction of the memory but are decompressed on every read", value = "COMPRESSED", options = {
+            @PropertyOption(name = "HEAP", value = "Heap"),
+            @PropertyOption(name = "COMPRESSED", value = "Compressed heap"),
+            @PropertyOption(name = "OFF_HEAP", value = "Compressed off-heap")})
+    private static final String PREVIEW_CACHE_STORAGE = "cache.storage";
+    
+    @Property(label = "Enable disk cache", description = "Keep the cached previews on disk below the Sling home, " +
+            "so they survive restarts", boolValue = false)
+    private static final String PREVIEW_CACHE_DISK_ENABLED = "cache.disk.enabled";
+    
+    private static final int DEFAULT_PREVIEW_CACHE_DISK_SIZE = 256;
+    @Property(label = "Disk cache size in MB", description = "Maximum size of the cached previews on disk",
+            intValue = DEFAULT_PREVIEW_CACHE_DISK_SIZE)
+    private static final String PREVIEW_CACHE_DISK_SIZE = "cache.disk.size";
+    
     @Property(label = "Enable storefront protection", boolValue = false)
     private static final String STORFRONT_PROTECTION_ENABLED = "storefront.protected";
     
@@ -70,11 +114,16 @@ public class PreviewServiceConfigImpl implements PreviewServiceConfig {
     @Property(label = "Protected storefront password")
     private static final String STORFRONT_PROTECTION_PASSWORD = "storefront.password";
     
+    @Property(label = "Lazy loading previews", description = "Placeholders render a lightweight shell and the page " +
+            "loads the previews asynchronously, so slow previews do not delay the page", boolValue = false)
+    private static final String PREVIEW_LAZY_LOADING = "lazy.enabled";
+    
     @Property(label = "Instance id", description = "Preview Service instance id that corresponds to Replication Agent config")
     private static final String INSTANCE_ID = "instance.id";
     
     private String previewPageEndPoint;
     private String previewSearchEndPoint;
+    private String previewBatchEndPoint;
     private String previewTemplate;
     private String previewDefaultSite;
     private String previewCacheTime;
@@ -82,8 +131,10 @@ public class PreviewServiceConfigImpl implements PreviewServiceConfig {
     private String storfrontProtectionUser;
     private String StorfrontProtectionPassword;
     private String instanceId;
+    private boolean lazyLoading;
     
     private PreviewCache cache;
+    private ServiceRegistration<?> cacheStatsRegistration;
     
     public String getInstanceId() {
         return instanceId;
@@ -97,6 +148,10 @@ public class PreviewServiceConfigImpl implements PreviewServiceConfig {
         return previewSearchEndPoint;
     }
     
+    public String getPreviewBatchEndPoint() {
+        return previewBatchEndPoint;
+    }
+    
     public String getPreviewTemplate() {
         return previewTemplate;
     }
@@ -125,26 +180,101 @@ public class PreviewServiceConfigImpl implements PreviewServiceConfig {
         return cache;
     }
     
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+    
     @Activate
-    protected void activate(Map<String, Object> configuration) {
+    protected void activate(BundleContext bundleContext, Map<String, Object> configuration) {
         previewPageEndPoint = StringUtils.prependIfMissing(PropertiesUtil.toString(configuration.get
                 (PREVIEW_PAGE_ENDPOINT), null), "/", "/");
         previewSearchEndPoint = StringUtils.prependIfMissing(
                 PropertiesUtil.toString(configuration.get(PREVIEW_SEARCH_ENDPOINT), null), "/", "/");
+        previewBatchEndPoint = StringUtils.prependIfMissing(StringUtils.trimToNull(
+                PropertiesUtil.toString(configuration.get(PREVIEW_BATCH_ENDPOINT), null)), "/", "/");
         previewTemplate = PropertiesUtil.toString(configuration.get(PREVIEW_TEMPLATE), null);
         previewDefaultSite = PropertiesUtil.toString(configuration.get(PREVIEW_DEFAULT_SITE), null);
         previewCacheTime = PropertiesUtil.toString(configuration.get(PREVIEW_CACHE_TIME), "60");
-        storfrontProtectionEnabled = PropertiesUtil.toBoolean(configuration.get(PREVIEW_CACHE_TIME), true);
+        storfrontProtectionEnabled = PropertiesUtil.toBoolean(configuration.get(STORFRONT_PROTECTION_ENABLED),
+                false);
         storfrontProtectionUser = PropertiesUtil.toString(configuration.get(STORFRONT_PROTECTION_USER), null);
         StorfrontProtectionPassword = PropertiesUtil.toString(configuration.get(STORFRONT_PROTECTION_PASSWORD), null);
         instanceId = PropertiesUtil.toString(configuration.get(INSTANCE_ID), null);
+        lazyLoading = PropertiesUtil.toBoolean(configuration.get(PREVIEW_LAZY_LOADING), false);
         
         if (PropertiesUtil.toBoolean(configuration.get(PREVIEW_CACHE_ENABLED), true)) {
             cache = new PreviewCache(PropertiesUtil.toInteger(configuration.get(PREVIEW_CACHE_TIME),
-                    DEFAULT_PREVIEW_CACHE_TIME));
+                    DEFAULT_PREVIEW_CACHE_TIME), Math.max(1, PropertiesUtil.toInteger(configuration.get(
+                    PREVIEW_CACHE_SIZE), DEFAULT_PREVIEW_CACHE_SIZE)) * 1024L * 1024L,
+                    PropertiesUtil.toInteger(configuration.get(PREVIEW_CACHE_GRACE_TIME),
+                            DEFAULT_PREVIEW_CACHE_GRACE_TIME), getStorage(configuration),
+                    createDiskStore(bundleContext, configuration));
+            registerCacheStats(bundleContext);
         }
         
         LOG.debug("activating preview service configuration");
     }
     
+    @Deactivate
+    protected void deactivate() {
+        if (cacheStatsRegistration != null) {
+            cacheStatsRegistration.unregister();
+            cacheStatsRegistration = null;
+        }
+        if (cache != null) {
+            cache.close();
+        }
+    }
+    
+    /**
+     * Open the disk store of the cache below the Sling home, or the bundle data area if the Sling home is unknown.
+     *
+     * @return the disk store or {@code null} if disabled or not available
+     */
+    private PreviewDiskStore createDiskStore(BundleContext bundleContext, Map<String, Object> configuration) {
+        if (!PropertiesUtil.toBoolean(configuration.get(PREVIEW_CACHE_DISK_ENABLED), false)) {
+            return null;
+        }
+        final String name = StringUtils.defaultIfEmpty(instanceId, "default").replaceAll("[^A-Za-z0-9._-]", "_");
+        final String slingHome = bundleContext.getProperty("sling.home");
+        final File directory = slingHome != null
+                ? new File(slingHome, "demandware/preview-cache/" + name)
+                : bundleContext.getDataFile("preview-cache/" + name);
+        if (directory == null) {
+            LOG.warn("No directory available for the preview disk cache of {}", instanceId);
+            return null;
+        }
+        try {
+            return new PreviewDiskStore(directory, Math.max(1, PropertiesUtil.toInteger(configuration.get(
+                    PREVIEW_CACHE_DISK_SIZE), DEFAULT_PREVIEW_CACHE_DISK_SIZE)) * 1024L * 1024L);
+        } catch (IOException e) {
+            LOG.error("Cannot open the preview disk cache {}, use the memory cache only", directory, e);
+            return null;
+        }
+    }
+    
+    private PreviewCache.Storage getStorage(Map<String, Object> configuration) {
+        final String storage = PropertiesUtil.toString(configuration.get(PREVIEW_CACHE_STORAGE),
+                PreviewCache.Storage.COMPRESSED.name());
+        try {
+            return PreviewCache.Storage.valueOf(StringUtils.upperCase(StringUtils.trim(storage)));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Unknown preview cache storage {}, use compressed storage", storage);
+            return PreviewCache.Storage.COMPRESSED;
+        }
+    }
+    
+    private void registerCacheStats(BundleContext bundleContext) {
+        try {
+            final Hashtable<String, Object> props = new Hashtable<>();
+            props.put("jmx.objectname", "com.adobe.cq.commerce.demandware:type=PreviewCache,id="
+                    + ObjectName.quote(StringUtils.defaultString(instanceId)));
+            cacheStatsRegistration = bundleContext.registerService(DynamicMBean.class.getName(),
+                    new StandardMBean(new PreviewCacheStats(instanceId, cache), PreviewCacheStatsMXBean.class, true),
+                    props);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Cannot register preview cache statistics MBean", e);
+        }
+    }
+    
 }
@@ -18,7 +18,6 @@ package com.adobe.cq.commerce.demandware.preview;
 
 import com.adobe.cq.commerce.demandware.PreviewServiceConfig;
 import com.adobe.cq.commerce.demandware.PreviewServiceConfigProvider;
-import com.google.common.collect.Maps;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
@@ -27,8 +26,9 @@ import org.apache.felix.scr.annotations.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 @Component(label = "Demandware Preview Service Config Provider", immediate = true)
 @Service(value = PreviewServiceConfigProvider.class)
@@ -44,7 +44,7 @@ public class PreviewServiceConfigProviderImpl implements PreviewServiceConfigPro
             unbind = "unbindPreviewServiceConfig",
             cardinality = ReferenceCardinality.MANDATORY_MULTIPLE,
             policy = ReferencePolicy.DYNAMIC)
-    protected HashMap<String, com.adobe.cq.commerce.demandware.PreviewServiceConfig> previewServiceConfigHashMap;
+    protected final ConcurrentMap<String, PreviewServiceConfig> previewServiceConfigHashMap = new ConcurrentHashMap<>();
     
     /**
      * Returns the configured Demandware client defined for specific SFCC instance
@@ -61,14 +61,12 @@ public class PreviewServiceConfigProviderImpl implements PreviewServiceConfigPro
     }
     
     protected void bindPreviewServiceConfig(final PreviewServiceConfig config, final Map<String, Object> properties) {
-        if (previewServiceConfigHashMap == null) {
-            previewServiceConfigHashMap = Maps.newHashMap();
-        }
         previewServiceConfigHashMap.put(config.getInstanceId(), config);
     }
     
     protected void unbindPreviewServiceConfig(final PreviewServiceConfig config, final Map<String, Object> properties) {
-        previewServiceConfigHashMap.remove(config.getInstanceId());
+        // a replacing config of the same instance may already be bound
+        previewServiceConfigHashMap.remove(config.getInstanceId(), config);
     }
     
     
@@ -16,10 +16,13 @@
 
 package com.adobe.cq.commerce.demandware.preview;
 
+import com.adobe.cq.commerce.demandware.DemandwareCallNotPermittedException;
 import com.adobe.cq.commerce.demandware.DemandwareClient;
 import com.adobe.cq.commerce.demandware.DemandwareClientProvider;
 import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
+import com.adobe.cq.commerce.demandware.InheritedPropertyResolver;
 import com.adobe.cq.commerce.demandware.InstanceIdProvider;
+import com.adobe.cq.commerce.demandware.PreviewContext;
 import com.adobe.cq.commerce.demandware.PreviewService;
 import com.adobe.cq.commerce.demandware.PreviewServiceConfig;
 import com.adobe.cq.commerce.demandware.PreviewServiceConfigProvider;
@@ -28,46 +31,140 @@ import com.day.cq.commons.inherit.HierarchyNodeInheritanceValueMap;
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageManager;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
-import org.apache.http.HttpHeaders;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.DynamicMBean;
+import javax.management.StandardMBean;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * Component previewComponent service to render component previewComponent for Demandware placeholder components. The rendered previewComponent
  * will be cached by a simple cache, avoid unnecessary backend request.
  */
-@Component
+@Component(metatype = true, label = "Demandware Preview Service")
 @Service
 public class PreviewServiceImpl implements PreviewService {
     
     private static final Logger LOG = LoggerFactory.getLogger(PreviewServiceImpl.class);
     private static final String ERROR_MSG = "<p>Live Demandware preview failed to render. See log for details.</p>";
+    private static final String[] DEFAULT_SELECTORS = {DemandwareCommerceConstants.DWRE_RENDERING_SELECTOR};
+    
+    private static final int DEFAULT_COALESCE_TIMEOUT = 10000;
+    @Property(label = "Coalesce timeout", description = "Maximum time in ms to wait for an identical preview " +
+            "requested concurrently, afterwards the preview is requested again", intValue = DEFAULT_COALESCE_TIMEOUT)
+    private static final String COALESCE_TIMEOUT = "coalesce.timeout";
+    
+    private static final int DEFAULT_REFRESH_THREADS = 2;
+    @Property(label = "Refresh threads", description = "Number of threads refreshing stale previews in the " +
+            "background", intValue = DEFAULT_REFRESH_THREADS)
+    private static final String REFRESH_THREADS = "refresh.threads";
+    
+    private static final int DEFAULT_REFRESH_QUEUE_SIZE = 100;
+    @Property(label = "Refresh queue size", description = "Maximum number of stale previews waiting to be " +
+            "refreshed, further stale previews are served without refresh", intValue = DEFAULT_REFRESH_QUEUE_SIZE)
+    private static final String REFRESH_QUEUE_SIZE = "refresh.queueSize";
+    
+    private static final int DEFAULT_PREFETCH_THREADS = 4;
+    @Property(label = "Prefetch threads", description = "Number of threads requesting the previews of a page " +
+            "concurrently while the page renders", intValue = DEFAULT_PREFETCH_THREADS)
+    private static final String PREFETCH_THREADS = "prefetch.threads";
+    
+    private static final int DEFAULT_PREFETCH_QUEUE_SIZE = 100;
+    @Property(label = "Prefetch queue size", description = "Maximum number of prefetched previews waiting to be " +
+            "requested, further previews are requested when rendered", intValue = DEFAULT_PREFETCH_QUEUE_SIZE)
+    private static final String PREFETCH_QUEUE_SIZE = "prefetch.queueSize";
+    
+    private static final int DEFAULT_COMPLETION_THREADS = 4;
+    @Property(label = "Completion threads", description = "Number of threads caching and storing the previews " +
+            "received by the non-blocking client, keeps this work off the I/O threads of the client",
+            intValue = DEFAULT_COMPLETION_THREADS)
+    private static final String COMPLETION_THREADS = "completion.threads";
+    
+    private static final int COMPLETION_QUEUE_SIZE = 1000;
+    
+    private static final int DEFAULT_NEGATIVE_TTL = 10;
+    @Property(label = "Failed preview TTL", description = "Time in seconds a failed preview is not requested again, " +
+            "the last known good preview is served instead. A failed batch endpoint is not used for the same time. " +
+            "0 to request failed previews again immediately", intValue = DEFAULT_NEGATIVE_TTL)
+    private static final String NEGATIVE_TTL = "negative.ttl";
+    
+    private static final int DEFAULT_RENDER_DEADLINE = 10000;
+    @Property(label = "Render deadline", description = "Maximum time in ms a page render waits for its previews, " +
+            "afterwards the last known good previews are served. 0 to wait for each preview", intValue =
+            DEFAULT_RENDER_DEADLINE)
+    private static final String RENDER_DEADLINE = "render.deadline";
+    
+    /**
+     * Request attribute holding the time in ms the page render started, set by the {@link PreviewPrefetchFilter}. The
+     * preview contexts of the request get the render deadline counted from it.
+     */
+    static final String RENDER_START_ATTRIBUTE = PreviewServiceImpl.class.getName() + ".renderStart";
+    
+    private static final int DEFAULT_LAST_KNOWN_GOOD_SIZE = 1000;
+    @Property(label = "Last known good previews", description = "Maximum number of last successfully rendered " +
+            "previews kept as fallback", intValue = DEFAULT_LAST_KNOWN_GOOD_SIZE)
+    private static final String LAST_KNOWN_GOOD_SIZE = "lastKnownGood.size";
+    
+    private static final int DEFAULT_STREAM_CACHE_THRESHOLD = 262144;
+    @Property(label = "Stream cache threshold", description = "Maximum size in characters of a preview streamed " +
+            "to the client which is still cached, larger previews are never buffered in full. 0 to cache no " +
+            "streamed preview", intValue = DEFAULT_STREAM_CACHE_THRESHOLD)
+    private static final String STREAM_CACHE_THRESHOLD = "stream.cacheThreshold";
+    
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    
+    // expired failed previews are removed once more failed previews are recorded
+    private static final int MAX_NEGATIVE_ENTRIES = 10000;
+    // prefix of the failed request keys of batch endpoints, distinct from the content hash keys of previews
+    private static final String BATCH_KEY_PREFIX = "batch ";
     
     @Reference
     DemandwareClientProvider clientProvider;
@@ -81,139 +178,1218 @@ public class PreviewServiceImpl implements PreviewService {
     @Reference
     private PreviewServiceConfigProvider previewServiceConfigProvider;
     
-    private CredentialsProvider credentialsProvider;
+    @Reference
+    private InheritedPropertyResolver inheritedPropertyResolver;
+    
+    // preview clients by instance id
+    private final ConcurrentMap<String, PreviewClient> previewClients = new ConcurrentHashMap<>();
+    // previews currently requested from Demandware by cache key
+    private final ConcurrentMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder coalesceTimeoutCount = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder refreshFailureCount = new LongAdder();
+    private final LongAdder refreshRejectedCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder batchedCount = new LongAdder();
+    private final LongAdder prefetchCount = new LongAdder();
+    private final LongAdder prefetchRejectedCount = new LongAdder();
+    // failed previews by cache key, mapped to the time until they are not requested again
+    private final ConcurrentMap<String, Long> negative = new ConcurrentHashMap<>();
+    private final LongAdder negativeHitCount = new LongAdder();
+    private final LongAdder deadlineExceededCount = new LongAdder();
+    private final LongAdder lastKnownGoodCount = new LongAdder();
+    private final LongAdder fallbackPlaceholderCount = new LongAdder();
+    private final LongAdder streamedCount = new LongAdder();
+    private final LongAdder streamedUncachedCount = new LongAdder();
+    private long coalesceTimeout;
+    private long negativeTtl;
+    private long renderDeadline;
+    private int streamCacheThreshold;
+    private LastKnownGood lastKnownGood;
+    private ThreadPoolExecutor refreshExecutor;
+    private ThreadPoolExecutor prefetchExecutor;
+    private ThreadPoolExecutor completionExecutor;
+    private ServiceRegistration<?> statsRegistration;
+    
+    @Activate
+    protected void activate(final BundleContext bundleContext, final Map<String, Object> config) {
+        coalesceTimeout = Math.max(0, PropertiesUtil.toInteger(config.get(COALESCE_TIMEOUT), DEFAULT_COALESCE_TIMEOUT));
+        negativeTtl = TimeUnit.SECONDS.toMillis(Math.max(0,
+                PropertiesUtil.toInteger(config.get(NEGATIVE_TTL), DEFAULT_NEGATIVE_TTL)));
+        renderDeadline = Math.max(0, PropertiesUtil.toInteger(config.get(RENDER_DEADLINE), DEFAULT_RENDER_DEADLINE));
+        streamCacheThreshold = Math.max(0, PropertiesUtil.toInteger(config.get(STREAM_CACHE_THRESHOLD),
+                DEFAULT_STREAM_CACHE_THRESHOLD));
+        lastKnownGood = new LastKnownGood(Math.max(0,
+                PropertiesUtil.toInteger(config.get(LAST_KNOWN_GOOD_SIZE), DEFAULT_LAST_KNOWN_GOOD_SIZE)));
+        refreshExecutor = createExecutor("Demandware preview refresh",
+                PropertiesUtil.toInteger(config.get(REFRESH_THREADS), DEFAULT_REFRESH_THREADS),
+                PropertiesUtil.toInteger(config.get(REFRESH_QUEUE_SIZE), DEFAULT_REFRESH_QUEUE_SIZE));
+        prefetchExecutor = createExecutor("Demandware preview prefetch",
+                PropertiesUtil.toInteger(config.get(PREFETCH_THREADS), DEFAULT_PREFETCH_THREADS),
+                PropertiesUtil.toInteger(config.get(PREFETCH_QUEUE_SIZE), DEFAULT_PREFETCH_QUEUE_SIZE));
+        completionExecutor = createExecutor("Demandware preview completion",
+                PropertiesUtil.toInteger(config.get(COMPLETION_THREADS), DEFAULT_COMPLETION_THREADS),
+                COMPLETION_QUEUE_SIZE);
+        // an overloaded executor must not leave a preview uncompleted
+        completionExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            final Hashtable<String, Object> props = new Hashtable<>();
+            props.put("jmx.objectname", "com.adobe.cq.commerce.demandware:type=PreviewService");
+            statsRegistration = bundleContext.registerService(DynamicMBean.class.getName(),
+                    new StandardMBean(new PreviewServiceStats(this), PreviewServiceStatsMXBean.class, true), props);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Cannot register preview service statistics MBean", e);
+        }
+    }
+    
+    @Deactivate
+    protected void deactivate() {
+        if (statsRegistration != null) {
+            statsRegistration.unregister();
+            statsRegistration = null;
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+        if (completionExecutor != null) {
+            completionExecutor.shutdown();
+        }
+        previewClients.clear();
+    }
+    
+    /**
+     * Create a bounded executor of daemon threads, rejecting tasks if the queue is full.
+     */
+    private static ThreadPoolExecutor createExecutor(final String name, final int threads, final int queueSize) {
+        final int poolSize = Math.max(1, threads);
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), runnable -> {
+                    final Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
     
     
     @Override
     public String previewComponent(Resource resource, boolean useCache) {
+        return previewComponent((PreviewContext) null, resource, useCache);
+    }
+    
+    @Override
+    public String previewComponent(Resource resource, boolean useCache, String... selectors) {
         if (resource != null) {
-            return getPreviewContent(resource, useCache, null, DemandwareCommerceConstants.DWRE_RENDERING_SELECTOR);
+            return getPreviewContent(createPreviewContext(getPage(resource)), resource, useCache, false, selectors);
         } else {
             return null;
         }
     }
     
     @Override
-    public String previewComponent(Resource resource, boolean useCache, String... selectors) {
+    public String previewCategoryComponent(Resource resource, boolean useCache) {
+        return previewCategoryComponent((PreviewContext) null, resource, useCache);
+    }
+    
+    @Override
+    public PreviewContext getPreviewContext(SlingHttpServletRequest request, Resource resource) {
+        @SuppressWarnings("unchecked")
+        Map<String, PreviewContext> contexts = (Map<String, PreviewContext>) request.getAttribute(
+                PreviewContext.REQUEST_ATTRIBUTE);
+        if (contexts == null) {
+            contexts = new HashMap<>();
+            request.setAttribute(PreviewContext.REQUEST_ATTRIBUTE, contexts);
+        }
+        final PreviewContext context = getPreviewContext(contexts, resource);
+        final Object renderStart = request.getAttribute(RENDER_START_ATTRIBUTE);
+        if (context != null && context.getDeadline() == 0 && renderDeadline > 0 && renderStart instanceof Long) {
+            context.setDeadline((Long) renderStart + renderDeadline);
+        }
+        return context;
+    }
+    
+    @Override
+    public String previewComponent(PreviewContext context, Resource resource, boolean useCache) {
         if (resource != null) {
-            return getPreviewContent(resource, useCache, null, selectors);
+            return getPreviewContent(resolvePreviewContext(context, resource), resource, useCache, false,
+                    DemandwareCommerceConstants.DWRE_RENDERING_SELECTOR);
         } else {
             return null;
         }
     }
     
     @Override
-    public String previewCategoryComponent(Resource resource, boolean useCache) {
+    public String previewCategoryComponent(PreviewContext context, Resource resource, boolean useCache) {
         if (resource != null) {
-            final Page page = resource.getResourceResolver().adaptTo(PageManager.class).getContainingPage(resource);
-            // add the category id parameter, using the page property if existing with fall back to page name
-            final List<NameValuePair> params = new ArrayList<NameValuePair>();
-            params.add(new BasicNameValuePair("cgid", page.getProperties().get("dwreCGID", page.getName())));
-            return getPreviewContent(resource, useCache, params, DemandwareCommerceConstants.DWRE_RENDERING_SELECTOR);
+            return getPreviewContent(resolvePreviewContext(context, resource), resource, useCache, true,
+                    DemandwareCommerceConstants.DWRE_RENDERING_SELECTOR);
         } else {
             return null;
         }
     }
     
-    private String getPreviewContent(final Resource resource, final boolean useCache,
-                                     final List<NameValuePair> params, final String... selectores) {
-        String renderedPreview = "";
-        PreviewServiceConfig previewServiceConfig = getPreviewServiceConfig(resource);
-        final String endPoint = previewServiceConfig.getPreviewPageEndPoint();
-        PreviewCache cache = previewServiceConfig.getCache();
-        // check for cached preview content
-        if (useCache && cache != null) {
-            renderedPreview = cache.get(resource);
-            if (StringUtils.isNotEmpty(renderedPreview)) {
-                LOG.debug("Render previewComponent for {} from cache", resource.getPath());
-                return renderedPreview;
-            }
+    @Override
+    public void previewComponent(PreviewContext context, Resource resource, boolean useCache, Writer out)
+            throws IOException {
+        if (resource != null) {
+            writePreviewContent(resolvePreviewContext(context, resource), resource, useCache, false, out);
+        }
+    }
+    
+    @Override
+    public void previewCategoryComponent(PreviewContext context, Resource resource, boolean useCache, Writer out)
+            throws IOException {
+        if (resource != null) {
+            writePreviewContent(resolvePreviewContext(context, resource), resource, useCache, true, out);
+        }
+    }
+    
+    @Override
+    public CompletableFuture<String> previewComponentAsync(PreviewContext context, Resource resource,
+                                                           boolean useCache) {
+        if (resource != null) {
+            return getPreviewContentAsync(resolvePreviewContext(context, resource), resource, useCache, false);
+        } else {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+    
+    @Override
+    public CompletableFuture<String> previewCategoryComponentAsync(PreviewContext context, Resource resource,
+                                                                   boolean useCache) {
+        if (resource != null) {
+            return getPreviewContentAsync(resolvePreviewContext(context, resource), resource, useCache, true);
+        } else {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+    
+    @Override
+    public Map<String, String> previewComponents(List<Resource> resources, boolean useCache) {
+        return getPreviewContents(null, resources, useCache, false);
+    }
+    
+    @Override
+    public Map<String, String> previewCategoryComponents(List<Resource> resources, boolean useCache) {
+        return getPreviewContents(null, resources, useCache, true);
+    }
+    
+    @Override
+    public Map<String, String> previewComponents(PreviewContext context, List<Resource> resources,
+                                                 boolean useCache) {
+        return getPreviewContents(context, resources, useCache, false);
+    }
+    
+    @Override
+    public Map<String, String> previewCategoryComponents(PreviewContext context, List<Resource> resources,
+                                                         boolean useCache) {
+        return getPreviewContents(context, resources, useCache, true);
+    }
+    
+    @Override
+    public void prefetchComponents(List<Resource> resources, boolean useCache) {
+        prefetch(null, resources, useCache, false);
+    }
+    
+    @Override
+    public void prefetchCategoryComponents(List<Resource> resources, boolean useCache) {
+        prefetch(null, resources, useCache, true);
+    }
+    
+    @Override
+    public void prefetchComponents(PreviewContext context, List<Resource> resources, boolean useCache) {
+        prefetch(context, resources, useCache, false);
+    }
+    
+    @Override
+    public void prefetchCategoryComponents(PreviewContext context, List<Resource> resources, boolean useCache) {
+        prefetch(context, resources, useCache, true);
+    }
+    
+    /**
+     * Add the category id parameter, using the page property if existing with fall back to page name.
+     */
+    private List<NameValuePair> getCategoryParameters(final Page page) {
+        final List<NameValuePair> params = new ArrayList<NameValuePair>();
+        params.add(new BasicNameValuePair("cgid", page.getProperties().get("dwreCGID", page.getName())));
+        return params;
+    }
+    
+    private String getPreviewContent(final PreviewContext context, final Resource resource, final boolean useCache,
+                                     final boolean category, final String... selectores) {
+        if (context == null) {
+            // not part of a page or no preview configuration for its instance
+            return null;
+        }
+        final String batchedPreview = context.getPreview(resource.getPath());
+        if (batchedPreview != null && Arrays.equals(selectores, DEFAULT_SELECTORS)) {
+            return batchedPreview;
+        }
+        PreviewServiceConfig previewServiceConfig = context.getPreviewServiceConfig();
+        PreviewCache cache = useCache ? previewServiceConfig.getCache() : null;
+        
+        // render AEM component for Demandware, custom selectors render a different markup than the prefetch
+        final String renderedComponentContent = Arrays.equals(selectores, DEFAULT_SELECTORS)
+                ? renderComponent(context, resource) : renderService.render(resource, null, selectores);
+        DemandwareClient demandwareClient = context.getDemandwareClient();
+        final PreviewRequest previewRequest = createPreviewRequest(resource, context,
+                category ? getCategoryParameters(context.getPage()) : null, renderedComponentContent);
+        
+        String renderedPreview = getCachedPreview(resource.getPath(), previewServiceConfig, demandwareClient,
+                previewRequest, cache);
+        if (StringUtils.isEmpty(renderedPreview) && isAvailable(resource.getPath(), previewRequest)) {
+            renderedPreview = fetchPreview(resource.getPath(), previewServiceConfig, demandwareClient, previewRequest,
+                    cache);
+        }
+        
+        if (StringUtils.isEmpty(renderedPreview)) {
+            renderedPreview = fallback(resource.getPath());
         }
         
+        return renderedPreview;
+    }
+    
+    /**
+     * Render the component and write its preview to the writer, streaming the preview from Demandware if not cached.
+     * A preview exceeding the stream cache threshold cannot be shared without buffering it, so an identical preview
+     * already requested is awaited but the streamed request is not awaited by others.
+     */
+    private void writePreviewContent(final PreviewContext context, final Resource resource, final boolean useCache,
+                                     final boolean category, final Writer out) throws IOException {
+        if (context == null) {
+            return;
+        }
+        final String path = resource.getPath();
+        final String batchedPreview = context.getPreview(path);
+        if (batchedPreview != null) {
+            out.write(batchedPreview);
+            return;
+        }
+        PreviewServiceConfig previewServiceConfig = context.getPreviewServiceConfig();
+        PreviewCache cache = useCache ? previewServiceConfig.getCache() : null;
+        
         // render AEM component for Demandware
-        final String renderedComponentContent = renderService.render(resource, null, selectores);
-        final Page containingPage = getPage(resource);
-        DemandwareClient demandwareClient = getDemandwareClient(containingPage);
+        final String renderedComponentContent = renderComponent(context, resource);
+        DemandwareClient demandwareClient = context.getDemandwareClient();
+        final PreviewRequest previewRequest = createPreviewRequest(resource, context,
+                category ? getCategoryParameters(context.getPage()) : null, renderedComponentContent);
         
-        final HttpClientBuilder httpClientBuilder = demandwareClient.getHttpClientBuilder();
+        String renderedPreview = getCachedPreview(path, previewServiceConfig, demandwareClient, previewRequest,
+                cache);
+        if (StringUtils.isEmpty(renderedPreview) && isAvailable(path, previewRequest)) {
+            final CompletableFuture<String> leader = inFlight.get(previewRequest.getCacheKey());
+            renderedPreview = leader != null ? awaitPreview(path, previewRequest, leader) : null;
+            if (renderedPreview == null && (leader == null || isAvailable(path, previewRequest))
+                    && stream(path, previewServiceConfig, demandwareClient, previewRequest, cache, out)) {
+                return;
+            }
+        }
         
-        if (previewServiceConfig.getStorfrontProtectionEnabled()) {
-            credentialsProvider = createCredentialsProvider(previewServiceConfig, demandwareClient);
+        if (StringUtils.isEmpty(renderedPreview)) {
+            renderedPreview = fallback(path);
+        }
+        out.write(renderedPreview);
+    }
+    
+    /**
+     * Render the component and request its preview with the non-blocking client, joining an identical preview already
+     * requested instead of sending the same request again.
+     */
+    private CompletableFuture<String> getPreviewContentAsync(final PreviewContext context, final Resource resource,
+                                                             final boolean useCache, final boolean category) {
+        if (context == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        final String path = resource.getPath();
+        final String batchedPreview = context.getPreview(path);
+        if (batchedPreview != null) {
+            return CompletableFuture.completedFuture(batchedPreview);
+        }
+        PreviewServiceConfig previewServiceConfig = context.getPreviewServiceConfig();
+        PreviewCache cache = useCache ? previewServiceConfig.getCache() : null;
+        
+        // render AEM component for Demandware, resources must not leave the calling thread
+        final String renderedComponentContent = renderComponent(context, resource);
+        DemandwareClient demandwareClient = context.getDemandwareClient();
+        final PreviewRequest previewRequest = createPreviewRequest(resource, context,
+                category ? getCategoryParameters(context.getPage()) : null, renderedComponentContent);
         
-        if (credentialsProvider != null) {
-            httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+        final String cachedPreview = getCachedPreview(path, previewServiceConfig, demandwareClient, previewRequest,
+                cache);
+        if (StringUtils.isNotEmpty(cachedPreview)) {
+            return CompletableFuture.completedFuture(cachedPreview);
+        }
+        if (!isAvailable(path, previewRequest)) {
+            return CompletableFuture.completedFuture(fallback(path));
         }
-        final CloseableHttpClient httpClient = httpClientBuilder.build();
         
-        CloseableHttpResponse responseObj = null;
-        try {
-            final RequestBuilder requestBuilder = RequestBuilder.post();
-            String previewEndpoint;
-            previewEndpoint = StringUtils.replace(endPoint, "{site}", getSite(previewServiceConfig, containingPage));
-            previewEndpoint = StringUtils.replace(previewEndpoint, "{locale}", getLanguage(containingPage));
+        final CompletableFuture<String> flight = new CompletableFuture<>();
+        final CompletableFuture<String> leader = inFlight.putIfAbsent(previewRequest.getCacheKey(), flight);
+        if (leader != null) {
+            coalescedCount.increment();
+            return leader.handle((renderedPreview, e) -> StringUtils.isNotEmpty(renderedPreview)
+                    ? renderedPreview : fallback(path));
+        }
+        // runs on the completion executor, caching and storing the preview must not stall the I/O threads
+        executeAsync(path, previewServiceConfig, demandwareClient, previewRequest).whenComplete(
+                (renderedPreview, e) -> {
+                    try {
+                        if (StringUtils.isNotEmpty(renderedPreview)) {
+                            LOG.debug("Render previewComponent for {} freshly rendered from DWRE", path);
+                            rendered(path, previewRequest, renderedPreview, cache);
+                        } else {
+                            failed(previewRequest);
+                        }
+                    } finally {
+                        land(previewRequest.getCacheKey(), flight, StringUtils.defaultString(renderedPreview));
+                    }
+                });
+        return flight.thenApply(renderedPreview -> StringUtils.isNotEmpty(renderedPreview)
+                ? renderedPreview : fallback(path));
+    }
+    
+    /**
+     * Render the previews of all components, requesting the previews not cached in one batch request per preview
+     * endpoint and parameters. The rendered previews are kept in the context if given.
+     */
+    private Map<String, String> getPreviewContents(final PreviewContext context, final List<Resource> resources,
+                                                   final boolean useCache, final boolean category) {
+        final Map<String, String> renderedPreviews = new LinkedHashMap<>();
+        final Map<String, PendingBatch> batches = new LinkedHashMap<>();
+        collectPreviews(context, resources, useCache, category, renderedPreviews, batches);
+        for (PendingBatch batch : batches.values()) {
+            for (Map.Entry<String, String> renderedPreview : fetchPreviews(batch).entrySet()) {
+                renderedPreviews.put(renderedPreview.getKey(),
+                        StringUtils.defaultIfEmpty(renderedPreview.getValue(), null));
+            }
+        }
+        for (Map.Entry<String, String> renderedPreview : renderedPreviews.entrySet()) {
+            if (StringUtils.isNotEmpty(renderedPreview.getValue())) {
+                if (context != null) {
+                    context.putPreview(renderedPreview.getKey(), renderedPreview.getValue());
+                }
+            } else if (renderedPreview.getValue() == null) {
+                // not rendered, not requested as failed recently or as the render deadline is exceeded
+                renderedPreview.setValue(fallback(renderedPreview.getKey()));
+            }
+        }
+        return renderedPreviews;
+    }
+    
+    /**
+     * Request the previews not cached in the background, one task per batch. The requests are registered as in
+     * flight before this method returns, so subsequent preview calls wait for them. The rendered previews are kept in
+     * the context of their page, so the placeholders collect them even if the cache is disabled or rejected them.
+     */
+    private void prefetch(final PreviewContext context, final List<Resource> resources, final boolean useCache,
+                          final boolean category) {
+        final Map<String, PendingBatch> batches = new LinkedHashMap<>();
+        collectPreviews(context, resources, useCache, category, new HashMap<>(), batches);
+        for (PendingBatch pending : batches.values()) {
+            final Map<String, CompletableFuture<String>> leaders = new HashMap<>();
+            final Map<String, CompletableFuture<String>> flights = claim(pending, leaders);
+            keepInContext(pending, flights, leaders);
+            if (flights.isEmpty()) {
+                continue;
+            }
             try {
-                requestBuilder.setUri(DemandwareClient.DEFAULT_SCHEMA + demandwareClient.getEndpoint() + previewEndpoint);
-            } catch (IllegalArgumentException e) {
-                LOG.error("Unable to set preview URI: {}", e.getMessage());
+                prefetchExecutor.execute(() -> requestPreviews(pending, flights));
+                prefetchCount.add(flights.size());
+            } catch (RejectedExecutionException e) {
+                prefetchRejectedCount.add(flights.size());
+                // the waiting callers request the previews themselves
+                for (Map.Entry<String, CompletableFuture<String>> flight : flights.entrySet()) {
+                    flight.getValue().completeExceptionally(e);
+                    inFlight.remove(flight.getKey(), flight.getValue());
+                }
             }
-            
-            // add parameters, headers, body
-            if (params != null) {
-                for (NameValuePair param : params) {
-                    requestBuilder.addParameter(param);
+        }
+    }
+    
+    /**
+     * Put the previews of the batch into the context of their page once rendered. The futures complete before they
+     * are removed from the in flight previews, so a placeholder finds the preview in one of both.
+     */
+    private static void keepInContext(final PendingBatch pending, final Map<String, CompletableFuture<String>> flights,
+                                      final Map<String, CompletableFuture<String>> leaders) {
+        for (int i = 0; i < pending.requests.size(); i++) {
+            final String key = pending.requests.get(i).getCacheKey();
+            final CompletableFuture<String> flight = flights.containsKey(key) ? flights.get(key) : leaders.get(key);
+            if (flight == null) {
+                continue;
+            }
+            final PreviewContext context = pending.contexts.get(i);
+            final String path = pending.paths.get(i);
+            flight.thenAccept(renderedPreview -> {
+                if (StringUtils.isNotEmpty(renderedPreview)) {
+                    context.putPreview(path, renderedPreview);
                 }
+            });
+        }
+    }
+    
+    /**
+     * Render the components and look up their cached previews. The previews not cached are grouped into batches by
+     * preview endpoint and parameters, or one batch per preview if no batch endpoint is configured.
+     *
+     * @param context          context of the page of the components, the rendered components are kept in it, may be
+     *                         {@code null}
+     * @param renderedPreviews receives the cached previews by resource path, in the order of the resources, or
+     *                         {@code null} if the preview is not cached, cached previews are kept in the context
+     * @param batches          receives the previews to be requested by batch key
+     */
+    private void collectPreviews(final PreviewContext pageContext, final List<Resource> resources,
+                                 final boolean useCache, final boolean category,
+                                 final Map<String, String> renderedPreviews, final Map<String, PendingBatch> batches) {
+        // the components are mostly part of few pages, resolve the context of each page once
+        final Map<String, PreviewContext> contexts = new HashMap<>();
+        if (pageContext != null) {
+            contexts.put(pageContext.getPage().getPath(), pageContext);
+        }
+        for (Resource resource : resources) {
+            if (resource == null) {
+                continue;
             }
-            requestBuilder.addParameter("template", previewServiceConfig.getPreviewTemplate());
-            requestBuilder.addHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_HTML.getMimeType());
-            requestBuilder.setEntity(new StringEntity(renderedComponentContent, ContentType.TEXT_HTML));
+            final PreviewContext context = getPreviewContext(contexts, resource);
+            if (context == null) {
+                renderedPreviews.put(resource.getPath(), "");
+                continue;
+            }
+            final PreviewServiceConfig previewServiceConfig = context.getPreviewServiceConfig();
+            final PreviewCache cache = useCache ? previewServiceConfig.getCache() : null;
+            final DemandwareClient demandwareClient = context.getDemandwareClient();
+            final String renderedComponentContent = renderComponent(context, resource);
+            if (StringUtils.isBlank(renderedComponentContent)) {
+                // nothing to preview, e.g. a placeholder not configured yet
+                renderedPreviews.put(resource.getPath(), "");
+                continue;
+            }
+            final PreviewRequest previewRequest = createPreviewRequest(resource, context,
+                    category ? getCategoryParameters(context.getPage()) : null, renderedComponentContent);
             
-            final HttpUriRequest requestObj = requestBuilder.build();
-            responseObj = httpClient.execute(requestObj);
+            final String renderedPreview = getCachedPreview(resource.getPath(), previewServiceConfig,
+                    demandwareClient, previewRequest, cache);
+            if (StringUtils.isNotEmpty(renderedPreview)) {
+                renderedPreviews.put(resource.getPath(), renderedPreview);
+                context.putPreview(resource.getPath(), renderedPreview);
+                continue;
+            }
+            // keep the order of the resources, the preview is added once the batch is rendered
+            renderedPreviews.put(resource.getPath(), null);
+            if (!isAvailable(resource.getPath(), previewRequest)) {
+                continue;
+            }
+            final String batchUri = StringUtils.isNotEmpty(previewServiceConfig.getPreviewBatchEndPoint())
+                    ? getEndpointUri(previewServiceConfig.getPreviewBatchEndPoint(), context) : null;
+            final String batchKey = batchUri != null
+                    ? previewServiceConfig.getInstanceId() + " " + batchUri + " " + previewRequest.getParameters()
+                    : previewRequest.getCacheKey();
+            batches.computeIfAbsent(batchKey, key -> new PendingBatch(previewServiceConfig, demandwareClient, cache,
+                    batchUri, previewRequest.getParameters())).add(resource.getPath(), previewRequest, context);
+        }
+    }
+    
+    /**
+     * Get the cached preview. An expired preview still within the grace time is returned while it is refreshed in the
+     * background.
+     *
+     * @return the cached preview or {@code null} if not cached
+     */
+    private String getCachedPreview(final String path, final PreviewServiceConfig previewServiceConfig,
+                                    final DemandwareClient demandwareClient, final PreviewRequest previewRequest,
+                                    final PreviewCache cache) {
+        // check for cached preview content, equal markup and request parameters share the cached preview
+        if (cache == null) {
+            return null;
+        }
+        String renderedPreview = cache.get(previewRequest);
+        if (StringUtils.isNotEmpty(renderedPreview)) {
+            LOG.debug("Render previewComponent for {} from cache", path);
+            return renderedPreview;
+        }
+        // serve the expired preview while it is refreshed in the background
+        renderedPreview = cache.getStale(previewRequest);
+        if (StringUtils.isNotEmpty(renderedPreview)) {
+            LOG.debug("Render previewComponent for {} from stale cache", path);
+            refresh(path, previewServiceConfig, demandwareClient, previewRequest, cache);
+            return renderedPreview;
+        }
+        return null;
+    }
+    
+    /**
+     * Request the preview from Demandware, or wait for an identical preview already requested instead of sending the
+     * same request again.
+     *
+     * @return the rendered preview or an empty string if the preview could not be rendered
+     */
+    private String fetchPreview(final String path, final PreviewServiceConfig previewServiceConfig,
+                                final DemandwareClient demandwareClient, final PreviewRequest previewRequest,
+                                final PreviewCache cache) {
+        final CompletableFuture<String> flight = new CompletableFuture<>();
+        final CompletableFuture<String> leader = inFlight.putIfAbsent(previewRequest.getCacheKey(), flight);
+        if (leader != null) {
+            final String renderedPreview = awaitPreview(path, previewRequest, leader);
+            return renderedPreview != null ? renderedPreview : isAvailable(path, previewRequest)
+                    ? requestPreview(path, previewServiceConfig, demandwareClient, previewRequest, cache) : "";
+        }
+        String renderedPreview = "";
+        try {
+            renderedPreview = requestPreview(path, previewServiceConfig, demandwareClient, previewRequest, cache);
+        } finally {
+            land(previewRequest.getCacheKey(), flight, renderedPreview);
+        }
+        return renderedPreview;
+    }
+    
+    /**
+     * Request the previews of the batch from Demandware. Previews already requested concurrently are awaited instead.
+     *
+     * @return the rendered previews by resource path, empty if the preview could not be rendered
+     */
+    private Map<String, String> fetchPreviews(final PendingBatch pending) {
+        final Map<String, CompletableFuture<String>> leaders = new HashMap<>();
+        final Map<String, String> renderedPreviews = requestPreviews(pending, claim(pending, leaders));
+        for (PreviewRequest previewRequest : pending.requests) {
+            final String key = previewRequest.getCacheKey();
+            final CompletableFuture<String> leader = leaders.get(key);
+            if (leader != null && !renderedPreviews.containsKey(key)) {
+                final String renderedPreview = awaitPreview(previewRequest.getPath(), previewRequest, leader);
+                renderedPreviews.put(key, renderedPreview != null ? renderedPreview
+                        : isAvailable(previewRequest.getPath(), previewRequest)
+                        ? requestPreview(previewRequest.getPath(), pending.config, pending.client, previewRequest,
+                        pending.cache) : "");
+            }
+        }
+        
+        final Map<String, String> previewsByPath = new HashMap<>();
+        for (int i = 0; i < pending.paths.size(); i++) {
+            previewsByPath.put(pending.paths.get(i), renderedPreviews.get(pending.requests.get(i).getCacheKey()));
+        }
+        return previewsByPath;
+    }
+    
+    /**
+     * Register the previews of the batch as in flight.
+     *
+     * @param leaders receives the previews already requested concurrently by cache key
+     * @return the futures of the previews to be requested by the caller by cache key
+     */
+    private Map<String, CompletableFuture<String>> claim(final PendingBatch pending,
+                                                         final Map<String, CompletableFuture<String>> leaders) {
+        final Map<String, CompletableFuture<String>> flights = new LinkedHashMap<>();
+        for (PreviewRequest previewRequest : pending.requests) {
+            final String key = previewRequest.getCacheKey();
+            if (flights.containsKey(key) || leaders.containsKey(key)) {
+                continue;
+            }
+            final CompletableFuture<String> flight = new CompletableFuture<>();
+            final CompletableFuture<String> leader = inFlight.putIfAbsent(key, flight);
+            if (leader != null) {
+                leaders.put(key, leader);
+            } else {
+                flights.put(key, flight);
+            }
+        }
+        return flights;
+    }
+    
+    /**
+     * Request the claimed previews of the batch, in one request if a batch endpoint is configured, and complete their
+     * futures. Previews missing in the batch response are requested separately.
+     *
+     * @return the rendered previews by cache key, empty if the preview could not be rendered
+     */
+    private Map<String, String> requestPreviews(final PendingBatch pending,
+                                                final Map<String, CompletableFuture<String>> flights) {
+        final PreviewBatch batch = new PreviewBatch(pending.uri, pending.parameters);
+        for (PreviewRequest previewRequest : pending.requests) {
+            if (flights.containsKey(previewRequest.getCacheKey())) {
+                batch.add(previewRequest);
+            }
+        }
+        final Map<String, String> renderedPreviews = new HashMap<>();
+        try {
+            if (pending.uri != null && batch.size() > 1) {
+                // back off from a failing batch endpoint, rather than sending it with each page in vain
+                final String batchKey = BATCH_KEY_PREFIX + pending.config.getInstanceId() + " " + pending.uri;
+                if (isNegative(batchKey)) {
+                    LOG.debug("Batch preview endpoint {} failed recently, request the previews separately",
+                            pending.uri);
+                } else {
+                    final Map<String, String> batchedPreviews = requestBatch(pending.config, pending.client, batch,
+                            pending.cache);
+                    if (batchedPreviews.isEmpty()) {
+                        failed(batchKey);
+                    }
+                    renderedPreviews.putAll(batchedPreviews);
+                }
+            }
+            for (PreviewRequest previewRequest : batch.getRequests()) {
+                if (StringUtils.isEmpty(renderedPreviews.get(previewRequest.getCacheKey()))) {
+                    renderedPreviews.put(previewRequest.getCacheKey(), requestPreview(previewRequest.getPath(),
+                            pending.config, pending.client, previewRequest, pending.cache));
+                }
+            }
+        } finally {
+            for (Map.Entry<String, CompletableFuture<String>> flight : flights.entrySet()) {
+                land(flight.getKey(), flight.getValue(), renderedPreviews.get(flight.getKey()));
+            }
+        }
+        return renderedPreviews;
+    }
+    
+    /**
+     * Wait for the preview requested concurrently, at most until the render deadline is exceeded.
+     *
+     * @return the rendered preview, an empty string if the preview could not be rendered in time or {@code null} if it
+     * has to be requested again
+     */
+    private String awaitPreview(final String path, final PreviewRequest previewRequest,
+                                final CompletableFuture<String> leader) {
+        coalescedCount.increment();
+        final long timeout = Math.min(coalesceTimeout, getRemainingTime(previewRequest));
+        try {
+            final String renderedPreview = leader.get(timeout, TimeUnit.MILLISECONDS);
+            LOG.debug("Render previewComponent for {} from concurrent request", path);
+            return StringUtils.defaultString(renderedPreview);
+        } catch (TimeoutException e) {
+            if (timeout < coalesceTimeout) {
+                deadlineExceededCount.increment();
+                LOG.debug("Concurrent preview request for {} not completed within the render deadline", path);
+                return "";
+            }
+            coalesceTimeoutCount.increment();
+            LOG.debug("Concurrent preview request for {} not completed in time, request again", path);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        } catch (ExecutionException e) {
+            LOG.debug("Concurrent preview request for {} failed, request again", path);
+        }
+        return null;
+    }
+    
+    /**
+     * Complete the in flight preview and remove it. The future is completed before its removal, so no caller waits on
+     * a future which is never completed.
+     */
+    private void land(final String key, final CompletableFuture<String> flight, final String renderedPreview) {
+        flight.complete(renderedPreview);
+        inFlight.remove(key, flight);
+    }
+    
+    /**
+     * Refresh the stale preview in the background, unless it is already requested. The stale preview is kept if the
+     * refresh fails.
+     */
+    private void refresh(final String path, final PreviewServiceConfig previewServiceConfig,
+                         final DemandwareClient demandwareClient, final PreviewRequest previewRequest,
+                         final PreviewCache cache) {
+        final String key = previewRequest.getCacheKey();
+        if (isNegative(key)) {
+            // keep the stale preview until the failed preview may be requested again
+            return;
+        }
+        final CompletableFuture<String> flight = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, flight) != null) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                String renderedPreview = null;
+                try {
+                    renderedPreview = requestPreview(path, previewServiceConfig, demandwareClient, previewRequest,
+                            cache);
+                    if (StringUtils.isEmpty(renderedPreview)) {
+                        refreshFailureCount.increment();
+                        LOG.debug("Refresh of stale preview for {} failed, keep the stale preview", path);
+                    }
+                } finally {
+                    land(key, flight, renderedPreview);
+                }
+            });
+            refreshCount.increment();
+        } catch (RejectedExecutionException e) {
+            refreshRejectedCount.increment();
+            land(key, flight, null);
+        }
+    }
+    
+    /**
+     * Request the preview from Demandware. A failed preview is not requested again until the failed preview TTL
+     * elapsed.
+     *
+     * @return the rendered preview or an empty string if the preview could not be rendered
+     */
+    private String requestPreview(final String path, final PreviewServiceConfig previewServiceConfig,
+                                  final DemandwareClient demandwareClient, final PreviewRequest previewRequest,
+                                  final PreviewCache cache) {
+        final String renderedPreview = execute(path, previewServiceConfig, demandwareClient,
+                previewRequest::toHttpRequest);
+        if (StringUtils.isNotEmpty(renderedPreview)) {
+            LOG.debug("Render previewComponent for {} freshly rendered from DWRE", path);
+            rendered(path, previewRequest, renderedPreview, cache);
+        } else {
+            failed(previewRequest);
+        }
+        return renderedPreview;
+    }
+    
+    /**
+     * Cache the rendered preview and keep it as last known good preview.
+     */
+    private void rendered(final String path, final PreviewRequest previewRequest, final String renderedPreview,
+                          final PreviewCache cache) {
+        if (cache != null) {
+            cache.put(previewRequest, renderedPreview);
+        }
+        negative.remove(previewRequest.getCacheKey());
+        lastKnownGood.put(path, renderedPreview);
+    }
+    
+    /**
+     * Remember the failed preview, so it is not requested again until the failed preview TTL elapsed.
+     */
+    private void failed(final PreviewRequest previewRequest) {
+        failed(previewRequest.getCacheKey());
+    }
+    
+    /**
+     * Remember the failed request by its key, see {@link #failed(PreviewRequest)}.
+     */
+    private void failed(final String key) {
+        if (negativeTtl <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        negative.put(key, now + negativeTtl);
+        if (negative.size() > MAX_NEGATIVE_ENTRIES) {
+            negative.values().removeIf(until -> until <= now);
+        }
+    }
+    
+    private boolean isNegative(final String key) {
+        final Long until = negative.get(key);
+        if (until == null) {
+            return false;
+        }
+        if (until <= System.currentTimeMillis()) {
+            negative.remove(key, until);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Check whether the preview may be requested from Demandware, i.e. it did not fail recently and the render deadline
+     * is not exceeded.
+     */
+    private boolean isAvailable(final String path, final PreviewRequest previewRequest) {
+        if (isNegative(previewRequest.getCacheKey())) {
+            negativeHitCount.increment();
+            LOG.debug("Preview for {} failed recently, not requested again", path);
+            return false;
+        }
+        if (getRemainingTime(previewRequest) <= 0) {
+            deadlineExceededCount.increment();
+            LOG.debug("Render deadline exceeded, preview for {} not requested", path);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * @return the time in ms left until the render deadline of the preview, {@link Long#MAX_VALUE} if it has none
+     */
+    private static long getRemainingTime(final PreviewRequest previewRequest) {
+        final long deadline = previewRequest.getDeadline();
+        return deadline > 0 ? Math.max(0, deadline - System.currentTimeMillis()) : Long.MAX_VALUE;
+    }
+    
+    /**
+     * @return the last known good preview of the component or the error placeholder
+     */
+    private String fallback(final String path) {
+        final String renderedPreview = lastKnownGood.get(path);
+        if (renderedPreview != null) {
+            lastKnownGoodCount.increment();
+            LOG.debug("Render previewComponent for {} from last known good preview", path);
+            return renderedPreview;
+        }
+        fallbackPlaceholderCount.increment();
+        return ERROR_MSG;
+    }
+    
+    /**
+     * Request the previews of the batch from Demandware in one request.
+     *
+     * @return the rendered previews by cache key, previews missing in the response are not contained, empty if the
+     * batch request failed
+     */
+    private Map<String, String> requestBatch(final PreviewServiceConfig previewServiceConfig,
+                                             final DemandwareClient demandwareClient, final PreviewBatch batch,
+                                             final PreviewCache cache) {
+        batchCount.increment();
+        final Map<String, String> renderedPreviews = batch.split(execute(batch.toString(), previewServiceConfig,
+                demandwareClient, batch::toHttpRequest));
+        renderedPreviews.values().removeIf(StringUtils::isEmpty);
+        if (renderedPreviews.isEmpty()) {
+            LOG.warn("Demandware batch preview request to {} failed, request {} previews separately",
+                    batch.getUri(), batch.size());
+            return renderedPreviews;
+        }
+        for (PreviewRequest previewRequest : batch.getRequests()) {
+            final String renderedPreview = renderedPreviews.get(previewRequest.getCacheKey());
+            if (StringUtils.isNotEmpty(renderedPreview)) {
+                batchedCount.increment();
+                LOG.debug("Render previewComponent for {} freshly rendered from DWRE batch", previewRequest.getPath());
+                rendered(previewRequest.getPath(), previewRequest, renderedPreview, cache);
+            } else {
+                LOG.warn("Preview for {} missing in the Demandware batch response, request separately",
+                        previewRequest.getPath());
+            }
+        }
+        return renderedPreviews;
+    }
+    
+    /**
+     * Send the preview request to Demandware.
+     *
+     * @return the response body or an empty string if the request failed
+     */
+    private String execute(final String path, final PreviewServiceConfig previewServiceConfig,
+                           final DemandwareClient demandwareClient, final Supplier<HttpUriRequest> request) {
+        String renderedPreview = "";
+        requestCount.increment();
+        final PreviewClient previewClient = getPreviewClient(previewServiceConfig, demandwareClient);
+        
+        CloseableHttpResponse responseObj = null;
+        try {
+            final HttpUriRequest requestObj = request.get();
+            responseObj = previewClient.execute(requestObj);
             if (responseObj != null) {
                 final StatusLine statusLine = responseObj.getStatusLine();
                 if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
                     renderedPreview = EntityUtils.toString(responseObj.getEntity());
-                    LOG.debug("Render previewComponent for {} freshly rendered from DWRE", resource.getPath());
-                    if (useCache && cache != null && StringUtils.isNotEmpty(renderedPreview)) {
-                        cache.put(resource, renderedPreview);
-                    }
                 } else {
                     LOG.error("Failed to render live Demandware preview for {}. \n" +
-                                    "> Demandware request: {} \n> Demandware response: {}", resource.getPath(),
+                                    "> Demandware request: {} \n> Demandware response: {}", path,
                             requestObj.getRequestLine().toString(), statusLine.toString());
                 }
             }
+        } catch (IllegalArgumentException e) {
+            LOG.error("Unable to set preview URI: {}", e.getMessage());
         } catch (IOException e) {
-            LOG.error("Failed to render live Demandware preview for {}", resource.getPath(), e);
+            LOG.error("Failed to render live Demandware preview for {}", path, e);
+        } catch (DemandwareCallNotPermittedException e) {
+            LOG.warn("Live Demandware preview for {} not rendered: {}", path, e.getMessage());
         } finally {
             HttpClientUtils.closeQuietly(responseObj);
-            HttpClientUtils.closeQuietly(httpClient);
         }
-        
-        if (StringUtils.isEmpty(renderedPreview)) {
-            renderedPreview = ERROR_MSG;
+        return StringUtils.defaultString(renderedPreview);
+    }
+    
+    /**
+     * Stream the preview from Demandware into the writer. The preview is cached and kept as last known good preview
+     * only if it does not exceed the stream cache threshold.
+     *
+     * @return {@code true} if the preview was written, {@code false} if nothing was written as the request failed
+     * @throws IOException if writing to the writer fails, the preview is not recorded as failed
+     */
+    private boolean stream(final String path, final PreviewServiceConfig previewServiceConfig,
+                           final DemandwareClient demandwareClient, final PreviewRequest previewRequest,
+                           final PreviewCache cache, final Writer out) throws IOException {
+        requestCount.increment();
+        streamedCount.increment();
+        boolean written = false;
+        // set while writing to the caller, whose failures are no failures of the preview
+        boolean writing = false;
+        CloseableHttpResponse responseObj = null;
+        try {
+            final HttpUriRequest requestObj = previewRequest.toHttpRequest();
+            responseObj = getPreviewClient(previewServiceConfig, demandwareClient).execute(requestObj);
+            final StatusLine statusLine = responseObj.getStatusLine();
+            final HttpEntity entity = responseObj.getEntity();
+            if (statusLine.getStatusCode() != HttpStatus.SC_OK || entity == null) {
+                LOG.error("Failed to render live Demandware preview for {}. \n" +
+                                "> Demandware request: {} \n> Demandware response: {}", path,
+                        requestObj.getRequestLine().toString(), statusLine.toString());
+                failed(previewRequest);
+                return false;
+            }
+            
+            final Charset charset = ContentType.getOrDefault(entity).getCharset();
+            final Reader reader = new InputStreamReader(entity.getContent(),
+                    charset != null ? charset : StandardCharsets.ISO_8859_1);
+            // tee the preview into a copy for the cache until it exceeds the threshold
+            StringBuilder copy = streamCacheThreshold > 0
+                    ? new StringBuilder(Math.min(streamCacheThreshold, STREAM_BUFFER_SIZE)) : null;
+            final char[] buffer = new char[STREAM_BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                writing = true;
+                out.write(buffer, 0, read);
+                writing = false;
+                written = true;
+                if (copy != null && copy.length() + read > streamCacheThreshold) {
+                    copy = null;
+                } else if (copy != null) {
+                    copy.append(buffer, 0, read);
+                }
+            }
+            
+            if (copy != null && copy.length() > 0) {
+                LOG.debug("Render previewComponent for {} freshly streamed from DWRE", path);
+                rendered(path, previewRequest, copy.toString(), cache);
+            } else if (written) {
+                streamedUncachedCount.increment();
+                LOG.debug("Render previewComponent for {} freshly streamed from DWRE, too large to be cached", path);
+                negative.remove(previewRequest.getCacheKey());
+            } else {
+                failed(previewRequest);
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.error("Unable to set preview URI: {}", e.getMessage());
+            failed(previewRequest);
+        } catch (IOException e) {
+            if (writing) {
+                // the client went away, e.g. navigated away during a lazy load, the preview itself did not fail
+                LOG.debug("Cannot write live Demandware preview for {}: {}", path, e.getMessage());
+                throw e;
+            }
+            // a partially written preview cannot be replaced
+            LOG.error("Failed to render live Demandware preview for {}", path, e);
+            failed(previewRequest);
+        } catch (DemandwareCallNotPermittedException e) {
+            LOG.warn("Live Demandware preview for {} not rendered: {}", path, e.getMessage());
+            failed(previewRequest);
+        } finally {
+            HttpClientUtils.closeQuietly(responseObj);
         }
-        
-        return renderedPreview;
+        return written;
     }
     
-    private DemandwareClient getDemandwareClient(Page containingPage) {
-        // call Demandware to render preview for component
-        String instanceId = instanceIdProvider.getInstanceId(containingPage);
-        return clientProvider.getClientForSpecificInstance(instanceId);
+    /**
+     * Send the preview request to Demandware with the non-blocking client.
+     *
+     * @return future completed with the response body or an empty string if the request failed, never completed
+     * exceptionally. Dependent stages run on the completion executor, never on an I/O thread of the client.
+     */
+    private CompletableFuture<String> executeAsync(final String path, final PreviewServiceConfig previewServiceConfig,
+                                                   final DemandwareClient demandwareClient,
+                                                   final PreviewRequest previewRequest) {
+        requestCount.increment();
+        final HttpUriRequest requestObj;
+        try {
+            requestObj = previewRequest.toHttpRequest();
+        } catch (IllegalArgumentException e) {
+            LOG.error("Unable to set preview URI: {}", e.getMessage());
+            return CompletableFuture.completedFuture("");
+        }
+        return getPreviewClient(previewServiceConfig, demandwareClient).executeAsync(requestObj).handleAsync(
+                (responseObj, e) -> {
+                    final Throwable cause = e instanceof CompletionException && e.getCause() != null
+                            ? e.getCause() : e;
+                    if (cause instanceof DemandwareCallNotPermittedException) {
+                        LOG.warn("Live Demandware preview for {} not rendered: {}", path, cause.getMessage());
+                    } else if (cause != null) {
+                        LOG.error("Failed to render live Demandware preview for {}", path, cause);
+                    } else if (responseObj != null) {
+                        final StatusLine statusLine = responseObj.getStatusLine();
+                        if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
+                            try {
+                                return StringUtils.defaultString(EntityUtils.toString(responseObj.getEntity()));
+                            } catch (IOException ioe) {
+                                LOG.error("Failed to render live Demandware preview for {}", path, ioe);
+                            }
+                        } else {
+                            LOG.error("Failed to render live Demandware preview for {}. \n" +
+                                            "> Demandware request: {} \n> Demandware response: {}", path,
+                                    requestObj.getRequestLine().toString(), statusLine.toString());
+                        }
+                    }
+                    return "";
+                }, completionExecutor);
+    }
+    
+    long getRequestCount() {
+        return requestCount.sum();
+    }
+    
+    long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+    
+    long getCoalesceTimeoutCount() {
+        return coalesceTimeoutCount.sum();
+    }
+    
+    long getRefreshCount() {
+        return refreshCount.sum();
+    }
+    
+    long getRefreshFailureCount() {
+        return refreshFailureCount.sum();
+    }
+    
+    long getRefreshRejectedCount() {
+        return refreshRejectedCount.sum();
+    }
+    
+    long getBatchCount() {
+        return batchCount.sum();
+    }
+    
+    long getBatchedCount() {
+        return batchedCount.sum();
+    }
+    
+    long getPrefetchCount() {
+        return prefetchCount.sum();
+    }
+    
+    long getPrefetchRejectedCount() {
+        return prefetchRejectedCount.sum();
+    }
+    
+    int getInFlightCount() {
+        return inFlight.size();
+    }
+    
+    long getNegativeHitCount() {
+        return negativeHitCount.sum();
+    }
+    
+    int getNegativeCount() {
+        return negative.size();
+    }
+    
+    long getDeadlineExceededCount() {
+        return deadlineExceededCount.sum();
+    }
+    
+    long getLastKnownGoodCount() {
+        return lastKnownGoodCount.sum();
+    }
+    
+    long getFallbackPlaceholderCount() {
+        return fallbackPlaceholderCount.sum();
+    }
+    
+    int getLastKnownGoodSize() {
+        return lastKnownGood.size();
+    }
+    
+    long getStreamedCount() {
+        return streamedCount.sum();
+    }
+    
+    long getStreamedUncachedCount() {
+        return streamedUncachedCount.sum();
+    }
+    
+    /**
+     * Create the preview request for the rendered component, covering all inputs shaping the preview.
+     */
+    private PreviewRequest createPreviewRequest(final Resource resource, final PreviewContext context,
+                                                final List<NameValuePair> params, final String renderedComponentContent) {
+        final List<NameValuePair> parameters = new ArrayList<NameValuePair>();
+        if (params != null) {
+            parameters.addAll(params);
+        }
+        parameters.add(new BasicNameValuePair("template", context.getPreviewServiceConfig().getPreviewTemplate()));
+        return new PreviewRequest(resource.getPath(), getEndpointUri(
+                context.getPreviewServiceConfig().getPreviewPageEndPoint(), context), parameters,
+                renderedComponentContent, context.getDeadline());
+    }
+    
+    /**
+     * Resolve the site and locale placeholders of the preview endpoint for the page.
+     */
+    private String getEndpointUri(final String endpoint, final PreviewContext context) {
+        String previewEndpoint;
+        previewEndpoint = StringUtils.replace(endpoint, "{site}", context.getSite());
+        previewEndpoint = StringUtils.replace(previewEndpoint, "{locale}", context.getLanguage());
+        return DemandwareClient.DEFAULT_SCHEMA + context.getDemandwareClient().getEndpoint() + previewEndpoint;
+    }
+    
+    /**
+     * Get the given context if it contains the component, otherwise resolve the context of the containing page.
+     *
+     * @return the context or {@code null} if it cannot be resolved, see {@link #createPreviewContext(Page)}
+     */
+    private PreviewContext resolvePreviewContext(final PreviewContext context, final Resource resource) {
+        return context != null && context.contains(resource) ? context : createPreviewContext(getPage(resource));
+    }
+    
+    /**
+     * Get the context of the page containing the component from the contexts by page path, the context is added if
+     * not resolved yet.
+     *
+     * @return the context or {@code null} if it cannot be resolved, see {@link #createPreviewContext(Page)}
+     */
+    private PreviewContext getPreviewContext(final Map<String, PreviewContext> contexts, final Resource resource) {
+        for (PreviewContext context : contexts.values()) {
+            if (context.contains(resource)) {
+                return context;
+            }
+        }
+        final PreviewContext context = createPreviewContext(getPage(resource));
+        if (context != null) {
+            contexts.put(context.getPage().getPath(), context);
+        }
+        return context;
     }
     
-    private PreviewServiceConfig getPreviewServiceConfig(Resource resource) {
-        Page page = getPage(resource);
-        String instanceId = instanceIdProvider.getInstanceId(page);
-        return previewServiceConfigProvider.getPreviewServiceConfigByInstanceId(instanceId);
+    /**
+     * Render the AEM component for Demandware, reusing the markup rendered for the component earlier with the context.
+     */
+    private String renderComponent(final PreviewContext context, final Resource resource) {
+        String renderedComponentContent = context.getRenderedComponent(resource.getPath());
+        if (renderedComponentContent == null) {
+            renderedComponentContent = renderService.render(resource, null,
+                    DemandwareCommerceConstants.DWRE_RENDERING_SELECTOR);
+            if (renderedComponentContent != null) {
+                context.putRenderedComponent(resource.getPath(), renderedComponentContent);
+            }
+        }
+        return renderedComponentContent;
+    }
+    
+    /**
+     * @return the context of the page or {@code null} if there is no page or no preview configuration for its
+     * Demandware instance
+     */
+    private PreviewContext createPreviewContext(final Page containingPage) {
+        if (containingPage == null) {
+            return null;
+        }
+        final String instanceId = instanceIdProvider.getInstanceId(containingPage);
+        final PreviewServiceConfig previewServiceConfig =
+                previewServiceConfigProvider.getPreviewServiceConfigByInstanceId(instanceId);
+        if (previewServiceConfig == null) {
+            LOG.debug("No preview configuration for Demandware instance {} of {}", instanceId,
+                    containingPage.getPath());
+            return null;
+        }
+        // call Demandware to render preview for component
+        final DemandwareClient demandwareClient = clientProvider.getClientForSpecificInstance(instanceId);
+        return new PreviewContext(containingPage, instanceId, previewServiceConfig, demandwareClient,
+                getSite(previewServiceConfig, containingPage), getLanguage(containingPage));
     }
     
     private Page getPage(Resource resource) {
         // prepare endpoint path and construct
         final PageManager pageManager = resource.getResourceResolver().adaptTo(PageManager.class);
-        return pageManager.getContainingPage(resource);
+        return pageManager != null ? pageManager.getContainingPage(resource) : null;
     }
     
     /**
@@ -225,12 +1401,8 @@ public class PreviewServiceImpl implements PreviewService {
      * @return the Demandware site to be used
      */
     private String getSite(PreviewServiceConfig previewServiceConfig, final Page page) {
-        final HierarchyNodeInheritanceValueMap pageProperties = new HierarchyNodeInheritanceValueMap(
-                page.getContentResource());
-        if (pageProperties != null) {
-            return pageProperties.getInherited(DemandwareCommerceConstants.PN_DWRE_SITE, previewServiceConfig.getPreviewDefaultSite());
-        }
-        return previewServiceConfig.getPreviewDefaultSite();
+        return inheritedPropertyResolver.getInherited(page, DemandwareCommerceConstants.PN_DWRE_SITE,
+                previewServiceConfig.getPreviewDefaultSite());
     }
     
     
@@ -242,19 +1414,47 @@ public class PreviewServiceImpl implements PreviewService {
     }
     
     /**
-     * Setup storefront user credentials.
+     * Get the preview client of the instance, built again only if the preview configuration or the Demandware client
+     * of the instance changed.
      */
-    protected CredentialsProvider createCredentialsProvider(PreviewServiceConfig previewServiceConfig, DemandwareClient client) {
-        // set default user/pass
-        if (previewServiceConfig.getStorfrontProtectionUser() != null && previewServiceConfig.getStorfrontProtectionPassword() != null) {
-            final CredentialsProvider credsProvider = new BasicCredentialsProvider();
-            
-            credsProvider.setCredentials(new AuthScope(client.getEndpoint(), AuthScope.ANY_PORT),
-                    new UsernamePasswordCredentials(previewServiceConfig.getStorfrontProtectionUser(),
-                            previewServiceConfig.getStorfrontProtectionPassword()));
-            return credsProvider;
+    private PreviewClient getPreviewClient(final PreviewServiceConfig previewServiceConfig,
+                                           final DemandwareClient demandwareClient) {
+        final String instanceId = StringUtils.defaultString(previewServiceConfig.getInstanceId());
+        PreviewClient previewClient = previewClients.get(instanceId);
+        if (previewClient == null || !previewClient.isBuiltFrom(previewServiceConfig, demandwareClient)) {
+            // clients are immutable, a client built concurrently is simply replaced
+            previewClient = new PreviewClient(previewServiceConfig, demandwareClient);
+            previewClients.put(instanceId, previewClient);
         }
-        return null;
+        return previewClient;
     }
     
+    /**
+     * Previews to be requested in one batch, sharing instance, endpoint and request parameters.
+     */
+    private static class PendingBatch {
+        private final PreviewServiceConfig config;
+        private final DemandwareClient client;
+        private final PreviewCache cache;
+        private final String uri;
+        private final List<NameValuePair> parameters;
+        private final List<String> paths = new ArrayList<>();
+        private final List<PreviewRequest> requests = new ArrayList<>();
+        private final List<PreviewContext> contexts = new ArrayList<>();
+        
+        private PendingBatch(final PreviewServiceConfig config, final DemandwareClient client, final PreviewCache cache,
+                             final String uri, final List<NameValuePair> parameters) {
+            this.config = config;
+            this.client = client;
+            this.cache = cache;
+            this.uri = uri;
+            this.parameters = parameters;
+        }
+        
+        private void add(final String path, final PreviewRequest request, final PreviewContext context) {
+            paths.add(path);
+            requests.add(request);
+            contexts.add(context);
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.preview;
+
+/**
+ * JMX view on the statistics of the {@link PreviewServiceImpl}.
+ */
+class PreviewServiceStats implements PreviewServiceStatsMXBean {
+
+    private final PreviewServiceImpl previewService;
+
+    PreviewServiceStats(final PreviewServiceImpl previewService) {
+        this.previewService = previewService;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return previewService.getRequestCount();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return previewService.getCoalescedCount();
+    }
+
+    @Override
+    public long getCoalesceTimeoutCount() {
+        return previewService.getCoalesceTimeoutCount();
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return previewService.getRefreshCount();
+    }
+
+    @Override
+    public long getRefreshFailureCount() {
+        return previewService.getRefreshFailureCount();
+    }
+
+    @Override
+    public long getRefreshRejectedCount() {
+        return previewService.getRefreshRejectedCount();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return previewService.getBatchCount();
+    }
+
+    @Override
+    public long getBatchedCount() {
+        return previewService.getBatchedCount();
+    }
+
+    @Override
+    public long getPrefetchCount() {
+        return previewService.getPrefetchCount();
+    }
+
+    @Override
+    public long getPrefetchRejectedCount() {
+        return previewService.getPrefetchRejectedCount();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return previewService.getInFlightCount();
+    }
+
+    @Override
+    public long getNegativeHitCount() {
+        return previewService.getNegativeHitCount();
+    }
+
+    @Override
+    public int getNegativeCount() {
+        return previewService.getNegativeCount();
+    }
+
+    @Override
+    public long getDeadlineExceededCount() {
+        return previewService.getDeadlineExceededCount();
+    }
+
+    @Override
+    public long getLastKnownGoodCount() {
+        return previewService.getLastKnownGoodCount();
+    }
+
+    @Override
+    public long getFallbackPlaceholderCount() {
+        return previewService.getFallbackPlaceholderCount();
+    }
+
+    @Override
+    public int getLastKnownGoodSize() {
+        return previewService.getLastKnownGoodSize();
+    }
+
+    @Override
+    public long getStreamedCount() {
+        return previewService.getStreamedCount();
+    }
+
+    @Override
+    public long getStreamedUncachedCount() {
+        return previewService.getStreamedUncachedCount();
+    }
+}
@@ -0,0 +1,119 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.preview;
+
+/**
+ * Statistics of the Demandware preview service, registered in JMX as
+ * {@code com.adobe.cq.commerce.demandware:type=PreviewService}.
+ */
+public interface PreviewServiceStatsMXBean {
+
+    /**
+     * @return number of preview requests sent to Demandware
+     */
+    long getRequestCount();
+
+    /**
+     * @return number of previews waiting for an identical preview requested concurrently instead of sending the request
+     */
+    long getCoalescedCount();
+
+    /**
+     * @return number of coalesced previews requested again as the concurrent request did not complete in time
+     */
+    long getCoalesceTimeoutCount();
+
+    /**
+     * @return number of stale previews refreshed in the background
+     */
+    long getRefreshCount();
+
+    /**
+     * @return number of background refreshes failed, the stale preview is kept in that case
+     */
+    long getRefreshFailureCount();
+
+    /**
+     * @return number of stale previews served without refresh as the refresh queue was full
+     */
+    long getRefreshRejectedCount();
+
+    /**
+     * @return number of batch requests rendering the previews of several components
+     */
+    long getBatchCount();
+
+    /**
+     * @return number of previews rendered by batch requests
+     */
+    long getBatchedCount();
+
+    /**
+     * @return number of previews requested in the background while the page renders
+     */
+    long getPrefetchCount();
+
+    /**
+     * @return number of previews not prefetched as the prefetch queue was full
+     */
+    long getPrefetchRejectedCount();
+
+    /**
+     * @return number of distinct previews currently requested from Demandware
+     */
+    int getInFlightCount();
+
+    /**
+     * @return number of previews not requested as they failed recently
+     */
+    long getNegativeHitCount();
+
+    /**
+     * @return number of failed previews currently not requested again
+     */
+    int getNegativeCount();
+
+    /**
+     * @return number of previews not requested or awaited as the render deadline of the page was exceeded
+     */
+    long getDeadlineExceededCount();
+
+    /**
+     * @return number of previews not rendered and served from the last known good previews
+     */
+    long getLastKnownGoodCount();
+
+    /**
+     * @return number of previews not rendered and served as error placeholder, as no last known good preview existed
+     */
+    long getFallbackPlaceholderCount();
+
+    /**
+     * @return number of last known good previews kept
+     */
+    int getLastKnownGoodSize();
+
+    /**
+     * @return number of previews streamed from Demandware into the writer of the caller
+     */
+    long getStreamedCount();
+
+    /**
+     * @return number of streamed previews not cached, as they exceeded the stream cache threshold
+     */
+    long getStreamedUncachedCount();
+}
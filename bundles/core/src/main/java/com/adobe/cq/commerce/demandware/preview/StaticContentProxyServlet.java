@@ -16,6 +16,7 @@
 
 package com.adobe.cq.commerce.demandware.preview;
 
+import com.adobe.cq.commerce.demandware.DemandwareCallNotPermittedException;
 import com.adobe.cq.commerce.demandware.DemandwareClient;
 import com.adobe.cq.commerce.demandware.DemandwareClientProvider;
 import com.adobe.cq.commerce.demandware.InstanceIdProvider;
@@ -38,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 
@@ -70,7 +72,7 @@ public class StaticContentProxyServlet extends SlingSafeMethodsServlet {
         final String remoteUri = DemandwareClient.DEFAULT_SCHEMA + demandwareClient.getEndpoint() + pathInfo.getResourcePath() +
                 "." + pathInfo.getExtension() + pathInfo.getSuffix();
 
-        final CloseableHttpClient httpClient = demandwareClient.getHttpClient();
+        final CloseableHttpClient httpClient = demandwareClient.getHttpClient(DemandwareClient.TRAFFIC_CLASS_INTERACTIVE);
         CloseableHttpResponse responseObj = null;
         BufferedOutputStream output = null;
         try {
@@ -87,9 +89,11 @@ public class StaticContentProxyServlet extends SlingSafeMethodsServlet {
                 final byte[] bytes = EntityUtils.toByteArray(responseObjEntity);
                 output.write(bytes, 0, bytes.length);
             }
+        } catch (DemandwareCallNotPermittedException e) {
+            LOG.warn("Static content {} not proxied: {}", pathInfo.toString(), e.getMessage());
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         } finally {
             HttpClientUtils.closeQuietly(responseObj);
-            HttpClientUtils.closeQuietly(httpClient);
             IOUtils.closeQuietly(output);
         }
     }
@@ -0,0 +1,107 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class BulkheadTest {
+
+    private static final long MAX_WAIT = 100;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testAcquireAndRelease() {
+        final Bulkhead bulkhead = new Bulkhead(2, MAX_WAIT, clock::get);
+
+        assertTrue(bulkhead.tryAcquireNow());
+        assertTrue(bulkhead.tryAcquire(0));
+        assertEquals(2, bulkhead.getActiveCount());
+        assertFalse(bulkhead.tryAcquireNow());
+        assertEquals(1, bulkhead.getRejectedCount());
+
+        bulkhead.release();
+
+        assertEquals(1, bulkhead.getActiveCount());
+        assertTrue(bulkhead.tryAcquireNow());
+    }
+
+    @Test
+    public void testRejectedAfterMaxWait() {
+        // every read of the clock moves it past the deadline of the previous read
+        final Bulkhead bulkhead = new Bulkhead(1, MAX_WAIT,
+                () -> clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(MAX_WAIT)));
+        assertTrue(bulkhead.tryAcquireNow());
+
+        assertFalse(bulkhead.tryAcquire(0));
+
+        assertEquals(1, bulkhead.getRejectedCount());
+        assertEquals(0, bulkhead.getWaitingCount());
+        assertEquals(1, bulkhead.getActiveCount());
+    }
+
+    @Test
+    public void testWaitersAdmittedByPriority() throws InterruptedException {
+        // the clock stands still, waiters never time out
+        final Bulkhead bulkhead = new Bulkhead(1, MAX_WAIT, clock::get);
+        assertTrue(bulkhead.tryAcquireNow());
+        final List<Integer> admitted = new CopyOnWriteArrayList<>();
+        final Thread low = waiter(bulkhead, 0, admitted);
+        awaitWaiting(bulkhead, 1);
+        final Thread high = waiter(bulkhead, 10, admitted);
+        awaitWaiting(bulkhead, 2);
+        // a caller which must not block does not overtake waiting callers
+        assertFalse(bulkhead.tryAcquireNow());
+
+        bulkhead.release();
+        high.join(1000);
+        assertEquals(1, admitted.size());
+        bulkhead.release();
+        low.join(1000);
+
+        assertEquals(10, (int) admitted.get(0));
+        assertEquals(0, (int) admitted.get(1));
+        assertEquals(1, bulkhead.getRejectedCount());
+    }
+
+    private static Thread waiter(final Bulkhead bulkhead, final int priority, final List<Integer> admitted) {
+        final Thread thread = new Thread(() -> {
+            if (bulkhead.tryAcquire(priority)) {
+                admitted.add(priority);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(final Bulkhead bulkhead, final int count) throws InterruptedException {
+        for (int i = 0; i < 1000 && bulkhead.getWaitingCount() < count; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, bulkhead.getWaitingCount());
+    }
+}
@@ -0,0 +1,75 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.adobe.cq.commerce.demandware.DemandwareCallNotPermittedException;
+
+public class CallGuardTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 10, 1, 50, 50, 1000, 30000, 1,
+            clock::get);
+
+    @Test
+    public void testOpenBreakerFailsFastWithoutSlot() {
+        final Bulkhead bulkhead = new Bulkhead(1, 60000, clock::get);
+        final CallGuard guard = new CallGuard("test", circuitBreaker, bulkhead, null, 0);
+        final long start = guard.acquire();
+        guard.release(start, true);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        // occupy the slot, a caller checking the bulkhead first would wait for it
+        assertTrue(bulkhead.tryAcquireNow());
+
+        try {
+            guard.acquire();
+            fail("call permitted by an open circuit breaker");
+        } catch (DemandwareCallNotPermittedException e) {
+            assertEquals(0, bulkhead.getWaitingCount());
+            assertEquals(0, bulkhead.getRejectedCount());
+        }
+    }
+
+    @Test
+    public void testFullBulkheadReturnsProbe() {
+        final Bulkhead bulkhead = new Bulkhead(1, 0, clock::get);
+        final CallGuard guard = new CallGuard("test", circuitBreaker, bulkhead, null, 0);
+        guard.release(guard.acquire(), true);
+        clock.addAndGet(30000);
+        assertTrue(bulkhead.tryAcquireNow());
+
+        try {
+            guard.acquire(false);
+            fail("call permitted by a full bulkhead");
+        } catch (DemandwareCallNotPermittedException e) {
+            assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        }
+        bulkhead.release();
+
+        // the probe of the rejected call is still available
+        guard.release(guard.acquire(false), false);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+}
@@ -0,0 +1,166 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final long SLOW_CALL_DURATION = 1000;
+    private static final long OPEN_DURATION = 30000;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 10, 4, 50, 50, SLOW_CALL_DURATION,
+            OPEN_DURATION, 2, clock::get);
+
+    @Test
+    public void testOpensOnFailureRate() {
+        record(false, 10);
+        record(true, 10);
+        record(false, 10);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        record(true, 10);
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getOpenedCount());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        assertEquals(1, circuitBreaker.getNotPermittedCount());
+    }
+
+    @Test
+    public void testStaysClosedBelowMinimumCalls() {
+        record(true, 10);
+        record(true, 10);
+        record(true, 10);
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void testOpensOnSlowCallRate() {
+        record(false, 10);
+        record(false, SLOW_CALL_DURATION);
+        record(false, 10);
+        record(false, SLOW_CALL_DURATION + 1);
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenThenClosed() {
+        open();
+
+        clock.addAndGet(OPEN_DURATION - 1);
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        clock.incrementAndGet();
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        // only the configured number of probe calls is permitted
+        assertFalse(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.onResult(10, false);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.onResult(10, false);
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getFailureRate(), 0);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void testHalfOpenThenOpenOnFailure() {
+        open();
+        clock.addAndGet(OPEN_DURATION);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.onResult(10, true);
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getOpenedCount());
+        // the open duration starts again
+        clock.addAndGet(OPEN_DURATION - 1);
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        clock.incrementAndGet();
+        assertTrue(circuitBreaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void testHalfOpenThenOpenOnSlowCall() {
+        open();
+        clock.addAndGet(OPEN_DURATION);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.onResult(SLOW_CALL_DURATION, false);
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenCallsLimitedToWindow() {
+        final CircuitBreaker small = new CircuitBreaker("test", 2, 2, 50, 50, SLOW_CALL_DURATION, OPEN_DURATION, 5,
+                clock::get);
+        assertTrue(small.tryAcquirePermission());
+        small.onResult(10, true);
+        assertTrue(small.tryAcquirePermission());
+        small.onResult(10, true);
+        assertEquals(CircuitBreaker.State.OPEN, small.getState());
+        clock.addAndGet(OPEN_DURATION);
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(small.tryAcquirePermission());
+            small.onResult(10, false);
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, small.getState());
+    }
+
+    @Test
+    public void testReleasedPermissionPermitsAnotherProbe() {
+        open();
+        clock.addAndGet(OPEN_DURATION);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.releasePermission();
+
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            record(true, 10);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    private void record(final boolean failed, final long duration) {
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onResult(duration, failed);
+    }
+}
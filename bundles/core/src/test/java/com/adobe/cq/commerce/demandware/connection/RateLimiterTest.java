@@ -0,0 +1,141 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_WAIT = 5000;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final RateLimiter rateLimiter = new RateLimiter("test", new String[]{"/s/-/dw/data"}, 10, 1, 20, 2,
+            MAX_WAIT, "x-dw-quota-remaining", "x-dw-quota-reset", clock::get);
+
+    @Test
+    public void testAppliesToPaths() {
+        assertTrue(rateLimiter.appliesTo(new HttpGet("https://example.com/s/-/dw/data/v19_5/products")));
+        assertFalse(rateLimiter.appliesTo(new HttpGet("https://example.com/s/-/dw/shop/v19_5/products")));
+    }
+
+    @Test
+    public void testBurstThenRate() {
+        assertEquals(0, rateLimiter.reserve());
+        assertEquals(0, rateLimiter.reserve());
+        // the bucket is empty, the next token is available after 1/rate
+        assertEquals(SECOND / 10, rateLimiter.reserve());
+        assertEquals(1, rateLimiter.getWaitCount());
+
+        clock.addAndGet(SECOND);
+
+        assertEquals(0, rateLimiter.reserve());
+    }
+
+    @Test
+    public void testRejectedBeyondMaxWait() {
+        rateLimiter.onResponse(response(RateLimiter.SC_TOO_MANY_REQUESTS, "10"));
+
+        assertEquals(-1, rateLimiter.reserve());
+        assertEquals(1, rateLimiter.getRejectedCount());
+    }
+
+    @Test
+    public void testThrottledHalvesRateAndBlocks() {
+        rateLimiter.onResponse(response(RateLimiter.SC_TOO_MANY_REQUESTS, "2"));
+
+        assertEquals(5, rateLimiter.getRate(), 0);
+        assertEquals(1, rateLimiter.getThrottledCount());
+        assertEquals(2 * SECOND, rateLimiter.reserve());
+
+        clock.addAndGet(2 * SECOND);
+        rateLimiter.onResponse(response(HttpStatus.SC_SERVICE_UNAVAILABLE, null));
+
+        assertEquals(2.5, rateLimiter.getRate(), 0);
+        assertEquals(2, rateLimiter.getThrottledCount());
+        // blocked for one second without Retry-After
+        assertEquals(SECOND, rateLimiter.reserve());
+    }
+
+    @Test
+    public void testRateNotBelowMinimum() {
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.onResponse(response(HttpStatus.SC_SERVICE_UNAVAILABLE, "0"));
+        }
+
+        assertEquals(1, rateLimiter.getRate(), 0);
+    }
+
+    @Test
+    public void testRecoveryAfterThrottling() {
+        rateLimiter.onResponse(response(RateLimiter.SC_TOO_MANY_REQUESTS, "0"));
+        assertEquals(5, rateLimiter.getRate(), 0);
+
+        // each success adds 1/rate, about one request per second each second at the current rate
+        rateLimiter.onResponse(response(HttpStatus.SC_OK, null));
+        assertEquals(5.2, rateLimiter.getRate(), 0.0001);
+
+        for (int i = 0; i < 1000; i++) {
+            rateLimiter.onResponse(response(HttpStatus.SC_OK, null));
+        }
+        assertEquals(20, rateLimiter.getRate(), 0);
+    }
+
+    @Test
+    public void testClientErrorKeepsRate() {
+        rateLimiter.onResponse(response(HttpStatus.SC_NOT_FOUND, null));
+
+        assertEquals(10, rateLimiter.getRate(), 0);
+    }
+
+    @Test
+    public void testQuotaHeaders() {
+        final HttpResponse response = response(HttpStatus.SC_OK, null);
+        response.setHeader("x-dw-quota-remaining", "30");
+        response.setHeader("x-dw-quota-reset", "2");
+        rateLimiter.onResponse(response);
+
+        assertEquals(15, rateLimiter.getRate(), 0);
+
+        response.setHeader("x-dw-quota-remaining", "0");
+        rateLimiter.onResponse(response);
+
+        assertEquals(1, rateLimiter.getRate(), 0);
+        assertEquals(2 * SECOND, rateLimiter.reserve());
+    }
+
+    private static HttpResponse response(final int status, final String retryAfter) {
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+        if (retryAfter != null) {
+            response.setHeader("Retry-After", retryAfter);
+        }
+        return response;
+    }
+}
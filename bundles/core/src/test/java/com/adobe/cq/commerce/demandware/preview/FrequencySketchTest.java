@@ -0,0 +1,63 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testCountsIncrements() {
+        final FrequencySketch sketch = new FrequencySketch(64);
+        assertEquals(0, sketch.frequency("a".hashCode()));
+
+        for (int i = 0; i < 3; i++) {
+            sketch.increment("a".hashCode());
+        }
+
+        assertEquals(3, sketch.frequency("a".hashCode()));
+    }
+
+    @Test
+    public void testFrequencyIsCapped() {
+        final FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("a".hashCode());
+        }
+
+        assertEquals(15, sketch.frequency("a".hashCode()));
+    }
+
+    @Test
+    public void testResetHalvesFrequencies() {
+        final FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment("a".hashCode());
+        }
+
+        // the sample size of the smallest table is 640 increments
+        for (int i = 0; i < 700; i++) {
+            sketch.increment(("key" + i).hashCode());
+        }
+
+        final int frequency = sketch.frequency("a".hashCode());
+        assertTrue("frequency " + frequency, frequency > 0 && frequency < 15);
+    }
+}
@@ -0,0 +1,179 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+public class PreviewCacheTest {
+
+    private static final String VALUE = StringUtils.repeat('x', 100);
+    // size of an entry with a one character key, a four character path and the value stored on the heap
+    private static final long ENTRY_SIZE = 2 * (1 + 4) + 2 * VALUE.length() + 128;
+
+    @Test
+    public void testEvictsUnreferencedEntryFirst() {
+        final PreviewCache cache = new PreviewCache(60, 3 * ENTRY_SIZE);
+        cache.put("a", "/p/a", VALUE);
+        cache.put("b", "/p/b", VALUE);
+        cache.put("c", "/p/c", VALUE);
+        // a is referenced and gets a second chance, b is the oldest entry not read since
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", "/p/d", VALUE);
+
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(3 * ENTRY_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testRejectsEntryLessPopularThanVictim() {
+        final PreviewCache cache = new PreviewCache(60, 3 * ENTRY_SIZE);
+        cache.put("a", "/p/a", VALUE);
+        cache.put("b", "/p/b", VALUE);
+        cache.put("c", "/p/c", VALUE);
+        for (int i = 0; i < 3; i++) {
+            cache.get("a");
+            cache.get("b");
+            cache.get("c");
+        }
+
+        // never requested before, the victim a was requested three times
+        cache.put("d", "/p/d", VALUE);
+
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(3, cache.getEntryCount());
+        assertNotNull(cache.get("a"));
+
+        // requested more often than any cached entry now
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.get("d"));
+        }
+        cache.put("d", "/p/d", VALUE);
+
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getEntryCount());
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    public void testRejectsEntryLargerThanCache() {
+        final PreviewCache cache = new PreviewCache(60, ENTRY_SIZE - 1);
+        cache.put("a", "/p/a", VALUE);
+
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testReplacedEntryIsAccountedOnce() {
+        final PreviewCache cache = new PreviewCache(60, 3 * ENTRY_SIZE);
+        cache.put("a", "/p/a", VALUE);
+        cache.put("a", "/p/a", VALUE);
+
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(ENTRY_SIZE, cache.getSize());
+        assertEquals(2 * VALUE.length(), cache.getStoredFragmentSize());
+    }
+
+    @Test
+    public void testClearResetsSizes() {
+        for (PreviewCache.Storage storage : PreviewCache.Storage.values()) {
+            final PreviewCache cache = new PreviewCache(60, PreviewCache.DEFAULT_MAX_SIZE, 0, storage);
+            cache.put("a", "/content/page/jcr:content/a", StringUtils.repeat("preview ", 100));
+            cache.put("b", "/content/page/jcr:content/b", "preview");
+
+            cache.clear();
+
+            assertEquals(storage.name(), 0, cache.getEntryCount());
+            assertEquals(storage.name(), 0, cache.getSize());
+            assertEquals(storage.name(), 0, cache.getFragmentSize());
+            assertEquals(storage.name(), 0, cache.getStoredFragmentSize());
+            assertEquals(storage.name(), 0, cache.getOffHeapSize());
+        }
+    }
+
+    @Test
+    public void testInvalidateTreeResetsSizes() {
+        for (PreviewCache.Storage storage : PreviewCache.Storage.values()) {
+            final PreviewCache cache = new PreviewCache(60, PreviewCache.DEFAULT_MAX_SIZE, 0, storage);
+            cache.put("a", "/content/page/jcr:content/a", StringUtils.repeat("preview ", 100));
+            cache.put("b", "/content/page/jcr:content/par/b", "preview");
+            cache.put("c", "/content/other/jcr:content/c", "preview");
+
+            // the page and its components, but not the page with a common name prefix
+            assertEquals(storage.name(), 2, cache.invalidateTree("/content/page"));
+            assertEquals(storage.name(), 1, cache.getEntryCount());
+            assertNotNull(storage.name(), cache.get("c"));
+
+            assertEquals(storage.name(), 1, cache.invalidateTree("/content/other/jcr:content"));
+            assertEquals(storage.name(), 0, cache.getEntryCount());
+            assertEquals(storage.name(), 0, cache.getSize());
+            assertEquals(storage.name(), 0, cache.getFragmentSize());
+            assertEquals(storage.name(), 0, cache.getStoredFragmentSize());
+            assertEquals(storage.name(), 0, cache.getOffHeapSize());
+            assertEquals(storage.name(), 3, cache.getInvalidationCount());
+        }
+    }
+
+    @Test
+    public void testInvalidateTrees() {
+        final PreviewCache cache = new PreviewCache(60, PreviewCache.DEFAULT_MAX_SIZE, 0,
+                PreviewCache.Storage.HEAP);
+        cache.put("a", "/content/site/a/jcr:content/par/a", "preview");
+        cache.put("b", "/content/site/b/jcr:content/b", "preview");
+        cache.put("bb", "/content/site/bb/jcr:content/bb", "preview");
+        cache.put("c", "/content/site/c", "preview");
+        cache.put("d", "/content/site/d/jcr:content/d", "preview");
+
+        // descendant of a, page b, descendant of c, duplicates are ignored
+        assertEquals(3, cache.invalidateTrees(Arrays.asList("/content/site/a/jcr:content/par/a/image",
+                "/content/site/b", "/content/site/b", "/content/site/c/jcr:content/x")));
+
+        assertNotNull(cache.get("bb"));
+        assertNotNull(cache.get("d"));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(0, cache.invalidateTrees(Arrays.asList("", "/content/other")));
+        assertEquals(2, cache.invalidateTrees(Arrays.asList("/")));
+    }
+
+    @Test
+    public void testCompressedStorageReturnsFragment() {
+        final String value = StringUtils.repeat("<div>preview \u00e4\u00f6\u00fc</div>", 100);
+        for (PreviewCache.Storage storage : PreviewCache.Storage.values()) {
+            final PreviewCache cache = new PreviewCache(60, PreviewCache.DEFAULT_MAX_SIZE, 0, storage);
+            cache.put("a", "/p/a", value);
+
+            assertEquals(storage.name(), value, cache.get("a"));
+            assertEquals(storage.name(), 2L * value.length(), cache.getFragmentSize());
+        }
+    }
+}
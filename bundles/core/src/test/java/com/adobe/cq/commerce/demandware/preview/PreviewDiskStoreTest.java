@@ -0,0 +1,208 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Copyright 2019 Adobe Systems Incorporated
+ ~
+ ~ Licensed under the Apache License, Version 2.0 (the "License");
+ ~ you may not use this file except in compliance with the License.
+ ~ You may obtain a copy of the License at
+ ~
+ ~     http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing, software
+ ~ distributed under the License is distributed on an "AS IS" BASIS,
+ ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ~ See the License for the specific language governing permissions and
+ ~ limitations under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+
+package com.adobe.cq.commerce.demandware.preview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PreviewDiskStoreTest {
+
+    // segments are at least 1 MB, a store of 8 MB uses segments of that size
+    private static final long MAX_SIZE = 8 * 1024 * 1024;
+    // random letters barely compress, a few fillers fill a segment
+    private static final int FILLER_LENGTH = 400 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PreviewDiskStore store;
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReopenLoadsRecords() throws IOException {
+        final File directory = folder.newFolder("store");
+        store = new PreviewDiskStore(directory, MAX_SIZE);
+        final long now = System.currentTimeMillis();
+        put("a", "preview a", now);
+        put("b", "preview b", now);
+        store.remove("b");
+
+        reopen(directory);
+
+        assertEquals("preview a", get("a", now));
+        assertNull(get("b", now));
+        assertEquals(1, store.getEntryCount());
+    }
+
+    @Test
+    public void testReopenAfterTruncation() throws IOException {
+        final File directory = folder.newFolder("store");
+        store = new PreviewDiskStore(directory, MAX_SIZE);
+        final long now = System.currentTimeMillis();
+        put("a", "preview a", now);
+        put("b", "preview b", now);
+        store.close();
+        store = null;
+
+        // cut the last record in the middle, as a crash while appending would
+        final File segment = new File(directory, "segment-0.dat");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+        store = new PreviewDiskStore(directory, MAX_SIZE);
+
+        assertEquals("preview a", get("a", now));
+        assertNull(get("b", now));
+        assertEquals(1, store.getCorruptCount());
+        assertEquals(segment.length(), store.getSize());
+
+        // appends continue after the last valid record
+        put("c", "preview c", now);
+        reopen(directory);
+        assertEquals("preview a", get("a", now));
+        assertEquals("preview c", get("c", now));
+    }
+
+    @Test
+    public void testCompactThenReopen() throws IOException {
+        final File directory = folder.newFolder("store");
+        store = new PreviewDiskStore(directory, MAX_SIZE);
+        final long now = System.currentTimeMillis();
+        put("a", "preview a", now);
+        put("b", "preview b", now);
+        store.remove("b");
+        fillSegment("filler", now);
+        put("c", "preview c", now);
+        removeFillers("filler");
+
+        store.compact();
+
+        assertEquals(1, store.getCompactionCount());
+        assertTrue(!new File(directory, "segment-0.dat").exists());
+        assertEquals("preview a", get("a", now));
+        assertNull(get("b", now));
+
+        reopen(directory);
+
+        assertEquals("preview a", get("a", now));
+        assertNull(get("b", now));
+        assertEquals("preview c", get("c", now));
+        assertNull(get("filler0", now));
+        assertEquals(2, store.getEntryCount());
+    }
+
+    @Test
+    public void testRemovePutCompactThenReopen() throws IOException {
+        final File directory = folder.newFolder("store");
+        store = new PreviewDiskStore(directory, MAX_SIZE);
+        final long now = System.currentTimeMillis();
+        put("a", "preview a", now);
+        store.remove("a");
+        fillSegment("filler", now);
+        // stored again in the next segment, after the tombstone
+        put("a", "preview a2", now);
+        removeFillers("filler");
+
+        store.compact();
+        reopen(directory);
+
+        assertEquals("preview a2", get("a", now));
+        assertEquals(1, store.getEntryCount());
+    }
+
+    @Test
+    public void testInterruptedCallerKeepsStoreUsable() throws IOException {
+        final File directory = folder.newFolder("store");
+        store = new PreviewDiskStore(directory, MAX_SIZE);
+        final long now = System.currentTimeMillis();
+        put("a", "preview a", now);
+
+        // callers may be interrupted while the cache is used, e.g. when an executor is shut down
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals("preview a", get("a", now));
+            put("b", "preview b", now);
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertEquals("preview a", get("a", now));
+        assertEquals("preview b", get("b", now));
+        put("c", "preview c", now);
+        assertEquals(3, store.getEntryCount());
+        reopen(directory);
+        assertEquals("preview c", get("c", now));
+    }
+
+    private void put(final String key, final String value, final long now) {
+        store.put(key, "/content/" + key, value, now + 60000, now + 120000);
+    }
+
+    private String get(final String key, final long now) {
+        final PreviewDiskStore.Record record = store.get(key, now);
+        return record != null ? record.value : null;
+    }
+
+    private void reopen(final File directory) throws IOException {
+        store.close();
+        store = null;
+        store = new PreviewDiskStore(directory, MAX_SIZE);
+    }
+
+    /**
+     * Append incompressible fillers until the next record starts a new segment.
+     */
+    private void fillSegment(final String prefix, final long now) {
+        final Random random = new Random(42);
+        final StringBuilder value = new StringBuilder(FILLER_LENGTH);
+        for (int i = 0; store.getSize() < 1024 * 1024; i++) {
+            value.setLength(0);
+            for (int j = 0; j < FILLER_LENGTH; j++) {
+                value.append((char) ('a' + random.nextInt(26)));
+            }
+            put(prefix + i, value.toString(), now);
+        }
+        assertNotNull(get(prefix + "0", now));
+    }
+
+    private void removeFillers(final String prefix) {
+        for (int i = 0; ; i++) {
+            if (store.get(prefix + i, System.currentTimeMillis()) == null) {
+                break;
+            }
+            store.remove(prefix + i);
+        }
+    }
+}
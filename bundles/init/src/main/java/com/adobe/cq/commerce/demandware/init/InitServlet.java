@@ -35,6 +35,7 @@ import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicHeader;
@@ -121,14 +122,21 @@ public class InitServlet extends SlingAllMethodsServlet {
                     getWebDAVCredentials(slingRequest.getResource().getValueMap()));
                 // upload to webDAV
                 final Sardine webDav = new SardineImpl(httpClientBuilder);
-                getOrCreateFolders(webDav, endPoint, StringUtils.substringBeforeLast(assetURI, "."));
-                webDav.put(endPoint + assetURI, EntityUtils.toByteArray(entity),
-                    entity.getContentType().getValue());
+                try {
+                    getOrCreateFolders(webDav, endPoint, StringUtils.substringBeforeLast(assetURI, "."));
+                    webDav.put(endPoint + assetURI, EntityUtils.toByteArray(entity),
+                        entity.getContentType().getValue());
+                } finally {
+                    // release the connection pool of the instance
+                    webDav.shutdown();
+                }
             } else {
                 LOG.error("Could not get local AEM content for {}", assetURI);
             }
         } catch (IOException e) {
             LOG.error("WebDAV upload failed", e);
+        } finally {
+            HttpClientUtils.closeQuietly(httpClient);
         }
     }
 
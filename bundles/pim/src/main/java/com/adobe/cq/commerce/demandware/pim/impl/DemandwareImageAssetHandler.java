@@ -16,6 +16,7 @@
 
 package com.adobe.cq.commerce.demandware.pim.impl;
 
+import com.adobe.cq.commerce.demandware.DemandwareCallNotPermittedException;
 import com.adobe.cq.commerce.demandware.DemandwareClient;
 import com.adobe.cq.commerce.demandware.DemandwareClientProvider;
 import com.adobe.cq.commerce.demandware.pim.DemandwareCommerceConstants;
@@ -72,7 +73,7 @@ public class DemandwareImageAssetHandler implements ImportAssetHandler {
 
         // call Demandware to render preview for component
         CloseableHttpResponse responseObj = null;
-        CloseableHttpClient httpClient = demandwareClient.getHttpClient();
+        final CloseableHttpClient httpClient = demandwareClient.getHttpClient(DemandwareClient.TRAFFIC_CLASS_BULK);
         try {
             final RequestBuilder requestBuilder = RequestBuilder.get();
 
@@ -111,9 +112,10 @@ public class DemandwareImageAssetHandler implements ImportAssetHandler {
             }
         } catch (IOException e) {
             LOG.error("Failed to download asset", e);
+        } catch (DemandwareCallNotPermittedException e) {
+            LOG.warn("Asset {} not downloaded: {}", endPoint, e.getMessage());
         } finally {
             HttpClientUtils.closeQuietly(responseObj);
-            HttpClientUtils.closeQuietly(httpClient);
         }
         return null;
     }
@@ -40,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
+import com.adobe.cq.commerce.demandware.InheritedPropertyResolver;
 import com.adobe.cq.commerce.demandware.replication.ContentBuilderPlugin;
 import com.day.cq.commons.inherit.HierarchyNodeInheritanceValueMap;
 import com.day.cq.replication.ReplicationAction;
@@ -93,6 +94,9 @@ public class ContentAssetPagePlugin extends AbstractContentBuilderPlugin {
     @Reference
     LiveRelationshipManager liveRelationshipManager;
 
+    @Reference
+    private InheritedPropertyResolver inheritedPropertyResolver;
+
     private String defaultRenderingTemplate;
     private String defaultContentLibrary;
     private Map<String, String> attributeMapping;
@@ -112,13 +116,13 @@ public class ContentAssetPagePlugin extends AbstractContentBuilderPlugin {
 
         // get base values for site, library and language attributes
         final String language = getLanguage(page);
-        final String site = ((HierarchyNodeInheritanceValueMap) pageProperties).getInherited(
-            DemandwareCommerceConstants.PN_DWRE_SITE, String.class);
-        final String library = ((HierarchyNodeInheritanceValueMap) pageProperties).getInherited(
-            DemandwareCommerceConstants.PN_DWRE_LIBRARY, String.class);
+        final String site = inheritedPropertyResolver.getInherited(page, DemandwareCommerceConstants.PN_DWRE_SITE,
+            null);
+        final String library = inheritedPropertyResolver.getInherited(page,
+            DemandwareCommerceConstants.PN_DWRE_LIBRARY, null);
         // get DWRE template for page
-        String template = ((HierarchyNodeInheritanceValueMap) pageProperties)
-            .getInherited(DemandwareCommerceConstants.PN_DWRE_TEMPLATE_PATH, defaultRenderingTemplate);
+        String template = inheritedPropertyResolver.getInherited(page,
+            DemandwareCommerceConstants.PN_DWRE_TEMPLATE_PATH, defaultRenderingTemplate);
         if (StringUtils.isNotEmpty(template)) {
             template = StringUtils.appendIfMissing(template, ".vs", ".vs");
         }
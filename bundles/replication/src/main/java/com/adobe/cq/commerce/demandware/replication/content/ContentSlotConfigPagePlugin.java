@@ -27,6 +27,7 @@ import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ValueMap;
@@ -40,6 +41,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
+import com.adobe.cq.commerce.demandware.InheritedPropertyResolver;
 import com.adobe.cq.commerce.demandware.replication.ContentBuilderPlugin;
 import com.day.cq.commons.inherit.HierarchyNodeInheritanceValueMap;
 import com.day.cq.replication.ReplicationAction;
@@ -71,6 +73,9 @@ public class ContentSlotConfigPagePlugin extends AbstractContentBuilderPlugin {
         DEFAULT_CONTENT_SLOT_CONFIG_API)
     private static final String CONTENT_SLOT_CONFI_API = "api";
 
+    @Reference
+    private InheritedPropertyResolver inheritedPropertyResolver;
+
     @Override
     public JSONObject create(final ReplicationAction action, Resource resource, JSONObject content)
         throws JSONException {
@@ -86,8 +91,8 @@ public class ContentSlotConfigPagePlugin extends AbstractContentBuilderPlugin {
 
         // get base values for site, library and language attributes
         final String language = getLanguage(page);
-        final String site = ((HierarchyNodeInheritanceValueMap) pageProperties).getInherited(
-            DemandwareCommerceConstants.PN_DWRE_SITE, String.class);
+        final String site = inheritedPropertyResolver.getInherited(page, DemandwareCommerceConstants.PN_DWRE_SITE,
+            null);
         final String slotType = pageProperties.get(DemandwareCommerceConstants.PN_DWRE_SLOT_TYPE, String.class);
 
         // add meta data
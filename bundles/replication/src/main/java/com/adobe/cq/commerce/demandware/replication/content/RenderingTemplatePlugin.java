@@ -29,17 +29,16 @@ import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.http.entity.ContentType;
 import org.apache.sling.api.resource.Resource;
-import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.commons.json.JSONException;
 import org.apache.sling.commons.json.JSONObject;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.ComponentContext;
 
+import com.adobe.cq.commerce.demandware.InheritedPropertyResolver;
 import com.adobe.cq.commerce.demandware.RenderService;
 import com.adobe.cq.commerce.demandware.replication.ContentBuilderPlugin;
 import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
-import com.day.cq.commons.inherit.HierarchyNodeInheritanceValueMap;
 import com.day.cq.replication.ReplicationAction;
 import com.day.cq.replication.ReplicationActionType;
 import com.day.cq.wcm.api.Page;
@@ -72,6 +71,9 @@ public class RenderingTemplatePlugin extends AbstractContentBuilderPlugin {
     @Reference
     private RenderService renderService;
 
+    @Reference
+    private InheritedPropertyResolver inheritedPropertyResolver;
+
     private String defaultSite;
 
     @Override
@@ -84,9 +86,8 @@ public class RenderingTemplatePlugin extends AbstractContentBuilderPlugin {
 
         // map page attributes
         final Page page = resource.adaptTo(Page.class);
-        final ValueMap pageProperties = new HierarchyNodeInheritanceValueMap(page.getContentResource());
-        final String site = ((HierarchyNodeInheritanceValueMap) pageProperties).getInherited(
-                DemandwareCommerceConstants.PN_DWRE_SITE, String.class);
+        final String site = inheritedPropertyResolver.getInherited(page, DemandwareCommerceConstants.PN_DWRE_SITE,
+                null);
         final String templatePath = StringUtils.appendIfMissing(StringUtils.defaultIfEmpty(
                 page.getProperties().get(DemandwareCommerceConstants.PN_DWRE_TEMPLATE_PATH, String.class),
                 page.getPath()), ".vs", ".vs");
@@ -137,6 +137,11 @@ public abstract class AbstractOCAPITransportPlugin extends AbstractTransportHand
         HttpResponse response = null;
         String eTagHeaderValue = null;
         response = executeRequest(httpClient, requestBuilder.build(), log);
+        if (response == null) {
+            // without knowing the current state the content can not be updated safely
+            HttpClientUtils.closeQuietly(httpClient);
+            throw new ReplicationException("Can not check if " + getContentType() + " " + id + " already exists");
+        }
         if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
             eTagHeaderValue = getETagHeader(response);
             log.info("%s %s already exists, will be updated", getContentType(), id);
@@ -94,7 +94,7 @@ public abstract class AbstractTransportHandlerPlugin implements TransportHandler
     protected HttpClientBuilder getHttpClientBuilder(final AgentConfig config, final ReplicationLog log) {
         // create and configure the Http client builder
         final DemandwareClient demandwareClient = clientProvider.getClientForSpecificInstance(config);
-        final HttpClientBuilder httpClientBuilder = demandwareClient.getHttpClientBuilder();
+        final HttpClientBuilder httpClientBuilder = demandwareClient.getHttpClientBuilder(DemandwareClient.TRAFFIC_CLASS_BULK);
 
         // configure credentials
         final CredentialsProvider credentialsProvider = createCredentialsProvider(demandwareClient, log);
@@ -36,6 +36,7 @@ import org.apache.sling.commons.json.JSONException;
 import org.apache.sling.commons.json.JSONObject;
 import org.osgi.framework.Constants;
 
+import com.adobe.cq.commerce.demandware.DemandwareCallNotPermittedException;
 import com.adobe.cq.commerce.demandware.DemandwareCommerceConstants;
 import com.adobe.cq.commerce.demandware.replication.TransportHandlerPlugin;
 import com.day.cq.replication.*;
@@ -142,6 +143,10 @@ public class DemandwareTransportHandler implements TransportHandler {
                 }
             } catch (JSONException e) {
                 throw new ReplicationException(e);
+            } catch (DemandwareCallNotPermittedException e) {
+                // fail fast, the queue retries the item once the instance is healthy again
+                log.warn("Replication of %s rejected: %s", action.getPath(), e.getMessage());
+                throw new ReplicationException(e.getMessage(), e);
             }
         } else {
             log.error("Replication action %s not supported", action.getType().getName());
@@ -279,6 +279,9 @@ public class AccessTokenProviderImpl implements AccessTokenProvider {
             } else {
                 builder.setConnectionManager(new PoolingHttpClientConnectionManager());
             }
+            // the provider owns its connection manager, release it together with the client; with its own connection
+            // manager the token requests neither reference the instance pool nor pass the instance circuit breaker
+            builder.setConnectionManagerShared(false);
 
             // set the connection and socket timeouts
             RequestConfig.Builder configBuilder = RequestConfig.custom();
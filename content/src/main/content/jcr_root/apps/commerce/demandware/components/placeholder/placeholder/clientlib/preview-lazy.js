@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2019 Adobe Systems Incorporated
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+/* ==========================================================================================
+ * Loads the previews of Demandware placeholders rendered as lightweight shell. All previews
+ * of the page are requested in parallel, each shell is replaced once its preview arrived.
+ * ==========================================================================================
+ */
+(function(window, document) {
+    "use strict";
+
+    var SHELL_SELECTOR = ".dwre-preview[data-dwre-preview-url]";
+    var LOADING_ATTRIBUTE = "data-dwre-preview-loading";
+    // the fragment servlet answers within its own timeout, this only covers a lost connection
+    var REQUEST_TIMEOUT = 60000;
+
+    function replace(shell, html) {
+        if (!shell.parentNode) {
+            return;
+        }
+        // a contextual fragment executes the scripts of the preview, innerHTML would not
+        var fragment = document.createRange().createContextualFragment(html);
+        shell.parentNode.replaceChild(fragment, shell);
+    }
+
+    function fail(shell) {
+        shell.className += " dwre-placeholder";
+        shell.textContent = "Live Demandware preview failed to load.";
+    }
+
+    function load(shell) {
+        if (shell.hasAttribute(LOADING_ATTRIBUTE)) {
+            return;
+        }
+        shell.setAttribute(LOADING_ATTRIBUTE, "true");
+        var request = new XMLHttpRequest();
+        request.open("GET", shell.getAttribute("data-dwre-preview-url"), true);
+        request.timeout = REQUEST_TIMEOUT;
+        request.onload = function() {
+            if (request.status === 200) {
+                replace(shell, request.responseText);
+            } else {
+                fail(shell);
+            }
+        };
+        // without a response the shell would stay empty
+        request.onerror = request.ontimeout = request.onabort = function() {
+            fail(shell);
+        };
+        request.send();
+    }
+
+    function loadAll(root) {
+        var shells = root.querySelectorAll(SHELL_SELECTOR);
+        for (var i = 0; i < shells.length; i++) {
+            load(shells[i]);
+        }
+    }
+
+    function observe() {
+        if (!window.MutationObserver) {
+            return;
+        }
+        // placeholders are rendered again by the page editor after each change
+        new MutationObserver(function(mutations) {
+            for (var i = 0; i < mutations.length; i++) {
+                var added = mutations[i].addedNodes;
+                for (var j = 0; j < added.length; j++) {
+                    if (added[j].nodeType !== 1) {
+                        continue;
+                    }
+                    if (added[j].matches && added[j].matches(SHELL_SELECTOR)) {
+                        load(added[j]);
+                    } else {
+                        loadAll(added[j]);
+                    }
+                }
+            }
+        }).observe(document.body, {childList: true, subtree: true});
+    }
+
+    function init() {
+        loadAll(document);
+        observe();
+    }
+
+    if (document.readyState === "loading") {
+        document.addEventListener("DOMContentLoaded", init);
+    } else {
+        init();
+    }
+})(window, document);